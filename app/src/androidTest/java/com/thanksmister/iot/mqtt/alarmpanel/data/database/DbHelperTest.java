@@ -0,0 +1,149 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.CurrentStateContract;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Schema migration tests, the range query timings before and after the migration are
+ * written to logcat under the <code>DbHelperTest</code> tag.
+ */
+public class DbHelperTest {
+
+    private static final String TAG = "DbHelperTest";
+    private static final String NAME = "migration_test.db";
+    private static final int ROWS = 20000;
+    private static final int QUERIES = 50;
+    private static final String[] TOPICS = {"home/alarm", "home/door", "home/window", "home/motion"};
+
+    Context appContext;
+
+    @Before
+    public void setUp() throws Exception {
+        appContext = InstrumentationRegistry.getTargetContext();
+        appContext.deleteDatabase(NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        appContext.deleteDatabase(NAME);
+    }
+
+    @Test
+    public void migratesVersionOneDates() throws Exception {
+        SQLiteDatabase v1 = createVersionOne();
+        long before = timeRangeQueries(v1, "createdAt", "'2017-10-01T12:00:00-0700'", "'2017-10-01T13:00:00-0700'");
+        v1.close();
+
+        DbHelper dbHelper = new DbHelper(appContext, NAME);
+        SQLiteDatabase v2 = dbHelper.getWritableDatabase();
+        assertEquals(ROWS, DatabaseUtils.queryNumEntries(v2, SubscriptionModel.TABLE_NAME));
+        // 2017-10-01T12:00:00-0700 is 19:00 UTC
+        assertEquals(1506884400000L, DatabaseUtils.longForQuery(v2, "SELECT " + SubscriptionModel.CREATED_AT
+                + " FROM " + SubscriptionModel.TABLE_NAME + " WHERE " + SubscriptionModel._ID + " = 1", null));
+        // the newest row of each topic is the current state
+        assertEquals(TOPICS.length, DatabaseUtils.queryNumEntries(v2, CurrentStateContract.TABLE_NAME));
+        assertEquals(ROWS, DatabaseUtils.longForQuery(v2, "SELECT " + CurrentStateContract.SUBSCRIPTION_ID
+                + " FROM " + CurrentStateContract.TABLE_NAME + " WHERE " + CurrentStateContract.TOPIC + " = ?",
+                new String[]{TOPICS[(ROWS - 1) % TOPICS.length]}));
+
+        // every row counted once in each resolution, and again as rows arrive
+        assertEquals(ROWS, countEvents(v2, EventCountContract.HOUR));
+        assertEquals(ROWS, countEvents(v2, EventCountContract.DAY));
+        v2.insert(SubscriptionModel.TABLE_NAME, null, SubscriptionModel.createBuilder(TOPICS[0], "triggered", "1").build());
+        v2.insert(SubscriptionModel.TABLE_NAME, null, SubscriptionModel.createBuilder(TOPICS[0], "{\"battery\":90}", "2").build());
+        assertEquals(ROWS + 1, countEvents(v2, EventCountContract.HOUR));
+        assertEquals(ROWS + 1, countEvents(v2, EventCountContract.DAY));
+
+        // an older row, like one from an imported archive, only goes to the history
+        v2.insert(SubscriptionModel.TABLE_NAME, null, SubscriptionModel.createBuilder(TOPICS[0], "disarmed", "3")
+                .createdAt(1000).build());
+        assertEquals("2", DatabaseUtils.stringForQuery(v2, "SELECT " + CurrentStateContract.MESSAGE_ID
+                + " FROM " + CurrentStateContract.TABLE_NAME + " WHERE " + CurrentStateContract.TOPIC + " = ?",
+                new String[]{TOPICS[0]}));
+
+        long after = timeRangeQueries(v2, SubscriptionModel.CREATED_AT, "1506884400000", "1506888000000");
+        dbHelper.close();
+
+        Log.i(TAG, "ordered range query v1: " + (before / QUERIES) + " us, v2: " + (after / QUERIES) + " us");
+    }
+
+    private SQLiteDatabase createVersionOne() {
+        SQLiteDatabase db = appContext.openOrCreateDatabase(NAME, Context.MODE_PRIVATE, null);
+        db.execSQL("CREATE TABLE " + SubscriptionModel.TABLE_NAME
+                + " (_id INTEGER PRIMARY KEY, topic TEXT, payload TEXT, messageId TEXT, createdAt TEXT)");
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < ROWS; i++) {
+                // one row a second starting at noon
+                values.put("topic", TOPICS[i % TOPICS.length]);
+                values.put("payload", "armed_home");
+                values.put("messageId", String.valueOf(i));
+                values.put("createdAt", String.format(Locale.US, "2017-10-01T%02d:%02d:%02d-0700",
+                        12 + i / 3600, (i / 60) % 60, i % 60));
+                db.insert(SubscriptionModel.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.setVersion(1);
+        return db;
+    }
+
+    private static long countEvents(SQLiteDatabase db, long resolution) {
+        return DatabaseUtils.longForQuery(db, "SELECT SUM(" + EventCountContract.COUNT + ") FROM "
+                + EventCountContract.TABLE_NAME + " WHERE " + EventCountContract.RESOLUTION + " = " + resolution, null);
+    }
+
+    /**
+     * Total microseconds for the queries, one topic over an hour newest first.
+     */
+    private long timeRangeQueries(SQLiteDatabase db, String column, String from, String to) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < QUERIES; i++) {
+            Cursor cursor = db.rawQuery("SELECT * FROM " + SubscriptionModel.TABLE_NAME + " WHERE topic = ? AND "
+                    + column + " >= " + from + " AND " + column + " < " + to + " ORDER BY " + column + " DESC",
+                    new String[]{TOPICS[i % TOPICS.length]});
+            assertEquals(900, cursor.getCount());
+            cursor.close();
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.stores.SubscriptionSearch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Search timings over a large log, written to logcat under the <code>SearchBenchmarkTest</code> tag.
+ * The log size defaults to a million rows, pass <code>-e rows 100000</code> for a quicker run.
+ */
+public class SearchBenchmarkTest {
+
+    private static final String TAG = "SearchBenchmarkTest";
+    private static final String NAME = "search_test.db";
+    private static final int PAGE_SIZE = 50;
+    private static final int QUERIES = 20;
+    private static final long MAX_QUERY_TIME = 50; // milliseconds
+    private static final long START = 1506884400000L;
+    private static final String[] TOPICS = {"home/alarm", "home/door", "home/window", "home/motion"};
+    private static final String[] PAYLOADS = {"armed_home", "armed_away", "disarmed", "pending", "open", "closed"};
+    // the rows people look for are the rare ones
+    private static final int GARAGE_EVERY = 100;
+    private static final int TRIGGERED_EVERY = 1000;
+
+    Context appContext;
+    DbHelper dbHelper;
+    int rows;
+
+    @Before
+    public void setUp() throws Exception {
+        appContext = InstrumentationRegistry.getTargetContext();
+        appContext.deleteDatabase(NAME);
+        rows = Integer.parseInt(InstrumentationRegistry.getArguments().getString("rows", "1000000"));
+        dbHelper = new DbHelper(appContext, NAME);
+        fill(dbHelper.getWritableDatabase());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dbHelper.close();
+        appContext.deleteDatabase(NAME);
+    }
+
+    @Test
+    public void searchesPayloadTerms() throws Exception {
+        assertFast("payload", new SubscriptionSearch().payload("triggered"));
+    }
+
+    @Test
+    public void searchesTopicPrefix() throws Exception {
+        assertFast("topic", new SubscriptionSearch().topicPrefix("garage/"));
+    }
+
+    @Test
+    public void searchesTimeRange() throws Exception {
+        // an hour in the middle of the log, one row a second
+        long middle = START + (rows / 2) * 1000L;
+        assertFast("range", new SubscriptionSearch().from(middle).to(middle + 3600 * 1000L));
+    }
+
+    @Test
+    public void searchesEverything() throws Exception {
+        assertFast("combined", new SubscriptionSearch().payload("triggered").topicPrefix("home/")
+                .from(START).to(START + rows * 1000L));
+    }
+
+    private void assertFast(String name, SubscriptionSearch search) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor cursor = db.query(SubscriptionModel.TABLE_NAME, SubscriptionModel.COLUMN_NAMES,
+                    search.getSelection(), search.getSelectionArgs(), null, null,
+                    SubscriptionModel.CREATED_AT + " DESC, " + SubscriptionModel._ID + " DESC", String.valueOf(PAGE_SIZE));
+            assertEquals(PAGE_SIZE, cursor.getCount());
+            cursor.close();
+            long time = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+            total += time;
+            max = Math.max(max, time);
+        }
+        Log.i(TAG, name + " search over " + rows + " rows, mean: " + (total / QUERIES) + " us, max: " + max + " us");
+        assertTrue(name + " search took " + max + " us", max < MAX_QUERY_TIME * 1000);
+    }
+
+    private void fill(SQLiteDatabase db) {
+        long start = SystemClock.elapsedRealtime();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + SubscriptionModel.TABLE_NAME + " ("
+                + SubscriptionModel.TOPIC + ", " + SubscriptionModel.PAYLOAD + ", " + SubscriptionModel.MESSAGE_ID
+                + ", " + SubscriptionModel.CREATED_AT + ") VALUES (?, ?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < rows; i++) {
+                insert.bindString(1, i % GARAGE_EVERY == 0 ? "garage/door" : TOPICS[i % TOPICS.length]);
+                insert.bindString(2, i % TRIGGERED_EVERY == 1 ? "triggered" : PAYLOADS[i % PAYLOADS.length]);
+                insert.bindString(3, String.valueOf(i));
+                insert.bindLong(4, START + i * 1000L);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+        Log.i(TAG, "inserted " + rows + " rows with the index in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.util.Log;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Subscription log write-behind tests, the benchmark numbers are written to logcat
+ * under the <code>SubscriptionWriterTest</code> tag.
+ */
+public class SubscriptionWriterTest {
+
+    private static final String TAG = "SubscriptionWriterTest";
+    private static final int MESSAGES = 500;
+
+    ContentResolver contentResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        contentResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        contentResolver.delete(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, null, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        contentResolver.delete(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, null, null);
+    }
+
+    @Test
+    public void writesAllRowsInBatches() throws Exception {
+        SubscriptionWriter writer = new SubscriptionWriter(contentResolver);
+        for (int i = 0; i < MESSAGES; i++) {
+            writer.enqueue("home/alarm", "armed_home", String.valueOf(i));
+        }
+        writer.flush();
+
+        assertEquals(MESSAGES, countRows());
+        assertEquals(MESSAGES, writer.getRowCount());
+        assertTrue(writer.getFlushCount() < MESSAGES / 10);
+    }
+
+    @Test
+    public void benchmarkInserts() throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < MESSAGES; i++) {
+            contentResolver.insert(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI,
+                    SubscriptionModel.createBuilder("home/alarm", "armed_home", String.valueOf(i)).build());
+        }
+        long single = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        SubscriptionWriter writer = new SubscriptionWriter(contentResolver);
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < MESSAGES; i++) {
+            writer.enqueue("home/alarm", "armed_home", String.valueOf(MESSAGES + i));
+        }
+        writer.flush();
+        long batched = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        Log.i(TAG, "insert: " + (MESSAGES * 1000L / single) + " rows/s, 1.0 transactions/message");
+        Log.i(TAG, "write-behind: " + (MESSAGES * 1000L / batched) + " rows/s, "
+                + ((float) writer.getFlushCount() / MESSAGES) + " transactions/message");
+        assertEquals(MESSAGES * 2, countRows());
+    }
+
+    private int countRows() {
+        Cursor cursor = contentResolver.query(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, null, null, null, null);
+        int count = cursor == null ? 0 : cursor.getCount();
+        if (cursor != null) {
+            cursor.close();
+        }
+        return count;
+    }
+}
@@ -19,10 +19,20 @@
 package com.thanksmister.iot.mqtt.alarmpanel;
 
 import android.app.Application;
+import android.content.Context;
 import android.support.annotation.NonNull;
 
 import com.crashlytics.android.Crashlytics;
+import com.facebook.stetho.DumperPluginsProvider;
 import com.facebook.stetho.Stetho;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.DatabaseDumperPlugin;
+import com.thanksmister.iot.mqtt.alarmpanel.data.journal.EventCompactor;
+import com.thanksmister.iot.mqtt.alarmpanel.data.journal.EventJournal;
+import com.thanksmister.iot.mqtt.alarmpanel.data.stores.ArchiveDumperPlugin;
+import com.thanksmister.iot.mqtt.alarmpanel.data.stores.SubscriptionRetention;
+import com.thanksmister.iot.mqtt.alarmpanel.network.MqttDumperPlugin;
+import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration;
 import com.thanksmister.iot.mqtt.alarmpanel.utils.CrashlyticsTree;
 
 import dpreference.DPreference;
@@ -32,6 +42,8 @@ import timber.log.Timber;
 public class BaseApplication extends Application {
 
     private static BaseApplication instance;
+    private SubscriptionRetention retention;
+    private EventCompactor compactor;
     
     @Override
     public void onCreate() {
@@ -40,7 +52,7 @@ public class BaseApplication extends Application {
         if (BuildConfig.DEBUG) {
             Timber.plant(new Timber.DebugTree());
             Stetho.initialize(Stetho.newInitializerBuilder(this)
-                    .enableDumpapp(Stetho.defaultDumperPluginsProvider(this))
+                    .enableDumpapp(getDumperPluginsProvider(this))
                     .enableWebKitInspector(Stetho.defaultInspectorModulesProvider(this))
                     .build());
         } else {
@@ -50,6 +62,31 @@ public class BaseApplication extends Application {
 
         // store instance
         instance = this;
+
+        Configuration configuration = new Configuration(getAppSharedPreferences());
+        retention = new SubscriptionRetention(getContentResolver(), configuration.getLogMaxRows(),
+                configuration.getLogMaxAge(), configuration.getLogMaxSize());
+        retention.start();
+
+        compactor = new EventCompactor(EventJournal.getInstance(getFilesDir()), getContentResolver(),
+                getAppSharedPreferences());
+        compactor.start();
+    }
+
+    /**
+     * The default Stetho dumpapp plugins plus our own debug endpoints.
+     */
+    private static DumperPluginsProvider getDumperPluginsProvider(final Context context) {
+        return new DumperPluginsProvider() {
+            @Override
+            public Iterable<DumperPlugin> get() {
+                return new Stetho.DefaultDumperPluginsBuilder(context)
+                        .provide(new MqttDumperPlugin())
+                        .provide(new DatabaseDumperPlugin(context))
+                        .provide(new ArchiveDumperPlugin(context))
+                        .finish();
+            }
+        };
     }
 
     @NonNull
@@ -57,6 +94,14 @@ public class BaseApplication extends Application {
         return instance;
     }
 
+    public SubscriptionRetention getRetention() {
+        return retention;
+    }
+
+    public EventCompactor getCompactor() {
+        return compactor;
+    }
+
     public DPreference getAppSharedPreferences() {
         return new DPreference(getApplicationContext(), "alarm_preferences");
     }
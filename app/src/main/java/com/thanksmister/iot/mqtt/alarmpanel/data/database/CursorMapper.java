@@ -0,0 +1,74 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads one model from the rows of a cursor. The column indexes are looked up once for each
+ * cursor and not for every column of every row. A mapper keeps the indexes of the last cursor
+ * it read, so use one mapper per thread.
+ */
+public abstract class CursorMapper<T> {
+
+    private Cursor cursor;
+
+    /**
+     * Look up and keep the indexes of the model columns, called once for each cursor.
+     */
+    protected abstract void findColumns(Cursor cursor);
+
+    /**
+     * Build the model from the current row with the indexes found.
+     */
+    protected abstract T map(Cursor cursor);
+
+    /**
+     * The model at the current row of the cursor.
+     */
+    public T read(Cursor cursor) {
+        prepare(cursor);
+        return map(cursor);
+    }
+
+    /**
+     * The models of all the rows after the current one, an empty list for a null cursor.
+     */
+    public List<T> readList(Cursor cursor) {
+        if (cursor == null) {
+            return new ArrayList<>();
+        }
+        List<T> list = new ArrayList<>(Math.max(cursor.getCount(), 0));
+        prepare(cursor);
+        while (cursor.moveToNext()) {
+            list.add(map(cursor));
+        }
+        return list;
+    }
+
+    protected final void prepare(Cursor cursor) {
+        if (this.cursor != cursor) {
+            findColumns(cursor);
+            this.cursor = cursor;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed
+ *   ~ under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.CurrentStateContract;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionContract;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The only way to the database. Owns the single <code>DbHelper</code>, keeps the hot statements
+ * compiled and times every statement it runs.
+ */
+public class Database {
+
+    public static final String EXTRA_PAGE_SIZE = "page_size";
+    public static final String EXTRA_PAGE_COUNT = "page_count";
+    public static final String EXTRA_FREELIST_COUNT = "freelist_count";
+    public static final String EXTRA_RECLAIMED = "reclaimed";
+    public static final String EXTRA_DELETED = "deleted";
+    public static final String EXTRA_CREATED_AT = "created_at";
+
+    private static final String INSERT_SUBSCRIPTION = "INSERT INTO " + SubscriptionContract.TABLE_NAME
+            + " (" + SubscriptionContract.TOPIC + ", " + SubscriptionContract.PAYLOAD + ", "
+            + SubscriptionContract.MESSAGE_ID + ", " + SubscriptionContract.CREATED_AT + ") VALUES (?, ?, ?, ?)";
+    private static final String SELECT_CURRENT_STATE = "SELECT " + CurrentStateContract.PAYLOAD + " FROM "
+            + CurrentStateContract.TABLE_NAME + " WHERE " + CurrentStateContract.TOPIC + " = ?";
+
+    private static Database instance;
+
+    private final DbHelper dbHelper;
+    private final ConcurrentHashMap<String, Timing> timings = new ConcurrentHashMap<>();
+    // a statement is used by one thread at a time, each has its own lock
+    private final Object insertLock = new Object();
+    private final Object selectLock = new Object();
+    private SQLiteStatement insertSubscription;
+    private SQLiteStatement selectCurrentState;
+
+    public static synchronized Database getInstance(Context context) {
+        if (instance == null) {
+            instance = new Database(DbHelper.getInstance(context.getApplicationContext()));
+        }
+        return instance;
+    }
+
+    private Database(DbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    public SQLiteDatabase getWritableDatabase() {
+        return dbHelper.getWritableDatabase();
+    }
+
+    /**
+     * Runs the query and fills the first window so the timing covers the real work.
+     */
+    public Cursor query(String table, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        long start = System.nanoTime();
+        Cursor cursor = getWritableDatabase().query(table, projection, selection, selectionArgs, null, null, sortOrder);
+        cursor.getCount();
+        getTiming("query " + table).record(System.nanoTime() - start);
+        return cursor;
+    }
+
+    public long insert(String table, ContentValues values) {
+        long start = System.nanoTime();
+        long id = getWritableDatabase().insert(table, null, values);
+        getTiming("insert " + table).record(System.nanoTime() - start);
+        return id;
+    }
+
+    public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        long start = System.nanoTime();
+        int count = getWritableDatabase().update(table, values, whereClause, whereArgs);
+        getTiming("update " + table).record(System.nanoTime() - start);
+        return count;
+    }
+
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        long start = System.nanoTime();
+        int count = getWritableDatabase().delete(table, whereClause, whereArgs);
+        getTiming("delete " + table).record(System.nanoTime() - start);
+        return count;
+    }
+
+    /**
+     * Writes the subscription rows in one transaction with the compiled insert.
+     * @return the id of the last row
+     */
+    public long insertSubscriptions(ContentValues[] values) {
+        long start = System.nanoTime();
+        SQLiteDatabase database = getWritableDatabase();
+        long lastId = 0;
+        database.beginTransaction();
+        try {
+            synchronized (insertLock) {
+                if (insertSubscription == null) {
+                    insertSubscription = database.compileStatement(INSERT_SUBSCRIPTION);
+                }
+                for (ContentValues value : values) {
+                    bind(insertSubscription, 1, value.getAsString(SubscriptionContract.TOPIC));
+                    bind(insertSubscription, 2, value.getAsString(SubscriptionContract.PAYLOAD));
+                    bind(insertSubscription, 3, value.getAsString(SubscriptionContract.MESSAGE_ID));
+                    Long createdAt = value.getAsLong(SubscriptionContract.CREATED_AT);
+                    insertSubscription.bindLong(4, createdAt != null ? createdAt : System.currentTimeMillis());
+                    lastId = insertSubscription.executeInsert();
+                    if (lastId <= 0) {
+                        throw new SQLException("Failed to insert row into " + SubscriptionContract.TABLE_NAME);
+                    }
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        getTiming("insert batch " + SubscriptionContract.TABLE_NAME).record(System.nanoTime() - start);
+        return lastId;
+    }
+
+    /**
+     * The latest payload of the topic from the current state table or null.
+     */
+    public String getCurrentState(String topic) {
+        long start = System.nanoTime();
+        String payload = null;
+        synchronized (selectLock) {
+            if (selectCurrentState == null) {
+                selectCurrentState = getWritableDatabase().compileStatement(SELECT_CURRENT_STATE);
+            }
+            bind(selectCurrentState, 1, topic);
+            try {
+                payload = selectCurrentState.simpleQueryForString();
+            } catch (SQLiteDoneException e) {
+                // no message on this topic yet
+            }
+        }
+        getTiming("select " + CurrentStateContract.TABLE_NAME).record(System.nanoTime() - start);
+        return payload;
+    }
+
+    public Bundle getStats() {
+        SQLiteDatabase database = getWritableDatabase();
+        Bundle bundle = new Bundle();
+        bundle.putLong(EXTRA_PAGE_SIZE, DatabaseUtils.longForQuery(database, "PRAGMA page_size", null));
+        bundle.putLong(EXTRA_PAGE_COUNT, DatabaseUtils.longForQuery(database, "PRAGMA page_count", null));
+        bundle.putLong(EXTRA_FREELIST_COUNT, DatabaseUtils.longForQuery(database, "PRAGMA freelist_count", null));
+        return bundle;
+    }
+
+    /**
+     * Deletes subscription rows without a change notification, for trimming the log. Returns
+     * the rows deleted and the newest created date among them, 0 when none were.
+     */
+    public Bundle trimSubscriptions(String whereClause, String[] whereArgs) {
+        long start = System.nanoTime();
+        SQLiteDatabase database = getWritableDatabase();
+        Bundle bundle = new Bundle();
+        database.beginTransaction();
+        try {
+            bundle.putLong(EXTRA_CREATED_AT, DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX("
+                    + SubscriptionContract.CREATED_AT + "), 0) FROM " + SubscriptionContract.TABLE_NAME
+                    + " WHERE " + whereClause, whereArgs));
+            bundle.putInt(EXTRA_DELETED, database.delete(SubscriptionContract.TABLE_NAME, whereClause, whereArgs));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        getTiming("trim " + SubscriptionContract.TABLE_NAME).record(System.nanoTime() - start);
+        return bundle;
+    }
+
+    /**
+     * Gives free pages back to the file system, the stats afterwards include the bytes reclaimed.
+     */
+    public Bundle vacuum() {
+        long start = System.nanoTime();
+        SQLiteDatabase database = getWritableDatabase();
+        Bundle before = getStats();
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum", null) != 2) {
+            // switching to incremental mode only takes effect after a full vacuum, done once
+            database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+            database.execSQL("VACUUM");
+        } else {
+            // each step frees a page, reading the cursor runs it to the end
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum", null);
+            cursor.getCount();
+            cursor.close();
+        }
+        Bundle after = getStats();
+        after.putLong(EXTRA_RECLAIMED, (before.getLong(EXTRA_PAGE_COUNT) - after.getLong(EXTRA_PAGE_COUNT))
+                * after.getLong(EXTRA_PAGE_SIZE));
+        getTiming("vacuum").record(System.nanoTime() - start);
+        return after;
+    }
+
+    /**
+     * Timings by statement, sorted by name.
+     */
+    public Map<String, Timing> getTimings() {
+        return new TreeMap<>(timings);
+    }
+
+    public void resetTimings() {
+        timings.clear();
+    }
+
+    private Timing getTiming(String name) {
+        Timing timing = timings.get(name);
+        if (timing == null) {
+            timing = new Timing();
+            Timing existing = timings.putIfAbsent(name, timing);
+            if (existing != null) {
+                timing = existing;
+            }
+        }
+        return timing;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Count, total and slowest run of one statement.
+     */
+    public static class Timing {
+        private long count;
+        private long total;
+        private long max;
+
+        synchronized void record(long nanos) {
+            count++;
+            total += nanos;
+            max = Math.max(max, nanos);
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * Mean time in microseconds.
+         */
+        public synchronized long getMean() {
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(total / count);
+        }
+
+        /**
+         * Slowest time in microseconds.
+         */
+        public synchronized long getMax() {
+            return TimeUnit.NANOSECONDS.toMicros(max);
+        }
+    }
+}
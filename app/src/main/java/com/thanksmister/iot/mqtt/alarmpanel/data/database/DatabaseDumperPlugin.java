@@ -0,0 +1,50 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.database;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Debug endpoint for the database statement timings, run with <code>dumpapp db</code> on
+ * debug builds. Pass <code>reset</code> to clear the timings.
+ */
+public class DatabaseDumperPlugin implements DumperPlugin {
+
+    private static final String NAME = "db";
+
+    private final Context context;
+
+    public DatabaseDumperPlugin(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void dump(DumperContext dumpContext) {
+        Database database = Database.getInstance(context);
+        Iterator<String> args = dumpContext.getArgsAsList().iterator();
+        if (args.hasNext() && "reset".equals(args.next())) {
+            database.resetTimings();
+        }
+        PrintStream out = dumpContext.getStdout();
+        Bundle stats = database.getStats();
+        long pageSize = stats.getLong(Database.EXTRA_PAGE_SIZE);
+        out.println("Size: " + (stats.getLong(Database.EXTRA_PAGE_COUNT) * pageSize) + " bytes, free "
+                + (stats.getLong(Database.EXTRA_FREELIST_COUNT) * pageSize) + " bytes");
+        for (Map.Entry<String, Database.Timing> entry : database.getTimings().entrySet()) {
+            Database.Timing timing = entry.getValue();
+            out.println(entry.getKey() + ": count " + timing.getCount() + " mean " + timing.getMean()
+                    + " us max " + timing.getMax() + " us");
+        }
+    }
+}
@@ -34,6 +34,8 @@ import java.util.List;
 public final class Db
 {
     private static final int BOOLEAN_TRUE = 1;
+    private static final Gson GSON = new Gson();
+    private static final Type INTEGER_LIST_TYPE = new TypeToken<List<Integer>>() {}.getType();
 
     public static String getString(Cursor cursor, String columnName) {
         return cursor.getString(cursor.getColumnIndexOrThrow(columnName));
@@ -44,7 +46,11 @@ public final class Db
     }
 
     public static boolean getBoolean(Cursor cursor, String columnName) {
-        return getInt(cursor, columnName) == BOOLEAN_TRUE;
+        return getBoolean(cursor, cursor.getColumnIndexOrThrow(columnName));
+    }
+
+    public static boolean getBoolean(Cursor cursor, int index) {
+        return cursor.getInt(index) == BOOLEAN_TRUE;
     }
     
     public static double getDouble(Cursor cursor, String columnName) {
@@ -60,7 +66,11 @@ public final class Db
     }
 
     public static Uri getUri(Cursor cursor, String columnName) {
-        return Uri.parse(cursor.getString(cursor.getColumnIndexOrThrow(columnName)));
+        return getUri(cursor, cursor.getColumnIndexOrThrow(columnName));
+    }
+
+    public static Uri getUri(Cursor cursor, int index) {
+        return Uri.parse(cursor.getString(index));
     }
     
     /**
@@ -70,10 +80,17 @@ public final class Db
      * @return
      */
     public static List<Integer> getIntegerList(Cursor cursor, String columnName) {
-        String listArray = cursor.getString(cursor.getColumnIndexOrThrow(columnName));
-        Type type = new TypeToken<List<String>>() {}.getType();
-        Gson gson = new Gson();
-        return gson.fromJson(listArray, type);
+        return getIntegerList(cursor, cursor.getColumnIndexOrThrow(columnName));
+    }
+
+    /**
+     * Convert string column to List<Integer> object
+     * @param cursor Cursor
+     * @param index Column index
+     * @return
+     */
+    public static List<Integer> getIntegerList(Cursor cursor, int index) {
+        return GSON.fromJson(cursor.getString(index), INTEGER_LIST_TYPE);
     }
 
     private Db() {
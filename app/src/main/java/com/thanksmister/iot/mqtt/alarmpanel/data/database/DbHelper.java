@@ -22,7 +22,18 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.migration.CurrentStateMigration;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.migration.CurrentStateTriggerMigration;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.migration.EpochCreatedAtMigration;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.migration.EventCountMigration;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.migration.Migration;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.migration.SearchMigration;
 import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.CurrentStateContract;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionSearchContract;
+
+import timber.log.Timber;
 
 public class DbHelper extends SQLiteOpenHelper {
 
@@ -30,9 +41,18 @@ public class DbHelper extends SQLiteOpenHelper {
     private static DbHelper dbInstance;
     private static Context dbContext;
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 1;
-    private static final String DATABASE_NAME = "mqtt_alarm_panel.db";
+    // If you change the database schema, add a migration and increment the database version.
+    private static final int DATABASE_VERSION = 6;
+    public static final String DATABASE_NAME = "mqtt_alarm_panel.db";
+
+    // one per version after the first, in order
+    private static final Migration[] MIGRATIONS = {
+            new EpochCreatedAtMigration(),
+            new CurrentStateMigration(),
+            new SearchMigration(),
+            new EventCountMigration(),
+            new CurrentStateTriggerMigration()
+    };
 
     //Singleton getInstance class
     public static synchronized DbHelper getInstance(Context context) {
@@ -44,27 +64,56 @@ public class DbHelper extends SQLiteOpenHelper {
     }
 
     //private for singleton contract
-    public DbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private DbHelper(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    DbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // readers don't block the writer, and with a write ahead log a commit only
+        // needs to sync at checkpoints without risking corruption
+        db.enableWriteAheadLogging();
+        db.execSQL("PRAGMA synchronous = NORMAL");
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
         
         db.execSQL(SubscriptionModel.CREATE_TABLE_STATEMENT);
+        for (String statement : SubscriptionModel.CREATE_INDEX_STATEMENTS) {
+            db.execSQL(statement);
+        }
+        db.execSQL(CurrentStateContract.CREATE_TABLE_STATEMENT);
+        db.execSQL(CurrentStateContract.CREATE_TRIGGER_STATEMENT);
+        db.execSQL(SubscriptionSearchContract.CREATE_TABLE_STATEMENT);
+        for (String statement : SubscriptionSearchContract.CREATE_TRIGGER_STATEMENTS) {
+            db.execSQL(statement);
+        }
+        db.execSQL(EventCountContract.CREATE_TABLE_STATEMENT);
+        db.execSQL(EventCountContract.CREATE_TRIGGER_STATEMENT);
     }
     
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        /*
-        if (oldVersion < newVersion) {
-            db.execSQL(CREATE_TABLE);
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() > oldVersion && migration.getVersion() <= newVersion) {
+                long start = System.currentTimeMillis();
+                migration.migrate(db);
+                Timber.i("Database migrated to version " + migration.getVersion() + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            }
         }
-        */
     }
     
     public void onDelete() {
         SQLiteDatabase db = getReadableDatabase();
         db.execSQL(SubscriptionModel.DELETE_TABLE_STATEMENT);
+        db.execSQL(CurrentStateContract.DELETE_TABLE_STATEMENT);
+        db.execSQL(SubscriptionSearchContract.DELETE_TABLE_STATEMENT);
+        db.execSQL(EventCountContract.DELETE_TABLE_STATEMENT);
     }
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.migration;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.CurrentStateContract;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionContract;
+
+/**
+ * Version 3, adds the current state table and fills it with the newest row of each topic.
+ */
+public class CurrentStateMigration implements Migration {
+
+    @Override
+    public int getVersion() {
+        return 3;
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db) {
+        db.execSQL(CurrentStateContract.CREATE_TABLE_STATEMENT);
+        db.execSQL("INSERT OR REPLACE INTO " + CurrentStateContract.TABLE_NAME + " ("
+                + CurrentStateContract.TOPIC + ", " + CurrentStateContract.PAYLOAD + ", "
+                + CurrentStateContract.MESSAGE_ID + ", " + CurrentStateContract.CREATED_AT + ", "
+                + CurrentStateContract.SUBSCRIPTION_ID + ") SELECT "
+                + SubscriptionContract.TOPIC + ", " + SubscriptionContract.PAYLOAD + ", "
+                + SubscriptionContract.MESSAGE_ID + ", " + SubscriptionContract.CREATED_AT + ", "
+                + SubscriptionContract._ID + " FROM " + SubscriptionContract.TABLE_NAME
+                + " WHERE " + SubscriptionContract._ID + " IN (SELECT MAX(" + SubscriptionContract._ID + ") FROM "
+                + SubscriptionContract.TABLE_NAME + " GROUP BY " + SubscriptionContract.TOPIC + ")");
+        db.execSQL(CurrentStateContract.CREATE_TRIGGER_STATEMENT);
+    }
+}
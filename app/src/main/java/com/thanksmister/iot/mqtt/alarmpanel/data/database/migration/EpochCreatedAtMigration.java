@@ -0,0 +1,66 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.migration;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionContract;
+
+import timber.log.Timber;
+
+/**
+ * Version 2, the subscription log keeps its created date as epoch milliseconds instead of
+ * an ISO string and is indexed for ordered range queries. Rows are copied into the new table
+ * with one statement, the date conversion is done by SQLite so no row is parsed in Java.
+ * Like every migration it runs in the upgrade's transaction.
+ */
+public class EpochCreatedAtMigration implements Migration {
+
+    private static final String OLD_TABLE = SubscriptionContract.TABLE_NAME + "_v1";
+
+    // "2017-10-01T12:00:00-0700" needs a colon in the offset before strftime understands it
+    private static final String EPOCH_MILLIS = "COALESCE(CAST(strftime('%s', substr(createdAt, 1, 22) || ':' "
+            + "|| substr(createdAt, 23)) AS INTEGER) * 1000, 0)";
+
+    @Override
+    public int getVersion() {
+        return 2;
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + SubscriptionContract.TABLE_NAME + " RENAME TO " + OLD_TABLE);
+        db.execSQL(SubscriptionContract.CREATE_TABLE_STATEMENT);
+
+        SQLiteStatement copy = db.compileStatement("INSERT INTO " + SubscriptionContract.TABLE_NAME + " ("
+                + SubscriptionContract._ID + ", " + SubscriptionContract.TOPIC + ", "
+                + SubscriptionContract.PAYLOAD + ", " + SubscriptionContract.MESSAGE_ID + ", "
+                + SubscriptionContract.CREATED_AT + ") SELECT _id, topic, payload, messageId, "
+                + EPOCH_MILLIS + " FROM " + OLD_TABLE);
+        int copied = copy.executeUpdateDelete();
+        copy.close();
+
+        db.execSQL("DROP TABLE " + OLD_TABLE);
+        for (String statement : SubscriptionContract.CREATE_INDEX_STATEMENTS) {
+            db.execSQL(statement);
+        }
+        Timber.i("Migrated " + copied + " subscription rows to epoch dates");
+    }
+}
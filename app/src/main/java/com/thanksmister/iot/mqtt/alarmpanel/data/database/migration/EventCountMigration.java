@@ -0,0 +1,43 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.migration;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract;
+
+/**
+ * Version 5, adds the hour and day alarm state counts and counts the rows already logged.
+ */
+public class EventCountMigration implements Migration {
+
+    @Override
+    public int getVersion() {
+        return 5;
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db) {
+        db.execSQL(EventCountContract.CREATE_TABLE_STATEMENT);
+        for (String statement : EventCountContract.BACKFILL_STATEMENTS) {
+            db.execSQL(statement);
+        }
+        db.execSQL(EventCountContract.CREATE_TRIGGER_STATEMENT);
+    }
+}
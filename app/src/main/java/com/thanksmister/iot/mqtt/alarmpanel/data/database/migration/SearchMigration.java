@@ -0,0 +1,44 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.migration;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionSearchContract;
+
+/**
+ * Version 4, adds the full text index of the subscription log and builds it from the
+ * rows already there.
+ */
+public class SearchMigration implements Migration {
+
+    @Override
+    public int getVersion() {
+        return 4;
+    }
+
+    @Override
+    public void migrate(SQLiteDatabase db) {
+        db.execSQL(SubscriptionSearchContract.CREATE_TABLE_STATEMENT);
+        db.execSQL(SubscriptionSearchContract.REBUILD_STATEMENT);
+        for (String statement : SubscriptionSearchContract.CREATE_TRIGGER_STATEMENTS) {
+            db.execSQL(statement);
+        }
+    }
+}
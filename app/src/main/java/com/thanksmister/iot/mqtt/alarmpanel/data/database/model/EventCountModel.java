@@ -0,0 +1,72 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.model;
+
+import android.database.Cursor;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.CursorMapper;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract;
+
+import java.util.List;
+
+import auto.parcel.AutoParcel;
+
+@AutoParcel
+public abstract class EventCountModel implements EventCountContract {
+
+    /**
+     * <code>HOUR</code> or <code>DAY</code>.
+     */
+    public abstract long resolution();
+    public abstract String topic();
+
+    /**
+     * Start of the bucket, epoch milliseconds.
+     */
+    public abstract long bucket();
+    public abstract String payload();
+    public abstract long count();
+
+    public static List<EventCountModel> getModelList (Cursor cursor) {
+        return new Mapper().readList(cursor);
+    }
+
+    public static final class Mapper extends CursorMapper<EventCountModel> {
+        private int resolution;
+        private int topic;
+        private int bucket;
+        private int payload;
+        private int count;
+
+        @Override
+        protected void findColumns(Cursor cursor) {
+            resolution = cursor.getColumnIndexOrThrow(RESOLUTION);
+            topic = cursor.getColumnIndexOrThrow(TOPIC);
+            bucket = cursor.getColumnIndexOrThrow(BUCKET);
+            payload = cursor.getColumnIndexOrThrow(PAYLOAD);
+            count = cursor.getColumnIndexOrThrow(COUNT);
+        }
+
+        @Override
+        protected EventCountModel map(Cursor cursor) {
+            return new AutoParcel_EventCountModel(cursor.getLong(resolution), cursor.getString(topic),
+                    cursor.getLong(bucket), cursor.getString(payload), cursor.getLong(count));
+        }
+    }
+}
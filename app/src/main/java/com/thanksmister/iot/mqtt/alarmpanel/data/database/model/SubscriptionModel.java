@@ -21,11 +21,9 @@ package com.thanksmister.iot.mqtt.alarmpanel.data.database.model;
 import android.content.ContentValues;
 import android.database.Cursor;
 
-import com.thanksmister.iot.mqtt.alarmpanel.data.database.Db;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.CursorMapper;
 import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionContract;
-import com.thanksmister.iot.mqtt.alarmpanel.utils.DateUtils;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import auto.parcel.AutoParcel;
@@ -37,38 +35,25 @@ public abstract class SubscriptionModel implements SubscriptionContract {
     public abstract String topic();
     public abstract String payload();
     public abstract String messageId();
-    public abstract String createdAt();
+    public abstract long createdAt();
     
     public static SubscriptionModel getModel (Cursor cursor) {
         if (cursor != null && cursor.getCount() > 0) {
-            long id = Db.getLong(cursor, _ID);
-            String topic = Db.getString(cursor, TOPIC);
-            String payload = Db.getString(cursor, PAYLOAD);
-            String messageId = Db.getString(cursor, MESSAGE_ID);
-            String createdAt = Db.getString(cursor, CREATED_AT);
-            return new AutoParcel_SubscriptionModel(id, topic, payload, messageId, createdAt);
+            return new Mapper().read(cursor);
         }
         return null;
     };
 
     public static List<SubscriptionModel> getModelList (Cursor cursor) {
-        List<SubscriptionModel> modelList = new ArrayList<>();
-        if (cursor != null && cursor.getCount() > 0) {
-            while (cursor.moveToNext()) {
-                SubscriptionModel dataModel = getModel(cursor);
-                modelList.add(dataModel);
-            }
-        }
-        return modelList;
+        return new Mapper().readList(cursor);
     };
 
     public static Builder createBuilder(String topic, String payload, String messageId) {
-        String createdAt = DateUtils.generateCreatedAtDate();
         return new Builder()
                 .topic(topic)
                 .payload(payload)
                 .messageId(messageId)
-                .createdAt(createdAt);
+                .createdAt(System.currentTimeMillis());
     }
 
     public static final class Builder {
@@ -89,7 +74,7 @@ public abstract class SubscriptionModel implements SubscriptionContract {
             return this;
         }
         
-        public Builder createdAt(String value) {
+        public Builder createdAt(long value) {
             values.put(CREATED_AT, value);
             return this;
         }
@@ -98,4 +83,76 @@ public abstract class SubscriptionModel implements SubscriptionContract {
             return values;
         }
     }
+
+    /**
+     * Reads models from subscription cursors, or fills a reusable <code>Row</code> for scans
+     * that look at each row once and keep nothing.
+     */
+    public static final class Mapper extends CursorMapper<SubscriptionModel> {
+        private int id;
+        private int topic;
+        private int payload;
+        private int messageId;
+        private int createdAt;
+
+        @Override
+        protected void findColumns(Cursor cursor) {
+            id = cursor.getColumnIndexOrThrow(_ID);
+            topic = cursor.getColumnIndexOrThrow(TOPIC);
+            payload = cursor.getColumnIndexOrThrow(PAYLOAD);
+            messageId = cursor.getColumnIndexOrThrow(MESSAGE_ID);
+            createdAt = cursor.getColumnIndexOrThrow(CREATED_AT);
+        }
+
+        @Override
+        protected SubscriptionModel map(Cursor cursor) {
+            return new AutoParcel_SubscriptionModel(cursor.getLong(id), cursor.getString(topic),
+                    cursor.getString(payload), cursor.getString(messageId), cursor.getLong(createdAt));
+        }
+
+        /**
+         * Fill the row with the current row of the cursor.
+         * @return the same row
+         */
+        public Row read(Cursor cursor, Row row) {
+            prepare(cursor);
+            row.id = cursor.getLong(id);
+            row.topic = cursor.getString(topic);
+            row.payload = cursor.getString(payload);
+            row.messageId = cursor.getString(messageId);
+            row.createdAt = cursor.getLong(createdAt);
+            return row;
+        }
+    }
+
+    /**
+     * Mutable subscription row, only valid until the next call to <code>Mapper.read(Cursor, Row)</code>.
+     */
+    public static final class Row {
+        private long id;
+        private String topic;
+        private String payload;
+        private String messageId;
+        private long createdAt;
+
+        public long id() {
+            return id;
+        }
+
+        public String topic() {
+            return topic;
+        }
+
+        public String payload() {
+            return payload;
+        }
+
+        public String messageId() {
+            return messageId;
+        }
+
+        public long createdAt() {
+            return createdAt;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db;
+
+/**
+ * Latest message for each topic. Kept by a trigger on the subscription table so it is
+ * written in the same transaction as the history row.
+ */
+public interface CurrentStateContract {
+
+    // DB contract strings for queries
+    public static final String TABLE_NAME = "current_state";
+    public static final String TOPIC = "topic";
+    public static final String PAYLOAD = "payload";
+    public static final String MESSAGE_ID = "messageId";
+    public static final String CREATED_AT = "created_at";
+    public static final String SUBSCRIPTION_ID = "subscription_id";
+
+    public static final String CREATE_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " ("
+            + TOPIC
+            + " TEXT PRIMARY KEY, "
+            + PAYLOAD
+            + " TEXT, "
+            + MESSAGE_ID
+            + " TEXT, "
+            + CREATED_AT
+            + " INTEGER NOT NULL DEFAULT 0, "
+            + SUBSCRIPTION_ID
+            + " INTEGER)";
+
+    public static final String TRIGGER_NAME = TABLE_NAME + "_insert";
+
+    /**
+     * Rows older than the current state of their topic, like those of an imported archive,
+     * only go to the history.
+     */
+    public static final String CREATE_TRIGGER_STATEMENT = "CREATE TRIGGER IF NOT EXISTS "
+            + TRIGGER_NAME + " AFTER INSERT ON " + SubscriptionContract.TABLE_NAME
+            + " WHEN NEW." + SubscriptionContract.CREATED_AT + " >= IFNULL((SELECT " + CREATED_AT
+            + " FROM " + TABLE_NAME + " WHERE " + TOPIC + " = NEW." + SubscriptionContract.TOPIC + "), 0)"
+            + " BEGIN INSERT OR REPLACE INTO " + TABLE_NAME
+            + " (" + TOPIC + ", " + PAYLOAD + ", " + MESSAGE_ID + ", " + CREATED_AT + ", " + SUBSCRIPTION_ID + ")"
+            + " VALUES (NEW." + SubscriptionContract.TOPIC + ", NEW." + SubscriptionContract.PAYLOAD
+            + ", NEW." + SubscriptionContract.MESSAGE_ID + ", NEW." + SubscriptionContract.CREATED_AT
+            + ", NEW." + SubscriptionContract._ID + "); END";
+
+    public static final String DROP_TRIGGER_STATEMENT = "DROP TRIGGER IF EXISTS " + TRIGGER_NAME;
+
+    public static final String DELETE_TABLE_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME;
+
+    public static final String[] COLUMN_NAMES = {TOPIC, PAYLOAD, MESSAGE_ID, CREATED_AT, SUBSCRIPTION_ID};
+}
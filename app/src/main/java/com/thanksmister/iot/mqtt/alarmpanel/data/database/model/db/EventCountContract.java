@@ -0,0 +1,112 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db;
+
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils;
+
+/**
+ * Alarm state counts per topic and state in hour and day buckets. A trigger on the
+ * subscription table counts each row in the same transaction as the row is written.
+ * Hour buckets start on the UTC hour, day buckets at local midnight. Counts are history,
+ * they stay when old rows are deleted from the log.
+ */
+public interface EventCountContract {
+
+    // DB contract strings for queries
+    public static final String TABLE_NAME = "event_counts";
+    public static final String RESOLUTION = "resolution";
+    public static final String BUCKET = "bucket";
+    public static final String TOPIC = "topic";
+    public static final String PAYLOAD = "payload";
+    public static final String COUNT = "count";
+
+    // bucket sizes in milliseconds, the resolution column holds one of these
+    public static final long HOUR = 60 * 60 * 1000;
+    public static final long DAY = 24 * HOUR;
+
+    public static final String CREATE_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " ("
+            + RESOLUTION
+            + " INTEGER NOT NULL, "
+            + TOPIC
+            + " TEXT NOT NULL, "
+            + BUCKET
+            + " INTEGER NOT NULL, "
+            + PAYLOAD
+            + " TEXT NOT NULL, "
+            + COUNT
+            + " INTEGER NOT NULL DEFAULT 0, "
+            + "PRIMARY KEY (" + RESOLUTION + ", " + TOPIC + ", " + BUCKET + ", " + PAYLOAD + ")) WITHOUT ROWID";
+
+    // bucket start of a created_at column, %1$s is the column
+    public static final String HOUR_BUCKET_FORMAT = "(%1$s - %1$s %% " + HOUR + ")";
+    public static final String DAY_BUCKET_FORMAT = "(CAST(strftime('%%s', %1$s / 1000, 'unixepoch', 'localtime', "
+            + "'start of day', 'utc') AS INTEGER) * 1000)";
+
+    public static final String COUNTED_PAYLOADS = "('" + AlarmUtils.STATE_ARM_HOME + "', '" + AlarmUtils.STATE_ARM_AWAY
+            + "', '" + AlarmUtils.STATE_DISARM + "', '" + AlarmUtils.STATE_PENDING + "', '" + AlarmUtils.STATE_TRIGGERED + "')";
+
+    public static final String CREATE_TRIGGER_STATEMENT = "CREATE TRIGGER IF NOT EXISTS "
+            + TABLE_NAME + "_insert AFTER INSERT ON " + SubscriptionContract.TABLE_NAME
+            + " WHEN NEW." + SubscriptionContract.TOPIC + " IS NOT NULL AND NEW." + SubscriptionContract.PAYLOAD
+            + " IN " + COUNTED_PAYLOADS
+            + " BEGIN "
+            + Statements.count(HOUR, HOUR_BUCKET_FORMAT)
+            + Statements.count(DAY, DAY_BUCKET_FORMAT)
+            + "END";
+
+    public static final String DELETE_TABLE_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME;
+
+    public static final String[] COLUMN_NAMES = {RESOLUTION, TOPIC, BUCKET, PAYLOAD, COUNT};
+
+    /**
+     * Builds the trigger statements, there is no upsert in the SQLite of our API levels so
+     * the bucket is created empty and then counted.
+     */
+    class Statements {
+        static String count(long resolution, String bucketFormat) {
+            String bucket = String.format(bucketFormat, "NEW." + SubscriptionContract.CREATED_AT);
+            String key = RESOLUTION + " = " + resolution + " AND " + TOPIC + " = NEW." + SubscriptionContract.TOPIC
+                    + " AND " + BUCKET + " = " + bucket + " AND " + PAYLOAD + " = NEW." + SubscriptionContract.PAYLOAD;
+            return "INSERT OR IGNORE INTO " + TABLE_NAME + " (" + RESOLUTION + ", " + TOPIC + ", " + BUCKET + ", "
+                    + PAYLOAD + ") VALUES (" + resolution + ", NEW." + SubscriptionContract.TOPIC + ", " + bucket
+                    + ", NEW." + SubscriptionContract.PAYLOAD + "); "
+                    + "UPDATE " + TABLE_NAME + " SET " + COUNT + " = " + COUNT + " + 1 WHERE " + key + "; ";
+        }
+
+        /**
+         * Counts the rows already in the subscription table.
+         */
+        static String backfill(long resolution, String bucketFormat) {
+            String bucket = String.format(bucketFormat, SubscriptionContract.CREATED_AT);
+            return "INSERT INTO " + TABLE_NAME + " (" + RESOLUTION + ", " + TOPIC + ", " + BUCKET + ", " + PAYLOAD
+                    + ", " + COUNT + ") SELECT " + resolution + ", " + SubscriptionContract.TOPIC + ", " + bucket
+                    + ", " + SubscriptionContract.PAYLOAD + ", COUNT(*) FROM " + SubscriptionContract.TABLE_NAME
+                    + " WHERE " + SubscriptionContract.PAYLOAD + " IN " + COUNTED_PAYLOADS
+                    + " AND " + SubscriptionContract.TOPIC + " IS NOT NULL"
+                    + " GROUP BY " + SubscriptionContract.TOPIC + ", " + bucket + ", " + SubscriptionContract.PAYLOAD;
+        }
+    }
+
+    public static final String[] BACKFILL_STATEMENTS = {
+            Statements.backfill(HOUR, HOUR_BUCKET_FORMAT),
+            Statements.backfill(DAY, DAY_BUCKET_FORMAT)
+    };
+}
@@ -27,7 +27,7 @@ public interface SubscriptionContract extends BaseColumns {
     public static final String TOPIC = "topic";
     public static final String MESSAGE_ID = "messageId";
     public static final String PAYLOAD = "payload";
-    public static final String CREATED_AT = "createdAt";
+    public static final String CREATED_AT = "created_at"; // epoch milliseconds
 
     public static final String CREATE_TABLE_STATEMENT = "CREATE TABLE IF NOT EXISTS "
             + TABLE_NAME
@@ -41,7 +41,14 @@ public interface SubscriptionContract extends BaseColumns {
             + MESSAGE_ID
             + " TEXT, "
             + CREATED_AT
-            + " TEXT)";
+            + " INTEGER NOT NULL DEFAULT 0)";
+
+    public static final String[] CREATE_INDEX_STATEMENTS = {
+            "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_topic_created_at ON " + TABLE_NAME
+                    + " (" + TOPIC + ", " + CREATED_AT + ")",
+            "CREATE INDEX IF NOT EXISTS " + TABLE_NAME + "_created_at ON " + TABLE_NAME
+                    + " (" + CREATED_AT + ")"
+    };
 
     public static final String DELETE_TABLE_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME;
 
@@ -0,0 +1,62 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db;
+
+/**
+ * Full text index of the subscription table. It has no rows of its own, the text is read
+ * from the subscription table and triggers keep the index in step with it.
+ */
+public interface SubscriptionSearchContract {
+
+    // DB contract strings for queries
+    public static final String TABLE_NAME = "mqtt_subscription_search";
+    public static final String DOCID = "docid";
+    public static final String TOPIC = SubscriptionContract.TOPIC;
+    public static final String PAYLOAD = SubscriptionContract.PAYLOAD;
+
+    public static final String CREATE_TABLE_STATEMENT = "CREATE VIRTUAL TABLE IF NOT EXISTS "
+            + TABLE_NAME
+            + " USING fts4(content=\"" + SubscriptionContract.TABLE_NAME + "\", "
+            + TOPIC
+            + ", "
+            + PAYLOAD
+            + ")";
+
+    // external content tables need the old text removed before the row goes away
+    public static final String[] CREATE_TRIGGER_STATEMENTS = {
+            "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_before_update BEFORE UPDATE ON "
+                    + SubscriptionContract.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME
+                    + " WHERE " + DOCID + " = OLD." + SubscriptionContract._ID + "; END",
+            "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_before_delete BEFORE DELETE ON "
+                    + SubscriptionContract.TABLE_NAME + " BEGIN DELETE FROM " + TABLE_NAME
+                    + " WHERE " + DOCID + " = OLD." + SubscriptionContract._ID + "; END",
+            "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_after_update AFTER UPDATE ON "
+                    + SubscriptionContract.TABLE_NAME + " BEGIN INSERT INTO " + TABLE_NAME
+                    + " (" + DOCID + ", " + TOPIC + ", " + PAYLOAD + ") VALUES (NEW." + SubscriptionContract._ID
+                    + ", NEW." + SubscriptionContract.TOPIC + ", NEW." + SubscriptionContract.PAYLOAD + "); END",
+            "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_after_insert AFTER INSERT ON "
+                    + SubscriptionContract.TABLE_NAME + " BEGIN INSERT INTO " + TABLE_NAME
+                    + " (" + DOCID + ", " + TOPIC + ", " + PAYLOAD + ") VALUES (NEW." + SubscriptionContract._ID
+                    + ", NEW." + SubscriptionContract.TOPIC + ", NEW." + SubscriptionContract.PAYLOAD + "); END"
+    };
+
+    public static final String REBUILD_STATEMENT = "INSERT INTO " + TABLE_NAME + " (" + TABLE_NAME + ") VALUES ('rebuild')";
+
+    public static final String DELETE_TABLE_STATEMENT = "DROP TABLE IF EXISTS " + TABLE_NAME;
+}
@@ -0,0 +1,201 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.journal;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions;
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import dpreference.DPreference;
+import timber.log.Timber;
+
+/**
+ * Projects the alarm states found in the event journal into the subscription log and
+ * deletes the segments nobody needs any more. Messages on the state topic are already
+ * logged as they arrive, so only alarm states on other topics are projected.
+ *
+ * <p>How far the journal was projected is kept in a checkpoint file written after the rows,
+ * a crash in between projects the last batch again.</p>
+ */
+public class EventCompactor {
+
+    private static final String CHECKPOINT_FILE_NAME = "checkpoint";
+    private static final long PASS_INTERVAL = 5 * 1000; // 5 seconds
+    private static final int BATCH_SIZE = 500;
+    // raw traffic kept after it was projected, 32 MB with the default segment size
+    private static final int KEEP_SEGMENTS = 8;
+
+    private final EventJournal journal;
+    private final ContentResolver contentResolver;
+    private final DPreference preferences;
+    private final File checkpointFile;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> future;
+
+    private volatile long lastPassTime;
+    private volatile long lastPassRead;
+    private volatile long lastPassProjected;
+
+    public EventCompactor(EventJournal journal, ContentResolver contentResolver, DPreference preferences) {
+        this.journal = journal;
+        this.contentResolver = contentResolver;
+        this.preferences = preferences;
+        this.checkpointFile = new File(journal.getDirectory(), CHECKPOINT_FILE_NAME);
+    }
+
+    public synchronized void start() {
+        if (future == null) {
+            future = executor.scheduleWithFixedDelay(passTask, PASS_INTERVAL, PASS_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    private final Runnable passTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                runPass();
+            } catch (Exception e) {
+                // keep the schedule alive, the next pass starts from the checkpoint again
+                Timber.e("Event compaction failed: " + e.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Project everything appended since the last pass. Blocks, call off the main thread.
+     */
+    public void runPass() throws IOException {
+        if (!journal.getDirectory().exists()) {
+            return;
+        }
+        long start = SystemClock.elapsedRealtime();
+        String stateTopic = preferences.getPrefString(MQTTOptions.PREF_STATE_TOPIC, AlarmUtils.STATE_TOPIC);
+        journal.sync();
+
+        EventJournal.Reader reader = journal.read(readCheckpoint());
+        List<ContentValues> batch = new ArrayList<>();
+        long read = 0;
+        long projected = 0;
+        while (reader.next()) {
+            read++;
+            if (TextUtils.equals(reader.getTopic(), stateTopic)) {
+                continue;
+            }
+            String state = AlarmUtils.getAlarmState(reader.getPayload(), reader.getPayloadLength());
+            if (state == null) {
+                continue;
+            }
+            batch.add(SubscriptionModel.createBuilder(reader.getTopic(), state, null)
+                    .createdAt(reader.getTimestamp())
+                    .build());
+            if (batch.size() == BATCH_SIZE) {
+                projected += insert(batch);
+                writeCheckpoint(reader.getPosition());
+            }
+        }
+        projected += insert(batch);
+        long position = reader.getPosition();
+        writeCheckpoint(position);
+
+        int segment = EventJournal.segmentOf(position);
+        int segmentsDeleted = journal.deleteSegmentsBefore(segment - KEEP_SEGMENTS + 1);
+
+        lastPassTime = SystemClock.elapsedRealtime() - start;
+        lastPassRead = read;
+        lastPassProjected = projected;
+        if (read > 0) {
+            Timber.d("Event compaction read " + read + " events, projected " + projected
+                    + ", deleted " + segmentsDeleted + " segments in " + lastPassTime + " ms");
+        }
+    }
+
+    private int insert(List<ContentValues> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        int count = contentResolver.bulkInsert(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI,
+                batch.toArray(new ContentValues[batch.size()]));
+        batch.clear();
+        return count;
+    }
+
+    private long readCheckpoint() {
+        if (!checkpointFile.exists()) {
+            return 0;
+        }
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new FileInputStream(checkpointFile));
+            return inputStream.readLong();
+        } catch (IOException e) {
+            Timber.e("Event checkpoint read failed: " + e.getMessage());
+            return 0;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the checkpoint in one rename so a crash leaves the old or the new one.
+     */
+    private void writeCheckpoint(long position) throws IOException {
+        File tempFile = new File(checkpointFile.getPath() + ".tmp");
+        FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+        DataOutputStream outputStream = new DataOutputStream(fileOutputStream);
+        try {
+            outputStream.writeLong(position);
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(checkpointFile)) {
+            throw new IOException("Unable to replace " + checkpointFile);
+        }
+    }
+
+    /**
+     * Milliseconds the last pass took.
+     */
+    public long getLastPassTime() {
+        return lastPassTime;
+    }
+
+    public long getLastPassRead() {
+        return lastPassRead;
+    }
+
+    public long getLastPassProjected() {
+        return lastPassProjected;
+    }
+}
@@ -0,0 +1,476 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.journal;
+
+import android.support.annotation.NonNull;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Append-only store for every message on a topic filter, much cheaper per message than a
+ * row in SQLite. Events go into fixed size segment files written through a memory map, so
+ * an append is a copy into the page cache and survives the process being killed. Topics
+ * are written once to a dictionary file and events refer to them by number.
+ *
+ * <p>A record is <code>length, crc, timestamp, topic id, payload</code>. The length is
+ * written last and the crc covers the rest, so on open the last segment is read up to the
+ * first record that is incomplete or damaged and appending carries on from there.</p>
+ *
+ * <p>Positions are the segment number in the high and the offset in the low 32 bits, they
+ * only ever grow.</p>
+ */
+public class EventJournal {
+
+    private static final String DIRECTORY_NAME = "events";
+    private static final String TOPICS_FILE_NAME = "topics";
+    private static final String SEGMENT_FORMAT = "segment-%08d";
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024; // 4 MB
+
+    // length, crc, timestamp, topic id
+    static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    private static EventJournal instance;
+
+    private final File directory;
+    private final int segmentSize;
+    private final CRC32 crc = new CRC32();
+    private final byte[] header = new byte[12];
+    private final Map<String, Integer> topicIds = new HashMap<>();
+    private final List<String> topics = new ArrayList<>();
+    private DataOutputStream topicStream;
+    private FileOutputStream topicFileStream;
+
+    private boolean opened;
+    private int firstSegment;
+    private int segment = -1;
+    private MappedByteBuffer buffer;
+    private long appendCount;
+
+    /**
+     * There must be only one journal per directory, so the journal is shared by the process.
+     */
+    public static synchronized EventJournal getInstance(@NonNull File filesDir) {
+        if (instance == null) {
+            instance = new EventJournal(new File(filesDir, DIRECTORY_NAME), DEFAULT_SEGMENT_SIZE);
+        }
+        return instance;
+    }
+
+    /**
+     * Nothing is read or created until the journal is first used.
+     */
+    EventJournal(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Append an event, the topic is added to the dictionary the first time it is seen.
+     * @throws IllegalArgumentException when the payload doesn't fit in a segment
+     */
+    public synchronized void append(long timestamp, @NonNull String topic, @NonNull byte[] payload) throws IOException {
+        int length = HEADER_SIZE + payload.length;
+        if (length > segmentSize) {
+            throw new IllegalArgumentException("Payload of " + payload.length + " bytes is larger than a segment");
+        }
+        open();
+        int topicId = getTopicId(topic);
+        if (buffer == null || buffer.remaining() < length) {
+            roll();
+        }
+        int start = buffer.position();
+        buffer.position(start + 8);
+        buffer.putLong(timestamp);
+        buffer.putInt(topicId);
+        buffer.put(payload);
+        buffer.putInt(start + 4, checksum(crc, header, timestamp, topicId, payload, payload.length));
+        // the length makes the record visible, it goes in last
+        buffer.putInt(start, length);
+        appendCount++;
+    }
+
+    /**
+     * Flush the current segment to disk, appends are only in the page cache until then.
+     */
+    public synchronized void sync() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * The position after the last complete record.
+     */
+    public synchronized long getEnd() throws IOException {
+        open();
+        return buffer == null ? position(firstSegment, 0) : position(segment, buffer.position());
+    }
+
+    /**
+     * The position of the first record still kept.
+     */
+    public synchronized long getStart() throws IOException {
+        open();
+        return position(firstSegment, 0);
+    }
+
+    /**
+     * Reads the records from the position up to the end as it is now. A position in a
+     * deleted segment starts at the oldest record kept.
+     */
+    public Reader read(long from) throws IOException {
+        long start = Math.max(from, getStart());
+        return new Reader(start, getEnd());
+    }
+
+    /**
+     * Delete the segments before the given one, the current segment is always kept.
+     * @return the number of segments deleted
+     */
+    public synchronized int deleteSegmentsBefore(int before) throws IOException {
+        open();
+        int deleted = 0;
+        int last = Math.min(before, segment);
+        while (firstSegment < last) {
+            File file = getSegmentFile(firstSegment);
+            if (file.exists() && !file.delete()) {
+                Timber.e("Unable to delete " + file);
+                break;
+            }
+            firstSegment++;
+            deleted++;
+        }
+        return deleted;
+    }
+
+    public synchronized int getSegmentCount() throws IOException {
+        open();
+        return segment < 0 ? 0 : segment - firstSegment + 1;
+    }
+
+    /**
+     * Events appended since the journal was opened.
+     */
+    public synchronized long getAppendCount() {
+        return appendCount;
+    }
+
+    public synchronized void close() {
+        sync();
+        buffer = null;
+        if (topicStream != null) {
+            try {
+                topicStream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            topicStream = null;
+            topicFileStream = null;
+        }
+        topics.clear();
+        topicIds.clear();
+        segment = -1;
+        opened = false;
+    }
+
+    synchronized String getTopic(int topicId) {
+        return topicId >= 0 && topicId < topics.size() ? topics.get(topicId) : null;
+    }
+
+    private int getTopicId(String topic) throws IOException {
+        Integer topicId = topicIds.get(topic);
+        if (topicId != null) {
+            return topicId;
+        }
+        if (topicStream == null) {
+            topicFileStream = new FileOutputStream(new File(directory, TOPICS_FILE_NAME), true);
+            topicStream = new DataOutputStream(topicFileStream);
+        }
+        // on disk before any record can refer to it
+        topicStream.writeUTF(topic);
+        topicStream.flush();
+        topicFileStream.getFD().sync();
+        topicId = topics.size();
+        topics.add(topic);
+        topicIds.put(topic, topicId);
+        return topicId;
+    }
+
+    /**
+     * Loads the topics and finds the end of the last segment, only the first call does anything.
+     */
+    private void open() throws IOException {
+        if (opened) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        loadTopics();
+        int[] segments = listSegments();
+        if (segments.length > 0) {
+            firstSegment = segments[0];
+            segment = segments[segments.length - 1];
+            buffer = map(segment);
+            recover(buffer);
+        }
+        opened = true;
+        Timber.d("Event journal opened, segments: " + segments.length + ", topics: " + topics.size());
+    }
+
+    private void roll() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        segment = segment < 0 ? firstSegment : segment + 1;
+        buffer = map(segment);
+    }
+
+    /**
+     * Moves the buffer to the end of the last valid record and clears whatever follows it.
+     */
+    private void recover(ByteBuffer buffer) {
+        Record record = new Record();
+        int offset = 0;
+        while (true) {
+            int length = record.read(buffer, offset, segmentSize);
+            if (length <= 0) {
+                break;
+            }
+            offset += length;
+        }
+        if (offset + 4 <= segmentSize && buffer.getInt(offset) != 0) {
+            Timber.w("Event journal damaged after " + offset + " bytes of segment " + segment + ", truncating");
+            for (int i = offset; i < segmentSize; i++) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+        buffer.position(offset);
+    }
+
+    private static int checksum(CRC32 crc, byte[] header, long timestamp, int topicId, byte[] payload, int length) {
+        for (int i = 0; i < 8; i++) {
+            header[i] = (byte) (timestamp >>> (56 - 8 * i));
+        }
+        for (int i = 0; i < 4; i++) {
+            header[8 + i] = (byte) (topicId >>> (24 - 8 * i));
+        }
+        crc.reset();
+        crc.update(header, 0, header.length);
+        crc.update(payload, 0, length);
+        return (int) crc.getValue();
+    }
+
+    private void loadTopics() throws IOException {
+        File file = new File(directory, TOPICS_FILE_NAME);
+        if (!file.exists()) {
+            return;
+        }
+        // a small file read once, the file pointer tells where the last whole topic ends
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            long valid = 0;
+            try {
+                while (valid < randomAccessFile.length()) {
+                    String topic = randomAccessFile.readUTF();
+                    topicIds.put(topic, topics.size());
+                    topics.add(topic);
+                    valid = randomAccessFile.getFilePointer();
+                }
+            } catch (EOFException e) {
+                // a topic cut short by a crash, no record refers to it
+                randomAccessFile.setLength(valid);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private int[] listSegments() {
+        String[] names = directory.list();
+        if (names == null) {
+            return new int[0];
+        }
+        int[] segments = new int[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX)) {
+                try {
+                    segments[count++] = Integer.parseInt(name.substring(SEGMENT_PREFIX.length()));
+                } catch (NumberFormatException e) {
+                    // not ours
+                }
+            }
+        }
+        segments = Arrays.copyOf(segments, count);
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    private File getSegmentFile(int segment) {
+        return new File(directory, String.format(Locale.US, SEGMENT_FORMAT, segment));
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        return map(getSegmentFile(segment), FileChannel.MapMode.READ_WRITE, segmentSize);
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, int size) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            // the mapping stays valid after the file is closed
+            return randomAccessFile.getChannel().map(mode, 0, size);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    static int segmentOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    /**
+     * Reads records in order, the values of the last record read are valid until the next
+     * call to <code>next()</code>. The payload buffer is reused.
+     */
+    public class Reader {
+        private final long end;
+        private final Record record = new Record();
+        private int readSegment;
+        private int offset;
+        private ByteBuffer readBuffer;
+        private String topic;
+
+        Reader(long start, long end) {
+            this.end = end;
+            this.readSegment = segmentOf(start);
+            this.offset = offsetOf(start);
+        }
+
+        public boolean next() throws IOException {
+            while (position(readSegment, offset) < end) {
+                if (readBuffer == null) {
+                    File file = getSegmentFile(readSegment);
+                    if (!file.exists()) {
+                        nextSegment();
+                        continue;
+                    }
+                    readBuffer = map(file, FileChannel.MapMode.READ_ONLY, segmentSize);
+                }
+                int limit = readSegment == segmentOf(end) ? offsetOf(end) : segmentSize;
+                int length = record.read(readBuffer, offset, limit);
+                if (length == 0) {
+                    // the rest of the segment was left empty when it rolled
+                    nextSegment();
+                    continue;
+                }
+                topic = EventJournal.this.getTopic(record.topicId);
+                offset += length;
+                return true;
+            }
+            return false;
+        }
+
+        private void nextSegment() {
+            readSegment++;
+            offset = 0;
+            readBuffer = null;
+        }
+
+        /**
+         * The position after the last record read, where the next reader should start.
+         */
+        public long getPosition() {
+            return position(readSegment, offset);
+        }
+
+        public long getTimestamp() {
+            return record.timestamp;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        /**
+         * The payload is only the first <code>getPayloadLength()</code> bytes.
+         */
+        public byte[] getPayload() {
+            return record.payload;
+        }
+
+        public int getPayloadLength() {
+            return record.payloadLength;
+        }
+
+        public byte[] copyPayload() {
+            return Arrays.copyOf(record.payload, record.payloadLength);
+        }
+    }
+
+    /**
+     * The last record read and the buffers to read it, reused from record to record.
+     */
+    private static class Record {
+        private final CRC32 crc = new CRC32();
+        private final byte[] header = new byte[12];
+        private byte[] payload = new byte[256];
+        private int payloadLength;
+        private long timestamp;
+        private int topicId;
+
+        /**
+         * Reads the record at the offset.
+         * @return its length, or 0 when there isn't a complete valid record
+         */
+        int read(ByteBuffer buffer, int offset, int limit) {
+            if (offset + HEADER_SIZE > limit) {
+                return 0;
+            }
+            int length = buffer.getInt(offset);
+            if (length < HEADER_SIZE || length > limit - offset) {
+                return 0;
+            }
+            timestamp = buffer.getLong(offset + 8);
+            topicId = buffer.getInt(offset + 16);
+            payloadLength = length - HEADER_SIZE;
+            if (payload.length < payloadLength) {
+                payload = new byte[Math.max(payloadLength, payload.length * 2)];
+            }
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset + HEADER_SIZE);
+            duplicate.get(payload, 0, payloadLength);
+            int checksum = checksum(crc, header, timestamp, topicId, payload, payloadLength);
+            return checksum == buffer.getInt(offset + 4) ? length : 0;
+        }
+    }
+}
@@ -18,41 +18,99 @@
 
 package com.thanksmister.iot.mqtt.alarmpanel.data.provider;
 
-import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.DatabaseUtils;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import com.thanksmister.iot.mqtt.alarmpanel.data.database.DbHelper;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.Database;
 import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.CurrentStateContract;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract;
 
 public class ContentProvider extends ContentProviderBase {
     
     public static final Uri SUBSCRIPTION_DATA_TABLE_URI = CONTENT_URI.buildUpon().appendPath(SubscriptionModel.TABLE_NAME).build();
-    
-    public ContentProvider()
-    {
+    public static final Uri CURRENT_STATE_TABLE_URI = CONTENT_URI.buildUpon().appendPath(CurrentStateContract.TABLE_NAME).build();
+    public static final Uri EVENT_COUNTS_TABLE_URI = CONTENT_URI.buildUpon().appendPath(EventCountContract.TABLE_NAME).build();
+
+    /**
+     * Uri of a single subscription row. Inserts notify the row uri of the newest row they wrote,
+     * observers of the table uri receive it as well.
+     */
+    public static Uri buildSubscriptionUri(long id) {
+        return ContentUris.withAppendedId(SUBSCRIPTION_DATA_TABLE_URI, id);
     }
 
-    DbHelper dbOpenHelper;
-    ContentResolver contentResolver;
+    /**
+     * The row id of a subscription row uri or -1 for any other uri.
+     */
+    public static long getSubscriptionId(Uri uri) {
+        if (uri != null && uri.getPathSegments().size() == 2
+                && SubscriptionModel.TABLE_NAME.equals(uri.getPathSegments().get(0))) {
+            try {
+                return ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
 
-    @Override
-    public boolean onCreate() {
-        dbOpenHelper = new DbHelper(getContext());
-        contentResolver = getContext().getContentResolver();
-        return true;
+    /**
+     * Notified once after a retention pass deleted rows, with the newest created date among
+     * them. Observers showing only newer rows can ignore it.
+     */
+    public static Uri buildTrimUri(long createdAt) {
+        return SUBSCRIPTION_DATA_TABLE_URI.buildUpon().appendPath(PATH_TRIM)
+                .appendPath(String.valueOf(createdAt)).build();
+    }
+
+    /**
+     * The newest created date removed by the trim a trim uri is for, or -1 for any other uri.
+     */
+    public static long getTrimCreatedAt(Uri uri) {
+        if (uri != null && uri.getPathSegments().size() == 3
+                && SubscriptionModel.TABLE_NAME.equals(uri.getPathSegments().get(0))
+                && PATH_TRIM.equals(uri.getPathSegments().get(1))) {
+            try {
+                return ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static final String PATH_TRIM = "trim";
+
+    // methods for call() that don't fit the table uris
+    public static final String METHOD_STATS = "stats";
+    public static final String METHOD_VACUUM = "vacuum";
+    public static final String METHOD_CURRENT_STATE = "current_state";
+    public static final String METHOD_TRIM = "trim";
+    public static final String EXTRA_PAGE_SIZE = Database.EXTRA_PAGE_SIZE;
+    public static final String EXTRA_PAGE_COUNT = Database.EXTRA_PAGE_COUNT;
+    public static final String EXTRA_FREELIST_COUNT = Database.EXTRA_FREELIST_COUNT;
+    public static final String EXTRA_RECLAIMED = Database.EXTRA_RECLAIMED;
+    public static final String EXTRA_PAYLOAD = "payload";
+    public static final String EXTRA_SELECTION_ARGS = "selection_args";
+    public static final String EXTRA_DELETED = Database.EXTRA_DELETED;
+    public static final String EXTRA_CREATED_AT = Database.EXTRA_CREATED_AT;
+    
+    public ContentProvider()
+    {
     }
 
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         if (isValidUri(uri)) {
             String table = getTableName(uri);
-            SQLiteDatabase database = dbOpenHelper.getReadableDatabase();
-            Cursor cursor = database.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+            Cursor cursor = getDatabase().query(table, projection, getSelection(uri, selection), selectionArgs, sortOrder);
             // https://stackoverflow.com/questions/7915050/cursorloader-not-updating-after-data-change
             cursor.setNotificationUri(contentResolver, uri);
             return cursor;
@@ -60,19 +118,19 @@ public class ContentProvider extends ContentProviderBase {
         throw new IllegalArgumentException("Unknown URI " + uri);
     }
     
-    /*
-     String table = getTableName(uri);
-        SQLiteDatabase database = dbOpenHelper.getReadableDatabase();
-        Cursor cursor = database.query(table, projection, selection, selectionArgs, null, null, sortOrder);
-        // https://stackoverflow.com/questions/7915050/cursorloader-not-updating-after-data-change
-        cursor.setNotificationUri(contentResolver, uri);
-        return cursor;
+    /**
+     * Narrows the selection to the row of a subscription row uri.
      */
+    private static String getSelection(Uri uri, String selection) {
+        long id = getSubscriptionId(uri);
+        if (id >= 0) {
+            return DatabaseUtils.concatenateWhere(selection, SubscriptionModel._ID + " = " + id);
+        }
+        return selection;
+    }
 
     public static String getTableName(Uri uri) {
-        String value = uri.getPath();
-        value = value.replace("/", "");//we need to remove '/'
-        return value;
+        return uri.getPathSegments().get(0);
     }
     
     @Override
@@ -80,9 +138,15 @@ public class ContentProvider extends ContentProviderBase {
         // Validates the incoming URI. Only the full provider URI is allowed for inserts.
         if (isValidUri(uri)) {
             String table = getTableName(uri);
-            SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
-            long value = database.insert(table, null, initialValues);
-            contentResolver.notifyChange(uri, null);
+            long value = getDatabase().insert(table, initialValues);
+            if (uri.equals(SUBSCRIPTION_DATA_TABLE_URI)) {
+                contentResolver.notifyChange(buildSubscriptionUri(value), null);
+                // the triggers updated the current state and the counts as well
+                contentResolver.notifyChange(CURRENT_STATE_TABLE_URI, null);
+                contentResolver.notifyChange(EVENT_COUNTS_TABLE_URI, null);
+            } else {
+                contentResolver.notifyChange(uri, null);
+            }
             return Uri.withAppendedPath(CONTENT_URI, String.valueOf(value));
         }
 
@@ -94,9 +158,8 @@ public class ContentProvider extends ContentProviderBase {
         // Validates the incoming URI. Only the full provider URI is allowed for inserts.
         if (isValidUri(uri)) {
             String table = getTableName(uri);
-            SQLiteDatabase database = dbOpenHelper.getWritableDatabase();
             contentResolver.notifyChange(uri, null);
-            return database.update(table, values, whereClause, whereArgs);
+            return getDatabase().update(table, values, getSelection(uri, whereClause), whereArgs);
         }
 
         throw new IllegalArgumentException("Unknown URI " + uri);
@@ -107,9 +170,8 @@ public class ContentProvider extends ContentProviderBase {
         // Validates the incoming URI. Only the full provider URI is allowed for inserts.
         if (isValidUri(uri)) {
             String table = getTableName(uri);
-            SQLiteDatabase dataBase = dbOpenHelper.getWritableDatabase();
             contentResolver.notifyChange(uri, null);
-            return dataBase.delete(table, where, args);
+            return getDatabase().delete(table, getSelection(uri, where), args);
         }
 
         throw new IllegalArgumentException("Unknown URI " + uri);
@@ -124,6 +186,32 @@ public class ContentProvider extends ContentProviderBase {
         throw new IllegalArgumentException("Unknown URI " + uri);
     }
     
+    /**
+     * Database work that can't go through the table URIs. <code>METHOD_STATS</code> returns
+     * the page counts, <code>METHOD_VACUUM</code> gives free pages back to the file system and
+     * returns the bytes reclaimed as well, <code>METHOD_CURRENT_STATE</code> returns the latest
+     * payload of the topic passed as the argument. <code>METHOD_TRIM</code> deletes the
+     * subscription rows matching the argument, with <code>EXTRA_SELECTION_ARGS</code>, without
+     * notifying, the caller notifies the trim uri once it is done.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (METHOD_STATS.equals(method)) {
+            return getDatabase().getStats();
+        } else if (METHOD_VACUUM.equals(method)) {
+            return getDatabase().vacuum();
+        } else if (METHOD_CURRENT_STATE.equals(method)) {
+            Bundle bundle = new Bundle();
+            bundle.putString(EXTRA_PAYLOAD, getDatabase().getCurrentState(arg));
+            return bundle;
+        } else if (METHOD_TRIM.equals(method)) {
+            return getDatabase().trimSubscriptions(arg,
+                    extras != null ? extras.getStringArray(EXTRA_SELECTION_ARGS) : null);
+        }
+        return super.call(method, arg, extras);
+    }
+
     @Nullable
     @Override
     public String getType(@NonNull Uri uri)
@@ -132,6 +220,7 @@ public class ContentProvider extends ContentProviderBase {
     }
 
     public boolean isValidUri(Uri uri) {
-        return (uri.equals(SUBSCRIPTION_DATA_TABLE_URI));
+        return (uri.equals(SUBSCRIPTION_DATA_TABLE_URI) || uri.equals(CURRENT_STATE_TABLE_URI)
+                || uri.equals(EVENT_COUNTS_TABLE_URI) || getSubscriptionId(uri) >= 0);
     }
 }
\ No newline at end of file
@@ -27,29 +27,35 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
-import com.thanksmister.iot.mqtt.alarmpanel.data.database.DbHelper;
-import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.Database;
 
+import static com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider.CURRENT_STATE_TABLE_URI;
+import static com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider.EVENT_COUNTS_TABLE_URI;
 import static com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider.SUBSCRIPTION_DATA_TABLE_URI;
+import static com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider.buildSubscriptionUri;
 
 abstract public class ContentProviderBase extends ContentProvider {
     
     public static final String CONTENT_AUTHORITY = "com.thanksmister.iot.mqtt.alarmpanel";
     public static final Uri CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     
-    DbHelper dbOpenHelper;
+    Database database;
     ContentResolver contentResolver;
 
     public SQLiteDatabase getDataBase() {
-        if(dbOpenHelper == null) {
-            dbOpenHelper = DbHelper.getInstance(getContext());
+        return getDatabase().getWritableDatabase();
+    }
+
+    Database getDatabase() {
+        if(database == null) {
+            database = Database.getInstance(getContext());
         }
-        return dbOpenHelper.getReadableDatabase();
+        return database;
     }
 
     @Override
     public boolean onCreate() {
-        dbOpenHelper = DbHelper.getInstance(getContext());
+        database = Database.getInstance(getContext());
         if(getContext() != null) {
             contentResolver = getContext().getContentResolver();
         }
@@ -59,16 +65,14 @@ abstract public class ContentProviderBase extends ContentProvider {
     @Override
     public int delete(@NonNull Uri uri, String where, String[] args) {
         String table = getTableName(uri);
-        SQLiteDatabase dataBase = getDataBase();
         contentResolver.notifyChange(uri, null, false); // the 3rd parameter causes syncadapter to fire
-        return dataBase.delete(table, where, args);
+        return getDatabase().delete(table, where, args);
     }
 
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues initialValues) {
         String table = getTableName(uri);
-        SQLiteDatabase database = getDataBase();
-        long value = database.insert(table, null, initialValues);
+        long value = getDatabase().insert(table, initialValues);
 
         // If the insert succeeded, the row ID exists.
         if (value > 0) {
@@ -83,44 +87,31 @@ abstract public class ContentProviderBase extends ContentProvider {
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
         String table = getTableName(uri);
-        SQLiteDatabase database = getDataBase();
-        return database.query(table, projection, selection, selectionArgs, null, null, sortOrder);
+        return getDatabase().query(table, projection, selection, selectionArgs, sortOrder);
     }
 
     @Override
     public int update(@NonNull Uri uri, ContentValues values, String whereClause, String[] whereArgs) {
         String table = getTableName(uri);
-        SQLiteDatabase database = getDataBase();
         contentResolver.notifyChange(uri, null, false); // the 3rd parameter causes syncadapter to fire
-        return database.update(table, values, whereClause, whereArgs);
+        return getDatabase().update(table, values, whereClause, whereArgs);
     }
     
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values){
-        int numInserted = 0;
-        String table;
-        if (uri.equals(SUBSCRIPTION_DATA_TABLE_URI)) {
-            table = SubscriptionModel.TABLE_NAME;
-        } else {
+        if (!uri.equals(SUBSCRIPTION_DATA_TABLE_URI)) {
             throw new SQLException("Unsupported uri " + uri);
         }
-
-        SQLiteDatabase database = getDataBase();
-        database.beginTransaction();
-        try {
-            for (ContentValues cv : values) {
-                long newID = database.replaceOrThrow(table, null, cv);
-                if (newID <= 0) {
-                    throw new SQLException("Failed to insert row into " + uri);
-                }
-            }
-            database.setTransactionSuccessful();
-            contentResolver.notifyChange(uri, null);
-            numInserted = values.length;
-        } finally {
-            database.endTransaction();
+        if (values.length == 0) {
+            return 0;
         }
-        return numInserted;
+
+        long lastID = getDatabase().insertSubscriptions(values);
+        // one notification for the batch, observers read everything up to the newest row
+        contentResolver.notifyChange(buildSubscriptionUri(lastID), null);
+        contentResolver.notifyChange(CURRENT_STATE_TABLE_URI, null);
+        contentResolver.notifyChange(EVENT_COUNTS_TABLE_URI, null);
+        return values.length;
     }
 
     protected static String getTableName(Uri uri) {
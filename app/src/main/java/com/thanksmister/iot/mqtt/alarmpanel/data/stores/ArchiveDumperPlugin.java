@@ -0,0 +1,65 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import android.content.Context;
+
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Iterator;
+
+/**
+ * Exports and imports the subscription log from adb, run with
+ * <code>dumpapp history export [file]</code> or <code>dumpapp history import [file]</code>
+ * on debug builds. The file defaults to the archive in the app's external files directory.
+ */
+public class ArchiveDumperPlugin implements DumperPlugin {
+
+    private static final String NAME = "history";
+
+    private final Context context;
+
+    public ArchiveDumperPlugin(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void dump(DumperContext dumpContext) throws DumpException {
+        Iterator<String> args = dumpContext.getArgsAsList().iterator();
+        if (!args.hasNext()) {
+            throw new DumpUsageException("Usage: dumpapp " + NAME + " export|import [file]");
+        }
+        String command = args.next();
+        File file = args.hasNext() ? new File(args.next()) : SubscriptionArchive.getDefaultFile(context);
+        final PrintStream out = dumpContext.getStdout();
+        SubscriptionArchive archive = new SubscriptionArchive(context.getContentResolver());
+        SubscriptionArchive.Listener listener = new SubscriptionArchive.Listener() {
+            @Override
+            public void onProgress(long rows, long bytes) {
+                out.println(rows + " rows, " + bytes + " bytes");
+            }
+        };
+        try {
+            SubscriptionArchive.Result result;
+            if ("export".equals(command)) {
+                result = archive.exportTo(file, listener);
+            } else if ("import".equals(command)) {
+                result = archive.importFrom(file, listener);
+            } else {
+                throw new DumpUsageException("Unknown command " + command);
+            }
+            out.println(command + " " + file + ": " + result);
+        } catch (IOException e) {
+            throw new DumpException(command + " " + file + " failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import static com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract.BUCKET;
+import static com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract.DAY;
+import static com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract.HOUR;
+import static com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract.RESOLUTION;
+import static com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.EventCountContract.TOPIC;
+
+/**
+ * Picks the fewest buckets that cover a range, whole local days from the day counts and
+ * the hours before the first and after the last whole day from the hour counts. The range
+ * is widened to whole hours.
+ */
+public class EventCountQuery {
+
+    private final String topic;
+    private final long from;
+    private final long to;
+    private final long dayStart;
+    private final long dayEnd;
+
+    /**
+     * @param topic the topic or null for all topics
+     * @param from start of the range, epoch milliseconds
+     * @param to end of the range, epoch milliseconds
+     */
+    public EventCountQuery(String topic, long from, long to) {
+        this(topic, from, to, TimeZone.getDefault());
+    }
+
+    EventCountQuery(String topic, long from, long to, TimeZone timeZone) {
+        this.topic = topic;
+        this.from = from - from % HOUR;
+        this.to = Math.max(this.from, to % HOUR == 0 ? to : to - to % HOUR + HOUR);
+
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(this.from);
+        if (calendar.get(Calendar.HOUR_OF_DAY) != 0 || calendar.get(Calendar.MINUTE) != 0) {
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        setMidnight(calendar);
+        long start = calendar.getTimeInMillis();
+        calendar.setTimeInMillis(this.to);
+        setMidnight(calendar);
+        long end = calendar.getTimeInMillis();
+        // days that don't start on the hour would count their edge hours twice
+        if (start < end && start % HOUR == 0 && end % HOUR == 0) {
+            dayStart = start;
+            dayEnd = end;
+        } else {
+            dayStart = dayEnd = this.to;
+        }
+    }
+
+    private static void setMidnight(Calendar calendar) {
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+    }
+
+    public String getSelection() {
+        StringBuilder builder = new StringBuilder();
+        if (topic != null) {
+            builder.append(TOPIC).append(" = ? AND ");
+        }
+        String hours = RESOLUTION + " = " + HOUR + " AND " + BUCKET + " >= ? AND " + BUCKET + " < ?";
+        if (dayStart < dayEnd) {
+            builder.append("((").append(RESOLUTION).append(" = ").append(DAY).append(" AND ")
+                    .append(BUCKET).append(" >= ? AND ").append(BUCKET).append(" < ?) OR (")
+                    .append(hours).append(" AND NOT (").append(BUCKET).append(" >= ? AND ")
+                    .append(BUCKET).append(" < ?)))");
+        } else {
+            builder.append('(').append(hours).append(')');
+        }
+        return builder.toString();
+    }
+
+    public String[] getSelectionArgs() {
+        List<String> args = new ArrayList<>(7);
+        if (topic != null) {
+            args.add(topic);
+        }
+        if (dayStart < dayEnd) {
+            args.add(String.valueOf(dayStart));
+            args.add(String.valueOf(dayEnd));
+        }
+        args.add(String.valueOf(from));
+        args.add(String.valueOf(to));
+        if (dayStart < dayEnd) {
+            args.add(String.valueOf(dayStart));
+            args.add(String.valueOf(dayEnd));
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * The buckets read at most, for checking a range costs what it should.
+     */
+    int getMaxBuckets() {
+        long days = 0;
+        if (dayStart < dayEnd) {
+            // days are 23 to 25 hours long around daylight saving changes
+            days = (dayEnd - dayStart + DAY / 2) / DAY;
+        }
+        return (int) (days + (to - from - (dayEnd - dayStart)) / HOUR);
+    }
+
+    long getFrom() {
+        return from;
+    }
+
+    long getTo() {
+        return to;
+    }
+
+    long getDayStart() {
+        return dayStart;
+    }
+
+    long getDayEnd() {
+        return dayEnd;
+    }
+}
@@ -21,13 +21,18 @@ package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.net.Uri;
+import android.os.Bundle;
 
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.EventCountModel;
 import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
 import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import dpreference.DPreference;
 
@@ -35,6 +40,9 @@ import dpreference.DPreference;
  * Place to store global application values as well as get references to local and remote data stores
  */
 public class StoreManager {
+
+    // latest payload by topic, shared by every store manager in the process
+    private static final ConcurrentHashMap<String, String> currentStates = new ConcurrentHashMap<>();
     
     private final DPreference sharedPreferences;
     private final ContentResolver contentResolver;
@@ -51,33 +59,190 @@ public class StoreManager {
      * @return
      */
     public List<SubscriptionModel> getMqttDataList() {
-        List<SubscriptionModel> modelList = new ArrayList<>();
-        Cursor cursor = contentResolver.query(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, null, null, null, null);
-        if (cursor != null && cursor.getCount() > 0) {
-            while (cursor.moveToNext()) {
-                SubscriptionModel dataModel = SubscriptionModel.getModel(cursor);
-                modelList.add(dataModel);
-            }
+        return queryMqttData(null, null, null);
+    }
+
+    /**
+     * Returns the newest rows, newest first.
+     * @param limit
+     * @return
+     */
+    public List<SubscriptionModel> getLatestMqttData(int limit) {
+        return queryMqttData(null, null, SubscriptionModel.CREATED_AT + " DESC, " + SubscriptionModel._ID + " DESC LIMIT " + limit);
+    }
+
+    /**
+     * Returns a page of rows older than the given row, newest first. Keyset paging on
+     * (created_at, _id) reads only the page from the index however deep into the log it is.
+     * @param createdAt created date of the last row of the previous page
+     * @param id row id of the last row of the previous page
+     * @param limit
+     * @return
+     */
+    public List<SubscriptionModel> getMqttDataBefore(long createdAt, long id, int limit) {
+        return queryMqttData(getKeysetSelection(), getKeysetArgs(createdAt, id), getKeysetOrder(limit));
+    }
+
+    /**
+     * Searches the log, newest first. Pass 0 for the row id to get the first page, or the
+     * created date and row id of the last row of the previous page for the next one.
+     * @param search
+     * @param createdAt
+     * @param id
+     * @param limit
+     * @return the cursor, the caller closes it
+     */
+    public Cursor searchMqttData(SubscriptionSearch search, long createdAt, long id, int limit) {
+        String selection = search.getSelection();
+        String[] selectionArgs = search.getSelectionArgs();
+        if (id > 0) {
+            selection = DatabaseUtils.concatenateWhere(selection, getKeysetSelection());
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, getKeysetArgs(createdAt, id));
+        }
+        return contentResolver.query(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, SubscriptionModel.COLUMN_NAMES,
+                selection, selectionArgs, getKeysetOrder(limit));
+    }
+
+    private static String getKeysetSelection() {
+        return SubscriptionModel.CREATED_AT + " <= ? AND (" + SubscriptionModel.CREATED_AT + " < ? OR "
+                + SubscriptionModel._ID + " < ?)";
+    }
+
+    private static String[] getKeysetArgs(long createdAt, long id) {
+        String created = String.valueOf(createdAt);
+        return new String[]{created, created, String.valueOf(id)};
+    }
+
+    private static String getKeysetOrder(int limit) {
+        return SubscriptionModel.CREATED_AT + " DESC, " + SubscriptionModel._ID + " DESC LIMIT " + limit;
+    }
+
+    /**
+     * Returns the rows written after the given row id, oldest first.
+     * @param id
+     * @param limit
+     * @return
+     */
+    public List<SubscriptionModel> getMqttDataAfter(long id, int limit) {
+        return queryMqttData(SubscriptionModel._ID + " > ?", new String[]{String.valueOf(id)},
+                SubscriptionModel._ID + " LIMIT " + limit);
+    }
+
+    private List<SubscriptionModel> queryMqttData(String selection, String[] selectionArgs, String sortOrder) {
+        Cursor cursor = contentResolver.query(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, SubscriptionModel.COLUMN_NAMES,
+                selection, selectionArgs, sortOrder);
+        List<SubscriptionModel> modelList = SubscriptionModel.getModelList(cursor);
+        if (cursor != null) {
             cursor.close();
         }
         return modelList;
     }
 
     /**
-     * Insert the MQTT data into the database
+     * Queue the MQTT data for the database, rows are written in batches by the
+     * <code>SubscriptionWriter</code> so this doesn't block.
      * @param topic
      * @param payload
      * @param messageId
      */
     public void insertMqttData(String topic, String payload, String messageId) {
-        synchronized( this ) {
-            contentResolver.insert(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, SubscriptionModel.createBuilder(topic, payload, messageId).build());
-            contentResolver.notifyChange(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, null);
+        if (topic != null && payload != null) {
+            currentStates.put(topic, payload);
+        }
+        SubscriptionWriter.getInstance(contentResolver).enqueue(topic, payload, messageId);
+    }
+
+    /**
+     * Write any queued MQTT data now.
+     */
+    public void flushMqttData() {
+        SubscriptionWriter.getInstance(contentResolver).flush();
+    }
+
+    /**
+     * Returns the latest payload received on the topic or null if there is none. Served from
+     * memory once read, the database is only asked for a topic the first time.
+     * @param topic
+     * @return
+     */
+    public String getCurrentState(String topic) {
+        if (topic == null) {
+            return null;
+        }
+        String payload = currentStates.get(topic);
+        if (payload != null) {
+            return payload;
+        }
+        Bundle result = contentResolver.call(ContentProvider.CONTENT_URI, ContentProvider.METHOD_CURRENT_STATE, topic, null);
+        if (result != null) {
+            payload = result.getString(ContentProvider.EXTRA_PAYLOAD);
+        }
+        if (payload != null) {
+            // a message that arrived while we were reading wins
+            String newer = currentStates.putIfAbsent(topic, payload);
+            return newer != null ? newer : payload;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the alarm state counts of each bucket in the range, oldest first.
+     * @param topic the topic or null for all topics
+     * @param resolution <code>EventCountModel.HOUR</code> or <code>EventCountModel.DAY</code>
+     * @param from start of the range, epoch milliseconds
+     * @param to end of the range, epoch milliseconds
+     * @return
+     */
+    public List<EventCountModel> getEventCounts(String topic, long resolution, long from, long to) {
+        String selection = EventCountModel.RESOLUTION + " = ? AND " + EventCountModel.BUCKET + " >= ? AND "
+                + EventCountModel.BUCKET + " < ?";
+        String[] selectionArgs = {String.valueOf(resolution), String.valueOf(from), String.valueOf(to)};
+        if (topic != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, EventCountModel.TOPIC + " = ?");
+            selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs, new String[]{topic});
+        }
+        Cursor cursor = contentResolver.query(ContentProvider.EVENT_COUNTS_TABLE_URI, EventCountModel.COLUMN_NAMES,
+                selection, selectionArgs, EventCountModel.BUCKET);
+        List<EventCountModel> modelList = EventCountModel.getModelList(cursor);
+        if (cursor != null) {
+            cursor.close();
+        }
+        return modelList;
+    }
+
+    /**
+     * Returns the number of times each alarm state was received in the range, read from
+     * the day and hour counts so the cost is the number of buckets and not of rows.
+     * @param topic the topic or null for all topics
+     * @param from start of the range, epoch milliseconds
+     * @param to end of the range, epoch milliseconds
+     * @return counts by alarm state
+     */
+    public Map<String, Long> getEventTotals(String topic, long from, long to) {
+        EventCountQuery query = new EventCountQuery(topic, from, to);
+        Map<String, Long> totals = new HashMap<>();
+        Cursor cursor = contentResolver.query(ContentProvider.EVENT_COUNTS_TABLE_URI,
+                new String[]{EventCountModel.PAYLOAD, EventCountModel.COUNT},
+                query.getSelection(), query.getSelectionArgs(), null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    String payload = cursor.getString(0);
+                    Long total = totals.get(payload);
+                    totals.put(payload, (total != null ? total : 0) + cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
         }
+        return totals;
     }
 
     public void reset() {
         contentResolver.delete(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, null, null);
+        contentResolver.delete(ContentProvider.CURRENT_STATE_TABLE_URI, null, null);
+        contentResolver.delete(ContentProvider.EVENT_COUNTS_TABLE_URI, null, null);
+        currentStates.clear();
     }
 
     /**
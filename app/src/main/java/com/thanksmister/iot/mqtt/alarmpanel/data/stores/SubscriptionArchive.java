@@ -0,0 +1,370 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import timber.log.Timber;
+
+/**
+ * Exports the subscription log to a gzip'd file with one JSON object per line and imports
+ * it again. Both directions stream, the export reads the log a page at a time into a
+ * reusable row and the import inserts a batch at a time, so memory doesn't grow with
+ * the size of the log.
+ *
+ * <p>Imported rows get new row ids, the created dates are kept. Rows already in the log,
+ * same topic, created date and message id, are skipped so importing a file twice doesn't
+ * duplicate the history. Imported rows older than the current state of their topic don't
+ * replace it.</p>
+ */
+public class SubscriptionArchive {
+
+    public static final String FILE_NAME = "history.ndjson.gz";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PAGE_SIZE = 1000;
+    private static final int BATCH_SIZE = 500;
+    private static final int PROGRESS_INTERVAL = 10000; // rows
+
+    static final String FIELD_TOPIC = "topic";
+    static final String FIELD_PAYLOAD = "payload";
+    static final String FIELD_MESSAGE_ID = "messageId";
+    static final String FIELD_CREATED_AT = "createdAt";
+
+    public interface Listener {
+        /**
+         * Called every few thousand rows on the exporting or importing thread.
+         * @param rows rows done so far
+         * @param bytes compressed bytes written or read so far
+         */
+        void onProgress(long rows, long bytes);
+    }
+
+    public static class Result {
+        private final long rows;
+        private final long skipped;
+        private final long bytes;
+        private final long time;
+
+        Result(long rows, long skipped, long bytes, long time) {
+            this.rows = rows;
+            this.skipped = skipped;
+            this.bytes = bytes;
+            this.time = time;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * Rows of the import that were already in the log.
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Size of the compressed file.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Milliseconds the export or import took.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public long getRowsPerSecond() {
+            return time > 0 ? rows * 1000 / time : rows;
+        }
+
+        @Override
+        public String toString() {
+            return rows + " rows (" + skipped + " skipped), " + bytes + " bytes in " + time + " ms (" + getRowsPerSecond() + " rows/s)";
+        }
+    }
+
+    private final ContentResolver contentResolver;
+
+    public SubscriptionArchive(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * The archive in the app's external files directory, where adb can pull and push it.
+     */
+    public static File getDefaultFile(Context context) {
+        File dir = context.getExternalFilesDir(null);
+        return new File(dir != null ? dir : context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Write the whole log to the file, oldest first. The file is only replaced once the
+     * export is complete. Blocks, call off the main thread.
+     * @param file
+     * @param listener optional
+     * @return
+     * @throws IOException
+     */
+    public Result exportTo(File file, Listener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        FileChannel channel = outputStream.getChannel();
+        GZIPOutputStream gzipStream = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(gzipStream, UTF_8), BUFFER_SIZE);
+        JsonWriter jsonWriter = newJsonWriter(writer);
+        long rows = 0;
+        try {
+            SubscriptionModel.Mapper mapper = new SubscriptionModel.Mapper();
+            SubscriptionModel.Row row = new SubscriptionModel.Row();
+            long lastId = 0;
+            int count;
+            do {
+                // keyset pages keep each cursor window small and don't hold a read open for the whole export
+                Cursor cursor = contentResolver.query(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI,
+                        SubscriptionModel.COLUMN_NAMES, SubscriptionModel._ID + " > ?",
+                        new String[]{String.valueOf(lastId)}, SubscriptionModel._ID + " LIMIT " + PAGE_SIZE);
+                if (cursor == null) {
+                    break;
+                }
+                count = 0;
+                try {
+                    while (cursor.moveToNext()) {
+                        mapper.read(cursor, row);
+                        writeRow(jsonWriter, writer, row);
+                        lastId = row.id();
+                        count++;
+                        rows++;
+                        if (listener != null && rows % PROGRESS_INTERVAL == 0) {
+                            listener.onProgress(rows, channel.position());
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } while (count == PAGE_SIZE);
+            writer.flush();
+            gzipStream.finish();
+            channel.force(false);
+        } finally {
+            writer.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+        Result result = new Result(rows, 0, file.length(), SystemClock.elapsedRealtime() - start);
+        if (listener != null) {
+            listener.onProgress(rows, result.getBytes());
+        }
+        Timber.d("Exported " + result + " to " + file);
+        return result;
+    }
+
+    /**
+     * Add the rows of an exported file to the log, a batch per transaction, skipping those
+     * already in it. Blocks, call off the main thread. Rows of batches inserted before a
+     * failure stay in the log, importing the file again adds the rest.
+     * @param file
+     * @param listener optional
+     * @return
+     * @throws IOException
+     */
+    public Result importFrom(File file, Listener listener) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        FileInputStream inputStream = new FileInputStream(file);
+        FileChannel channel = inputStream.getChannel();
+        JsonReader jsonReader;
+        try {
+            // reads the gzip header, a file that isn't one throws here
+            GZIPInputStream gzipStream = new GZIPInputStream(inputStream, BUFFER_SIZE);
+            jsonReader = newJsonReader(new BufferedReader(new InputStreamReader(gzipStream, UTF_8), BUFFER_SIZE));
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+        ContentValues[] batch = new ContentValues[BATCH_SIZE];
+        long rows = 0;
+        long skipped = 0;
+        try {
+            int size = 0;
+            while (true) {
+                ContentValues values = new ContentValues();
+                if (!readRow(jsonReader, values)) {
+                    break;
+                }
+                batch[size++] = values;
+                if (size == BATCH_SIZE) {
+                    skipped += insertBatch(batch, size);
+                    size = 0;
+                }
+                rows++;
+                if (listener != null && rows % PROGRESS_INTERVAL == 0) {
+                    listener.onProgress(rows, channel.position());
+                }
+            }
+            if (size > 0) {
+                skipped += insertBatch(batch, size);
+            }
+        } finally {
+            jsonReader.close();
+        }
+        Result result = new Result(rows, skipped, file.length(), SystemClock.elapsedRealtime() - start);
+        if (listener != null) {
+            listener.onProgress(rows, result.getBytes());
+        }
+        Timber.d("Imported " + result + " from " + file);
+        return result;
+    }
+
+    /**
+     * Insert the first rows of the batch that aren't in the log yet, the log is read once
+     * over the created dates the batch spans.
+     * @return rows skipped
+     */
+    private int insertBatch(ContentValues[] batch, int size) {
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            long createdAt = getCreatedAt(batch[i]);
+            from = Math.min(from, createdAt);
+            to = Math.max(to, createdAt);
+        }
+        Set<String> existing = new HashSet<String>();
+        Cursor cursor = contentResolver.query(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI,
+                new String[]{SubscriptionModel.TOPIC, SubscriptionModel.MESSAGE_ID, SubscriptionModel.CREATED_AT},
+                SubscriptionModel.CREATED_AT + " >= ? AND " + SubscriptionModel.CREATED_AT + " <= ?",
+                new String[]{String.valueOf(from), String.valueOf(to)}, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    existing.add(key(cursor.getString(0), cursor.getString(1), cursor.getLong(2)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        ContentValues[] rows = new ContentValues[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            ContentValues values = batch[i];
+            // the set also catches a row repeated within the batch
+            if (existing.add(key(values.getAsString(SubscriptionModel.TOPIC),
+                    values.getAsString(SubscriptionModel.MESSAGE_ID), getCreatedAt(values)))) {
+                rows[count++] = values;
+            }
+        }
+        if (count < size) {
+            ContentValues[] inserted = new ContentValues[count];
+            System.arraycopy(rows, 0, inserted, 0, count);
+            rows = inserted;
+        }
+        if (count > 0) {
+            contentResolver.bulkInsert(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, rows);
+        }
+        return size - count;
+    }
+
+    private static long getCreatedAt(ContentValues values) {
+        Long createdAt = values.getAsLong(SubscriptionModel.CREATED_AT);
+        return createdAt != null ? createdAt : 0;
+    }
+
+    private static String key(String topic, String messageId, long createdAt) {
+        return topic + '\u0000' + messageId + '\u0000' + createdAt;
+    }
+
+    static JsonWriter newJsonWriter(Writer writer) {
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        // lenient writes one top level object after the other, the new lines go in between
+        jsonWriter.setLenient(true);
+        return jsonWriter;
+    }
+
+    static JsonReader newJsonReader(Reader reader) {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.setLenient(true);
+        return jsonReader;
+    }
+
+    /**
+     * Write the row as one line.
+     */
+    static void writeRow(JsonWriter jsonWriter, Writer writer, SubscriptionModel.Row row) throws IOException {
+        jsonWriter.beginObject();
+        jsonWriter.name(FIELD_TOPIC).value(row.topic());
+        jsonWriter.name(FIELD_PAYLOAD).value(row.payload());
+        jsonWriter.name(FIELD_MESSAGE_ID).value(row.messageId());
+        jsonWriter.name(FIELD_CREATED_AT).value(row.createdAt());
+        jsonWriter.endObject();
+        writer.write('\n');
+    }
+
+    /**
+     * Read the next line into the values, fields we don't know are skipped.
+     * @return false at the end of the file
+     */
+    static boolean readRow(JsonReader jsonReader, ContentValues values) throws IOException {
+        if (jsonReader.peek() == JsonToken.END_DOCUMENT) {
+            return false;
+        }
+        jsonReader.beginObject();
+        while (jsonReader.hasNext()) {
+            String name = jsonReader.nextName();
+            if (jsonReader.peek() == JsonToken.NULL) {
+                jsonReader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case FIELD_TOPIC:
+                    values.put(SubscriptionModel.TOPIC, jsonReader.nextString());
+                    break;
+                case FIELD_PAYLOAD:
+                    values.put(SubscriptionModel.PAYLOAD, jsonReader.nextString());
+                    break;
+                case FIELD_MESSAGE_ID:
+                    values.put(SubscriptionModel.MESSAGE_ID, jsonReader.nextString());
+                    break;
+                case FIELD_CREATED_AT:
+                    values.put(SubscriptionModel.CREATED_AT, jsonReader.nextLong());
+                    break;
+                default:
+                    jsonReader.skipValue();
+                    break;
+            }
+        }
+        jsonReader.endObject();
+        return true;
+    }
+}
@@ -0,0 +1,202 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+import static com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionContract.CREATED_AT;
+import static com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionContract._ID;
+
+/**
+ * Keeps the subscription log within its row, age and size caps. Each pass deletes the oldest
+ * rows in small batches so the writer is never locked out for long, and free pages are only
+ * given back to the file system during the night when nobody is using the panel. Observers
+ * of the log get one change per pass, not one per batch.
+ */
+public class SubscriptionRetention {
+
+    private static final long FIRST_PASS_DELAY = 60 * 1000; // 1 minute
+    private static final long PASS_INTERVAL = 60 * 60 * 1000; // 1 hour
+    private static final int DELETE_BATCH_SIZE = 500;
+    private static final long DELETE_BATCH_PAUSE = 50; // milliseconds
+    private static final long VACUUM_THRESHOLD = 1024 * 1024; // 1 MB of free pages
+    private static final int OFF_PEAK_START = 2; // 2 am
+    private static final int OFF_PEAK_END = 5; // 5 am
+
+    private static final String DELETE_OLDEST = _ID + " IN (SELECT " + _ID + " FROM "
+            + SubscriptionModel.TABLE_NAME + " ORDER BY " + _ID + " LIMIT %d)";
+    private static final String DELETE_BEFORE = _ID + " IN (SELECT " + _ID + " FROM "
+            + SubscriptionModel.TABLE_NAME + " WHERE " + CREATED_AT + " < ? ORDER BY " + _ID + " LIMIT %d)";
+
+    private final ContentResolver contentResolver;
+    private final int maxRows;
+    private final long maxAge;
+    private final long maxSize;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> future;
+    // newest created date deleted by the running pass
+    private long newestDeleted;
+
+    private volatile long lastPassTime;
+    private volatile long lastPassDeleted;
+    private volatile long lastPassReclaimed;
+
+    /**
+     * @param maxRows most rows to keep
+     * @param maxAge days to keep a row
+     * @param maxSize bytes the live pages may use
+     */
+    public SubscriptionRetention(ContentResolver contentResolver, int maxRows, int maxAge, long maxSize) {
+        this.contentResolver = contentResolver;
+        this.maxRows = maxRows;
+        this.maxAge = TimeUnit.DAYS.toMillis(maxAge);
+        this.maxSize = maxSize;
+    }
+
+    public synchronized void start() {
+        if (future == null) {
+            future = executor.scheduleWithFixedDelay(passTask, FIRST_PASS_DELAY, PASS_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    private final Runnable passTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                runPass(isOffPeak());
+            } catch (Exception e) {
+                // keep the schedule alive, the next pass will try again
+                Timber.e("Retention pass failed: " + e.getMessage());
+            }
+        }
+    };
+
+    /**
+     * Trim the log to its caps and vacuum when asked to and there is enough to reclaim.
+     * Blocks, call off the main thread.
+     */
+    public synchronized void runPass(boolean vacuum) {
+        long start = SystemClock.elapsedRealtime();
+        long deleted = 0;
+        newestDeleted = 0;
+
+        String cutoff = String.valueOf(System.currentTimeMillis() - maxAge);
+        int count;
+        do {
+            count = deleteBatch(DELETE_BEFORE, DELETE_BATCH_SIZE, new String[]{cutoff});
+            deleted += count;
+        } while (count == DELETE_BATCH_SIZE);
+
+        long excess = countRows() - maxRows;
+        while (excess > 0) {
+            count = deleteBatch(DELETE_OLDEST, (int) Math.min(excess, DELETE_BATCH_SIZE), null);
+            if (count == 0) {
+                break;
+            }
+            deleted += count;
+            excess -= count;
+        }
+
+        Bundle stats = contentResolver.call(ContentProvider.CONTENT_URI, ContentProvider.METHOD_STATS, null, null);
+        while (stats != null && getLiveSize(stats) > maxSize) {
+            count = deleteBatch(DELETE_OLDEST, DELETE_BATCH_SIZE, null);
+            if (count == 0) {
+                break;
+            }
+            deleted += count;
+            stats = contentResolver.call(ContentProvider.CONTENT_URI, ContentProvider.METHOD_STATS, null, null);
+        }
+
+        long reclaimed = 0;
+        if (vacuum && stats != null && getFreeSize(stats) >= VACUUM_THRESHOLD) {
+            Bundle result = contentResolver.call(ContentProvider.CONTENT_URI, ContentProvider.METHOD_VACUUM, null, null);
+            if (result != null) {
+                reclaimed = result.getLong(ContentProvider.EXTRA_RECLAIMED);
+            }
+        }
+
+        if (deleted > 0) {
+            contentResolver.notifyChange(ContentProvider.buildTrimUri(newestDeleted), null);
+        }
+
+        lastPassTime = SystemClock.elapsedRealtime() - start;
+        lastPassDeleted = deleted;
+        lastPassReclaimed = reclaimed;
+        Timber.i("Retention pass deleted " + deleted + " rows, reclaimed " + reclaimed + " bytes in " + lastPassTime + " ms");
+    }
+
+    private int deleteBatch(String where, int limit, String[] args) {
+        Bundle extras = new Bundle();
+        extras.putStringArray(ContentProvider.EXTRA_SELECTION_ARGS, args);
+        Bundle result = contentResolver.call(ContentProvider.CONTENT_URI, ContentProvider.METHOD_TRIM,
+                String.format(Locale.US, where, limit), extras);
+        int count = result != null ? result.getInt(ContentProvider.EXTRA_DELETED) : 0;
+        if (count > 0) {
+            newestDeleted = Math.max(newestDeleted, result.getLong(ContentProvider.EXTRA_CREATED_AT));
+            SystemClock.sleep(DELETE_BATCH_PAUSE);
+        }
+        return count;
+    }
+
+    private long countRows() {
+        Cursor cursor = contentResolver.query(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI,
+                new String[]{"count(*)"}, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long getLiveSize(Bundle stats) {
+        return (stats.getLong(ContentProvider.EXTRA_PAGE_COUNT) - stats.getLong(ContentProvider.EXTRA_FREELIST_COUNT))
+                * stats.getLong(ContentProvider.EXTRA_PAGE_SIZE);
+    }
+
+    private static long getFreeSize(Bundle stats) {
+        return stats.getLong(ContentProvider.EXTRA_FREELIST_COUNT) * stats.getLong(ContentProvider.EXTRA_PAGE_SIZE);
+    }
+
+    private static boolean isOffPeak() {
+        int hour = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+        return hour >= OFF_PEAK_START && hour < OFF_PEAK_END;
+    }
+
+    /**
+     * Milliseconds the last pass took.
+     */
+    public long getLastPassTime() {
+        return lastPassTime;
+    }
+
+    public long getLastPassDeleted() {
+        return lastPassDeleted;
+    }
+
+    public long getLastPassReclaimed() {
+        return lastPassReclaimed;
+    }
+}
@@ -0,0 +1,129 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionContract;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.db.SubscriptionSearchContract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Filters for searching the subscription log. Any filter left out matches everything.
+ * Payload terms go through the full text index, the topic prefix and the time range use
+ * the (topic, created_at) and created_at indexes of the subscription table.
+ */
+public class SubscriptionSearch {
+
+    // sorts after any character a topic can hold, so prefix..prefix + this is the prefix range
+    private static final String PREFIX_END = "\uffff";
+
+    private String topicPrefix;
+    private final List<String> terms = new ArrayList<>();
+    private long from = -1;
+    private long to = -1;
+
+    /**
+     * Only topics starting with the prefix, "home/" matches "home/door" and "home/window".
+     */
+    public SubscriptionSearch topicPrefix(String prefix) {
+        this.topicPrefix = prefix;
+        return this;
+    }
+
+    /**
+     * Payloads containing every word of the text, the last letters of a word may be left out.
+     */
+    public SubscriptionSearch payload(String text) {
+        terms.clear();
+        if (text != null) {
+            for (String word : text.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+                if (!word.isEmpty()) {
+                    terms.add(word);
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Created at or after, epoch milliseconds.
+     */
+    public SubscriptionSearch from(long from) {
+        this.from = from;
+        return this;
+    }
+
+    /**
+     * Created before, epoch milliseconds.
+     */
+    public SubscriptionSearch to(long to) {
+        this.to = to;
+        return this;
+    }
+
+    /**
+     * The where clause for the subscription table, or null when nothing is filtered.
+     * Use with the arguments from <code>getSelectionArgs()</code>.
+     */
+    public String getSelection() {
+        List<String> clauses = new ArrayList<>(4);
+        if (!terms.isEmpty()) {
+            clauses.add(SubscriptionContract._ID + " IN (SELECT " + SubscriptionSearchContract.DOCID
+                    + " FROM " + SubscriptionSearchContract.TABLE_NAME + " WHERE "
+                    + SubscriptionSearchContract.TABLE_NAME + " MATCH ?)");
+        }
+        if (topicPrefix != null && !topicPrefix.isEmpty()) {
+            clauses.add(SubscriptionContract.TOPIC + " >= ? AND " + SubscriptionContract.TOPIC + " < ?");
+        }
+        if (from >= 0) {
+            clauses.add(SubscriptionContract.CREATED_AT + " >= ?");
+        }
+        if (to >= 0) {
+            clauses.add(SubscriptionContract.CREATED_AT + " < ?");
+        }
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String clause : clauses) {
+            if (builder.length() > 0) {
+                builder.append(" AND ");
+            }
+            builder.append('(').append(clause).append(')');
+        }
+        return builder.toString();
+    }
+
+    public String[] getSelectionArgs() {
+        List<String> args = new ArrayList<>(5);
+        if (!terms.isEmpty()) {
+            args.add(getMatchQuery());
+        }
+        if (topicPrefix != null && !topicPrefix.isEmpty()) {
+            args.add(topicPrefix);
+            args.add(topicPrefix + PREFIX_END);
+        }
+        if (from >= 0) {
+            args.add(String.valueOf(from));
+        }
+        if (to >= 0) {
+            args.add(String.valueOf(to));
+        }
+        return args.toArray(new String[args.size()]);
+    }
+
+    /**
+     * Every term as a prefix match on the payload column, the words only hold letters and
+     * digits so nothing in them can be read as query syntax.
+     */
+    String getMatchQuery() {
+        StringBuilder builder = new StringBuilder();
+        for (String term : terms) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(SubscriptionSearchContract.PAYLOAD).append(':').append(term).append('*');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import android.net.Uri;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Follows the end of the subscription log. Remembers the newest row it has handed out
+ * and only reads the rows after it, so a new message costs a read of that one row.
+ *
+ * <p>The log is shown newest created first while rows are read here in the order they
+ * were written, so a row written late with an older created date, like those of an
+ * imported archive, doesn't go on top. When it falls among the rows shown the caller
+ * reloads, when it is older than all of them it is left to the pages not loaded yet.</p>
+ */
+public class SubscriptionTail {
+
+    // more new rows than this at once, like an import, are cheaper to reload
+    static final int LIMIT = 100;
+
+    private final StoreManager storeManager;
+    private long lastId;
+    private long newestCreatedAt;
+
+    /**
+     * @param lastId newest row id the caller already has, 0 for none
+     * @param newestCreatedAt created date of the top row shown, 0 for none
+     */
+    public SubscriptionTail(StoreManager storeManager, long lastId, long newestCreatedAt) {
+        this.storeManager = storeManager;
+        this.lastId = lastId;
+        this.newestCreatedAt = newestCreatedAt;
+    }
+
+    /**
+     * True when the change can be applied as new rows, false when the table changed in some
+     * other way, like a delete, and the caller should reload.
+     */
+    public static boolean isAppend(Uri uri) {
+        return ContentProvider.getSubscriptionId(uri) >= 0;
+    }
+
+    /**
+     * The rows added since the last call that go on top of the rows shown, oldest first.
+     * A row uri we have already seen returns nothing without touching the database.
+     * @param oldestCreatedAt created date of the bottom row shown, <code>Long.MIN_VALUE</code>
+     *                        once the whole log is shown
+     * @return null when rows were added among the rows shown, or too many were added, and
+     * the caller should reload
+     */
+    public List<SubscriptionModel> onChange(Uri uri, long oldestCreatedAt) {
+        long id = ContentProvider.getSubscriptionId(uri);
+        if (id >= 0 && id <= lastId) {
+            return Collections.emptyList();
+        }
+        List<SubscriptionModel> models = storeManager.getMqttDataAfter(lastId, LIMIT);
+        if (models.size() == LIMIT) {
+            return null;
+        }
+        List<SubscriptionModel> newRows = new ArrayList<>(models.size());
+        for (SubscriptionModel model : models) {
+            lastId = model.id();
+            if (model.createdAt() >= newestCreatedAt) {
+                newRows.add(model);
+                newestCreatedAt = model.createdAt();
+            } else if (model.createdAt() >= oldestCreatedAt) {
+                return null;
+            }
+        }
+        return newRows;
+    }
+}
@@ -0,0 +1,126 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Write-behind queue for the subscription log. Rows are gathered in memory and written
+ * with a single <code>bulkInsert</code>, one transaction and one change notification per
+ * flush, once the batch is full or the oldest row has waited long enough.
+ */
+public class SubscriptionWriter {
+
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final long MAX_BATCH_DELAY = 500; // milliseconds
+
+    private static SubscriptionWriter instance;
+
+    private final ContentResolver contentResolver;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Object lock = new Object();
+    private List<ContentValues> pending = new ArrayList<>();
+    private boolean flushScheduled;
+
+    private final AtomicLong rowCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTime = new AtomicLong();
+
+    public static synchronized SubscriptionWriter getInstance(ContentResolver contentResolver) {
+        if (instance == null) {
+            instance = new SubscriptionWriter(contentResolver);
+        }
+        return instance;
+    }
+
+    SubscriptionWriter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Queue a row, the created date is taken now and not when the row is written.
+     */
+    public void enqueue(String topic, String payload, String messageId) {
+        ContentValues values = SubscriptionModel.createBuilder(topic, payload, messageId).build();
+        boolean full;
+        boolean schedule;
+        synchronized (lock) {
+            pending.add(values);
+            full = pending.size() >= MAX_BATCH_SIZE;
+            schedule = !flushScheduled;
+            flushScheduled = true;
+        }
+        if (full) {
+            executor.execute(flushTask);
+        } else if (schedule) {
+            executor.schedule(flushTask, MAX_BATCH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write everything queued and wait for it, for callers that need to read back what they wrote.
+     */
+    public void flush() {
+        try {
+            executor.submit(flushTask).get();
+        } catch (Exception e) {
+            Timber.e("Flush failed: " + e.getMessage());
+        }
+    }
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            List<ContentValues> batch;
+            synchronized (lock) {
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new ArrayList<>(MAX_BATCH_SIZE);
+            }
+            long start = SystemClock.elapsedRealtime();
+            try {
+                contentResolver.bulkInsert(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI,
+                        batch.toArray(new ContentValues[batch.size()]));
+                rowCount.addAndGet(batch.size());
+                flushCount.incrementAndGet();
+                flushTime.addAndGet(SystemClock.elapsedRealtime() - start);
+            } catch (Exception e) {
+                // the log is best effort, never let a bad batch stop the writer
+                Timber.e("Could not write " + batch.size() + " rows: " + e.getMessage());
+            }
+        }
+    };
+
+    public long getRowCount() {
+        return rowCount.get();
+    }
+
+    /**
+     * Each flush is one transaction and so one sync of the database file.
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * Total milliseconds spent writing.
+     */
+    public long getFlushTime() {
+        return flushTime.get();
+    }
+}
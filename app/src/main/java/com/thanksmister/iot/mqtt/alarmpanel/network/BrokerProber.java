@@ -0,0 +1,139 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Opens a TCP connection to every broker at the same time and orders them by how long the
+ * connection took. Brokers that can't be reached keep their configured order at the end of
+ * the list so Paho still tries them when everything else fails.
+ */
+public class BrokerProber {
+
+    private static final int PROBE_TIMEOUT = 2000; // 2 seconds
+
+    public static class Result {
+        private final String serverUri;
+        private final long rtt;
+
+        Result(String serverUri, long rtt) {
+            this.serverUri = serverUri;
+            this.rtt = rtt;
+        }
+
+        public String getServerUri() {
+            return serverUri;
+        }
+
+        /**
+         * Connect time in milliseconds or -1 if the broker couldn't be reached.
+         */
+        public long getRtt() {
+            return rtt;
+        }
+
+        public boolean isReachable() {
+            return rtt >= 0;
+        }
+    }
+
+    /**
+     * Blocks for at most the probe timeout, call off the main thread.
+     */
+    public List<Result> probe(@NonNull List<String> serverUris) {
+        List<Result> results = new ArrayList<>(serverUris.size());
+        if (serverUris.isEmpty()) {
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(serverUris.size());
+        try {
+            List<Callable<Long>> probes = new ArrayList<>(serverUris.size());
+            for (final String serverUri : serverUris) {
+                probes.add(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return connectTime(serverUri);
+                    }
+                });
+            }
+            // a little extra so the socket timeout fires before the executor gives up
+            List<Future<Long>> futures = executor.invokeAll(probes, PROBE_TIMEOUT + 500, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < serverUris.size(); i++) {
+                long rtt = -1;
+                Future<Long> future = futures.get(i);
+                if (!future.isCancelled()) {
+                    try {
+                        rtt = future.get();
+                    } catch (ExecutionException e) {
+                        Timber.d("Broker unreachable: " + serverUris.get(i) + " " + e.getCause());
+                    }
+                }
+                results.add(new Result(serverUris.get(i), rtt));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (int i = results.size(); i < serverUris.size(); i++) {
+                results.add(new Result(serverUris.get(i), -1));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        // stable sort keeps the configured order for unreachable brokers and ties
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                if (a.isReachable() != b.isReachable()) {
+                    return a.isReachable() ? -1 : 1;
+                }
+                return a.isReachable() ? compareLong(a.rtt, b.rtt) : 0;
+            }
+        });
+        return results;
+    }
+
+    /**
+     * The broker URIs ordered by round trip time.
+     */
+    public static String[] toServerUris(List<Result> results) {
+        String[] serverUris = new String[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            serverUris[i] = results.get(i).getServerUri();
+        }
+        return serverUris;
+    }
+
+    private static long connectTime(String serverUri) throws IOException {
+        URI uri = URI.create(serverUri);
+        if (uri.getHost() == null || uri.getPort() < 0) {
+            throw new IOException("Can't probe " + serverUri);
+        }
+        Socket socket = new Socket();
+        try {
+            long start = System.nanoTime();
+            socket.connect(new InetSocketAddress(uri.getHost(), uri.getPort()), PROBE_TIMEOUT);
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static int compareLong(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+}
@@ -0,0 +1,307 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Append-only journal of the alarm commands we publish. A command is written before it is
+ * sent and acknowledged once the client delivered it, so commands issued while the broker
+ * is unreachable survive and are replayed in order after reconnecting. The disk writes run
+ * on a background thread, appending only updates the in-memory list.
+ *
+ * <p>Replay is at-least-once. A command's id only identifies it in the journal and never
+ * goes on the wire, the command topic carries the bare command, so a command sent just
+ * before the connection dropped and not yet acknowledged is sent again and the broker sees
+ * it twice. The alarm commands set a state, so a repeat leaves the alarm where the first
+ * one put it.</p>
+ */
+public class CommandJournal {
+
+    private static final String JOURNAL_FILE_NAME = "command_journal";
+
+    // bound on the commands we keep, the oldest is dropped once exceeded
+    public static final int MAX_PENDING_COMMANDS = 32;
+
+    // commands older than this are stale and never replayed
+    private static final long COMMAND_TTL = 10 * 60 * 1000; // 10 min
+
+    // rewrite the file with only the pending commands once it holds this many records
+    private static final int COMPACT_THRESHOLD = MAX_PENDING_COMMANDS * 4;
+
+    private static final byte RECORD_COMMAND = 1;
+    private static final byte RECORD_ACK = 2;
+
+    private static CommandJournal instance;
+
+    private final File journalFile;
+    private final Map<String, Command> pendingCommands = new LinkedHashMap<>();
+    private final ExecutorService writerExecutor = Executors.newSingleThreadExecutor();
+    private FileOutputStream fileOutputStream;
+    private DataOutputStream outputStream;
+    private int recordCount;
+    private boolean needsCompaction;
+
+    public static class Command {
+        private final String id;
+        private final long createdAt;
+        private final String topic;
+        private final String payload;
+        private boolean inFlight;
+
+        Command(String id, long createdAt, String topic, String payload) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.topic = topic;
+            this.payload = payload;
+        }
+
+        /**
+         * Journal id, the acknowledgement record refers to the command by it.
+         */
+        public String getId() {
+            return id;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * There must be only one journal per file, so the journal is shared by the process.
+     */
+    public static synchronized CommandJournal getInstance(@NonNull File directory) {
+        if (instance == null) {
+            instance = new CommandJournal(new File(directory, JOURNAL_FILE_NAME));
+        }
+        return instance;
+    }
+
+    CommandJournal(File journalFile) {
+        this.journalFile = journalFile;
+        load();
+    }
+
+    /**
+     * Records a new command, the returned command is pending until acknowledged.
+     */
+    public synchronized Command append(String topic, String payload) {
+        final Command command = new Command(UUID.randomUUID().toString(), System.currentTimeMillis(), topic, payload);
+        pendingCommands.put(command.id, command);
+        if (pendingCommands.size() > MAX_PENDING_COMMANDS) {
+            Iterator<Command> iterator = pendingCommands.values().iterator();
+            Command oldest = iterator.next();
+            iterator.remove();
+            Timber.w("Command journal full, dropping: " + oldest.payload);
+            writeAck(oldest.id);
+        }
+        writerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeRecord(RECORD_COMMAND, command);
+            }
+        });
+        return command;
+    }
+
+    /**
+     * Marks the command as handed to the client, returns false if it was already
+     * acknowledged or is currently being sent.
+     */
+    public synchronized boolean beginSend(Command command) {
+        if (command.inFlight || !pendingCommands.containsKey(command.id)) {
+            return false;
+        }
+        command.inFlight = true;
+        return true;
+    }
+
+    /**
+     * The send failed, the command stays pending for the next replay.
+     */
+    public synchronized void sendFailed(Command command) {
+        command.inFlight = false;
+    }
+
+    public synchronized void acknowledge(Command command) {
+        command.inFlight = false;
+        if (pendingCommands.remove(command.id) != null) {
+            writeAck(command.id);
+        }
+    }
+
+    /**
+     * Pending commands in the order they were issued, stale commands are acknowledged
+     * and left out.
+     */
+    public synchronized List<Command> getPendingCommands() {
+        long now = System.currentTimeMillis();
+        List<Command> commands = new ArrayList<>();
+        Iterator<Command> iterator = pendingCommands.values().iterator();
+        while (iterator.hasNext()) {
+            Command command = iterator.next();
+            if (now - command.createdAt > COMMAND_TTL) {
+                Timber.w("Dropping stale command: " + command.payload);
+                iterator.remove();
+                writeAck(command.id);
+            } else {
+                commands.add(command);
+            }
+        }
+        return commands;
+    }
+
+    private void writeAck(final String id) {
+        writerExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeRecord(RECORD_ACK, new Command(id, 0, "", ""));
+            }
+        });
+    }
+
+    /**
+     * Only called from the writer thread.
+     */
+    private void writeRecord(byte type, Command command) {
+        try {
+            if (needsCompaction || recordCount >= COMPACT_THRESHOLD) {
+                compact();
+            }
+            if (outputStream == null) {
+                fileOutputStream = new FileOutputStream(journalFile, true);
+                outputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream));
+            }
+            writeRecord(outputStream, type, command);
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+            recordCount++;
+        } catch (IOException e) {
+            Timber.e("Command journal write failed: " + e.getMessage());
+            closeQuietly();
+        }
+    }
+
+    private static void writeRecord(DataOutputStream outputStream, byte type, Command command) throws IOException {
+        outputStream.writeByte(type);
+        outputStream.writeUTF(command.id);
+        if (type == RECORD_COMMAND) {
+            outputStream.writeLong(command.createdAt);
+            outputStream.writeUTF(command.topic);
+            outputStream.writeUTF(command.payload);
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the pending commands, only called from the writer thread.
+     */
+    private void compact() throws IOException {
+        closeQuietly();
+        List<Command> commands;
+        synchronized (this) {
+            commands = new ArrayList<>(pendingCommands.values());
+        }
+        File compactFile = new File(journalFile.getPath() + ".tmp");
+        FileOutputStream compactFileStream = new FileOutputStream(compactFile);
+        DataOutputStream compactStream = new DataOutputStream(new BufferedOutputStream(compactFileStream));
+        try {
+            for (Command command : commands) {
+                writeRecord(compactStream, RECORD_COMMAND, command);
+            }
+            compactStream.flush();
+            compactFileStream.getFD().sync();
+        } finally {
+            compactStream.close();
+        }
+        if (!compactFile.renameTo(journalFile)) {
+            throw new IOException("Unable to replace " + journalFile);
+        }
+        recordCount = commands.size();
+        needsCompaction = false;
+    }
+
+    private void closeQuietly() {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            outputStream = null;
+            fileOutputStream = null;
+        }
+    }
+
+    /**
+     * Reads back the journal, a truncated record at the end from a crash is ignored.
+     */
+    private void load() {
+        if (!journalFile.exists()) {
+            return;
+        }
+        DataInputStream inputStream = null;
+        try {
+            inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            while (true) {
+                int type = inputStream.read();
+                if (type == -1) {
+                    break;
+                }
+                String id = inputStream.readUTF();
+                if (type == RECORD_COMMAND) {
+                    long createdAt = inputStream.readLong();
+                    String topic = inputStream.readUTF();
+                    String payload = inputStream.readUTF();
+                    pendingCommands.put(id, new Command(id, createdAt, topic, payload));
+                } else if (type == RECORD_ACK) {
+                    pendingCommands.remove(id);
+                } else {
+                    throw new IOException("Unknown record type " + type);
+                }
+                recordCount++;
+            }
+        } catch (EOFException e) {
+            // a partial record from a crash, rewrite the journal before appending to it
+            needsCompaction = true;
+        } catch (IOException e) {
+            Timber.e("Command journal read failed: " + e.getMessage());
+            needsCompaction = true;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        Timber.d("Command journal loaded, pending commands: " + pendingCommands.size());
+    }
+}
@@ -3,6 +3,7 @@ package com.thanksmister.iot.mqtt.alarmpanel.network;
 import android.text.TextUtils;
 
 import dpreference.DPreference;
+import dpreference.PrefSnapshot;
 
 /**
  * For original implementation see https://github.com/androidthings/sensorhub-cloud-iot.
@@ -63,11 +64,12 @@ public class DarkSkyOptions {
     public static DarkSkyOptions from(DPreference sharedPreferences) {
         try {
             DarkSkyOptions options = new DarkSkyOptions(sharedPreferences);
-            options.key = sharedPreferences.getPrefString(PREF_DARK_SKY_KEY, null);
-            options.latitude = sharedPreferences.getPrefString(PREF_WEATHER_LAT, null);
-            options.longitude = sharedPreferences.getPrefString(PREF_WEATHER_LON, null);
-            options.isCelsius = sharedPreferences.getPrefBoolean(MQTTOptions.PREF_TLS_CONNECTION, false);
-            options.units = sharedPreferences.getPrefString(PREF_WEATHER_UNITS, DarkSkyRequest.UNITS_US);
+            PrefSnapshot preferences = sharedPreferences.getSnapshot();
+            options.key = preferences.getPrefString(PREF_DARK_SKY_KEY, null);
+            options.latitude = preferences.getPrefString(PREF_WEATHER_LAT, null);
+            options.longitude = preferences.getPrefString(PREF_WEATHER_LON, null);
+            options.isCelsius = preferences.getPrefBoolean(MQTTOptions.PREF_TLS_CONNECTION, false);
+            options.units = preferences.getPrefString(PREF_WEATHER_UNITS, DarkSkyRequest.UNITS_US);
             return options;
         } catch (Exception e) {
             throw new IllegalArgumentException("While processing weather options", e);
@@ -0,0 +1,155 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import android.os.SystemClock;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Tracks published commands until the broker acknowledges them. In-flight deliveries are
+ * keyed by the MQTT message id, the publish to ack time of every completed delivery goes
+ * into the {@link MqttMetrics} latency histogram.
+ */
+public class DeliveryTracker {
+
+    // acks slower than this are logged so they show up in the crash reports
+    private static final long SLOW_ACK_TIME = 2000; // 2 seconds
+
+    private final ConcurrentHashMap<Integer, Delivery> inFlight = new ConcurrentHashMap<>();
+    private final MqttMetrics metrics;
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public DeliveryTracker(MqttMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Start timing a publish, call before handing the message to the client so the
+     * time spent in the client counts as well.
+     */
+    public Delivery begin(String topic, String payload, int qos) {
+        return new Delivery(topic, payload, qos, SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * The client accepted the message, QoS 0 messages have no message id and are only
+     * completed through their action listener.
+     */
+    public void sent(Delivery delivery, IMqttDeliveryToken token) {
+        int messageId = token.getMessageId();
+        if (messageId > 0 && !delivery.isDone()) {
+            delivery.messageId = messageId;
+            inFlight.put(messageId, delivery);
+            // the ack may have raced us here
+            if (delivery.isDone()) {
+                inFlight.remove(messageId, delivery);
+            }
+        }
+    }
+
+    /**
+     * Called from <code>deliveryComplete</code> for any delivery token of the client.
+     */
+    public void complete(IMqttDeliveryToken token) {
+        Delivery delivery = inFlight.get(token.getMessageId());
+        if (delivery != null) {
+            complete(delivery);
+        }
+    }
+
+    public void complete(Delivery delivery) {
+        if (delivery.done.compareAndSet(false, true)) {
+            inFlight.remove(delivery.messageId, delivery);
+            delivered.incrementAndGet();
+            long latency = SystemClock.elapsedRealtime() - delivery.startTime;
+            if (latency > SLOW_ACK_TIME) {
+                Timber.w("Slow ack for " + delivery.payload + " QoS " + delivery.qos + ": " + latency + " ms");
+            }
+            metrics.onDelivered(latency);
+        }
+    }
+
+    public void failed(Delivery delivery) {
+        if (delivery.done.compareAndSet(false, true)) {
+            inFlight.remove(delivery.messageId, delivery);
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Deliveries still waiting on the broker are dropped with the connection, they are
+     * replayed from the command journal.
+     */
+    public void clear() {
+        for (Delivery delivery : inFlight.values()) {
+            failed(delivery);
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    public List<Delivery> getInFlight() {
+        return new ArrayList<>(inFlight.values());
+    }
+
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public static class Delivery {
+        private final String topic;
+        private final String payload;
+        private final int qos;
+        private final long startTime;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile int messageId;
+
+        Delivery(String topic, String payload, int qos, long startTime) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.startTime = startTime;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        public int getQos() {
+            return qos;
+        }
+
+        public int getMessageId() {
+            return messageId;
+        }
+
+        /**
+         * Milliseconds since the publish started.
+         */
+        public long getAge() {
+            return SystemClock.elapsedRealtime() - startTime;
+        }
+
+        public boolean isDone() {
+            return done.get();
+        }
+    }
+}
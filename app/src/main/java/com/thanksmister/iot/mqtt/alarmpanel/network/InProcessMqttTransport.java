@@ -0,0 +1,74 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import timber.log.Timber;
+
+/**
+ * Transport that runs the plain mqttv3 client in our own process. Messages are delivered
+ * on the Paho callback thread without going through the <code>MqttService</code> binder.
+ */
+public class InProcessMqttTransport implements MqttTransport {
+
+    private final MqttAsyncClient mqttClient;
+
+    public InProcessMqttTransport(String serverUri, String clientId) throws MqttException {
+        // the default file persistence writes to the working directory, which isn't writable on Android
+        this.mqttClient = new MqttAsyncClient(serverUri, clientId, new MemoryPersistence());
+    }
+
+    @Override
+    public void setCallback(MqttCallbackExtended callback) {
+        mqttClient.setCallback(callback);
+    }
+
+    @Override
+    public IMqttToken connect(MqttConnectOptions options, IMqttActionListener listener) throws MqttException {
+        return mqttClient.connect(options, null, listener);
+    }
+
+    @Override
+    public IMqttToken subscribe(String topic, int qos) throws MqttException {
+        return mqttClient.subscribe(topic, qos);
+    }
+
+    @Override
+    public IMqttToken unsubscribe(String topic) throws MqttException {
+        return mqttClient.unsubscribe(topic);
+    }
+
+    @Override
+    public IMqttDeliveryToken publish(String topic, MqttMessage message, IMqttActionListener listener) throws MqttException {
+        return mqttClient.publish(topic, message, null, listener);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mqttClient.isConnected();
+    }
+
+    @Override
+    public void disconnect() throws MqttException {
+        mqttClient.disconnect();
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (mqttClient.isConnected()) {
+                mqttClient.disconnectForcibly();
+            }
+            mqttClient.close();
+        } catch (MqttException e) {
+            Timber.e("close: " + e.getMessage());
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.thanksmister.iot.mqtt.alarmpanel.network;
 import android.text.TextUtils;
 
 import dpreference.DPreference;
+import dpreference.PrefSnapshot;
 
 /**
  * For original implementation see https://github.com/androidthings/sensorhub-cloud-iot.
@@ -50,9 +51,10 @@ public class InstagramOptions {
     public static InstagramOptions from(DPreference sharedPreferences) {
         try {
             InstagramOptions options = new InstagramOptions(sharedPreferences);
-            options.imageSource = sharedPreferences.getPrefString(PREF_IMAGE_SOURCE, "omjsk");
-            options.fitScreen = sharedPreferences.getPrefBoolean(PREF_IMAGE_FIT_SIZE, false);
-            options.rotation = sharedPreferences.getPrefInt(PREF_IMAGE_ROTATION, ROTATE_TIME_IN_MINUTES);
+            PrefSnapshot preferences = sharedPreferences.getSnapshot();
+            options.imageSource = preferences.getPrefString(PREF_IMAGE_SOURCE, "omjsk");
+            options.fitScreen = preferences.getPrefBoolean(PREF_IMAGE_FIT_SIZE, false);
+            options.rotation = preferences.getPrefInt(PREF_IMAGE_ROTATION, ROTATE_TIME_IN_MINUTES);
             return options;
         } catch (Exception e) {
             throw new IllegalArgumentException("While processing image options", e);
@@ -0,0 +1,104 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram in milliseconds. Buckets grow by powers of two with four
+ * linear steps each, so any percentile is reported within 25% of the real value while
+ * the whole range up to a minute fits in under a hundred counters.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int MAX_POWER = 16; // 2^16 ms, just over a minute
+    private static final int BUCKET_COUNT = MAX_POWER * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        buckets.incrementAndGet(bucketFor(millis));
+        count.incrementAndGet();
+        long current;
+        while (millis > (current = max.get()) && !max.compareAndSet(current, millis)) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile value between 0 and 100
+     * @return the upper bound of the bucket holding the percentile or -1 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100d);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getP50() {
+        return getPercentile(50);
+    }
+
+    public long getP99() {
+        return getPercentile(99);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Values below {@link #SUB_BUCKETS} get a bucket each, above that the power of two
+     * selects the group and the next two bits the step within it.
+     */
+    static int bucketFor(long millis) {
+        if (millis < SUB_BUCKETS) {
+            return (int) millis;
+        }
+        int power = 63 - Long.numberOfLeadingZeros(millis);
+        if (power > MAX_POWER) {
+            return BUCKET_COUNT - 1;
+        }
+        int step = (int) ((millis >> (power - 2)) & (SUB_BUCKETS - 1));
+        return (power - 1) * SUB_BUCKETS + step;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int power = bucket / SUB_BUCKETS + 1;
+        int step = bucket % SUB_BUCKETS;
+        return (1L << power) + ((step + 1L) << (power - 2)) - 1;
+    }
+}
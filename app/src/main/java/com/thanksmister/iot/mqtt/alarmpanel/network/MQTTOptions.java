@@ -5,9 +5,12 @@ import android.text.TextUtils;
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils;
 import com.thanksmister.iot.mqtt.alarmpanel.utils.DeviceUtils;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
 import dpreference.DPreference;
+import dpreference.PrefSnapshot;
 
 /**
  * For original implementation see https://github.com/androidthings/sensorhub-cloud-iot.
@@ -21,11 +24,19 @@ public class MQTTOptions {
     public static final String PREF_USERNAME = "pref_username";
     public static final String PREF_COMMAND_TOPIC = "pref_command_topic";
     public static final String PREF_STATE_TOPIC = "pref_state_topic";
+    public static final String PREF_EVENT_TOPIC = "pref_event_topic";
     public static final String PREF_TLS_CONNECTION = "pref_tls_connection";
     public static final String PREF_PASSWORD = "pref_password";
     public static final String PREF_PORT = "pref_port";
     public static final String PREF_CLIENT_ID = "pref_client_id";
     public static final String PREF_BROKER = "pref_broker";
+    public static final String PREF_FAILOVER_BROKERS = "pref_failover_brokers";
+    public static final String PREF_IN_PROCESS_TRANSPORT = "pref_in_process_transport";
+    public static final String PREF_QOS_ARM_HOME = "pref_qos_arm_home";
+    public static final String PREF_QOS_ARM_AWAY = "pref_qos_arm_away";
+    public static final String PREF_QOS_DISARM = "pref_qos_disarm";
+    // MqttMessage defaults to at least once delivery
+    public static final int DEFAULT_COMMAND_QOS = 1;
     private static final String MQTT_OPTIONS_UPDATED = "pref_mqtt_options_updated";
     
     /**
@@ -38,6 +49,11 @@ public class MQTTOptions {
      */
     private String broker;
 
+    /**
+     * Comma separated failover brokers, host or host:port.
+     */
+    private String failoverBrokers;
+
     /**
      * Port number.
      */
@@ -48,6 +64,11 @@ public class MQTTOptions {
      */
     private String stateTopic;
 
+    /**
+     * Topic filter of the messages kept in the event journal, empty to keep none.
+     */
+    private String eventTopic;
+
     /**
      * MQTT Command Topic.
      */
@@ -68,9 +89,57 @@ public class MQTTOptions {
      */
     private boolean tlsConnection;
 
+    /**
+     * Run the client in-process instead of the Paho service.
+     */
+    private boolean inProcessTransport;
+
+    /**
+     * Publish QoS for each alarm command.
+     */
+    private int qosArmHome;
+    private int qosArmAway;
+    private int qosDisarm;
+
     private final DPreference sharedPreferences;
+    private String connectionFingerprint;
+    private String fingerprint;
     
     public String getBrokerUrl() {
+        return getBrokerUrl(broker, port);
+    }
+
+    /**
+     * The primary broker followed by the failover brokers in the order they were entered.
+     */
+    public List<String> getBrokerUrls() {
+        List<String> brokerUrls = new ArrayList<>();
+        if(!TextUtils.isEmpty(broker)) {
+            brokerUrls.add(getBrokerUrl());
+        }
+        if(!TextUtils.isEmpty(failoverBrokers)) {
+            for (String entry : failoverBrokers.split(",")) {
+                entry = entry.trim();
+                if (TextUtils.isEmpty(entry)) {
+                    continue;
+                }
+                String host = entry;
+                int brokerPort = port;
+                int separator = entry.lastIndexOf(':');
+                if (separator > 0 && entry.substring(separator + 1).matches("[0-9]+")) {
+                    host = entry.substring(0, separator);
+                    brokerPort = Integer.parseInt(entry.substring(separator + 1));
+                }
+                String brokerUrl = getBrokerUrl(host, brokerPort);
+                if (!brokerUrls.contains(brokerUrl)) {
+                    brokerUrls.add(brokerUrl);
+                }
+            }
+        }
+        return brokerUrls;
+    }
+
+    private String getBrokerUrl(String broker, int port) {
         if(!TextUtils.isEmpty(broker)) {
             if (broker.contains("http://") || broker.contains("https://")) {
                 return String.format(Locale.getDefault(), HTTP_BROKER_URL_FORMAT, broker, port);
@@ -87,6 +156,10 @@ public class MQTTOptions {
         return broker;
     }
 
+    public String getFailoverBrokers() {
+        return failoverBrokers;
+    }
+
     public String getClientId() {
         return clientId;
     }
@@ -99,6 +172,10 @@ public class MQTTOptions {
         return commandTopic;
     }
 
+    public String getEventTopic() {
+        return eventTopic;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -114,6 +191,38 @@ public class MQTTOptions {
     public boolean getTlsConnection() {
         return tlsConnection;
     }
+
+    public boolean getInProcessTransport() {
+        return inProcessTransport;
+    }
+
+    public int getQosArmHome() {
+        return qosArmHome;
+    }
+
+    public int getQosArmAway() {
+        return qosArmAway;
+    }
+
+    public int getQosDisarm() {
+        return qosDisarm;
+    }
+
+    /**
+     * The QoS to publish the command with, commands without a setting use {@link #DEFAULT_COMMAND_QOS}.
+     */
+    public int getCommandQos(String command) {
+        switch (command) {
+            case AlarmUtils.COMMAND_ARM_HOME:
+                return qosArmHome;
+            case AlarmUtils.COMMAND_ARM_AWAY:
+                return qosArmAway;
+            case AlarmUtils.COMMAND_DISARM:
+                return qosDisarm;
+            default:
+                return DEFAULT_COMMAND_QOS;
+        }
+    }
     
     private MQTTOptions(DPreference sharedPreferences) {
         this.sharedPreferences = sharedPreferences;
@@ -140,19 +249,26 @@ public class MQTTOptions {
     public static MQTTOptions from(DPreference sharedPreferences) {
         try {
             MQTTOptions options = new MQTTOptions(sharedPreferences);
+            PrefSnapshot preferences = sharedPreferences.getSnapshot();
             
-            String clientId = sharedPreferences.getPrefString(PREF_CLIENT_ID, null);
+            String clientId = preferences.getPrefString(PREF_CLIENT_ID, null);
             if(TextUtils.isEmpty(clientId)) {
-                clientId = DeviceUtils.getUuIdHash();
+                clientId = DeviceUtils.getDeviceId(sharedPreferences);
             }
             options.clientId = clientId;
-            options.broker = sharedPreferences.getPrefString(PREF_BROKER, "");
-            options.port = sharedPreferences.getPrefInt(PREF_PORT, AlarmUtils.PORT);
-            options.username = sharedPreferences.getPrefString(PREF_USERNAME, null);
-            options.password = sharedPreferences.getPrefString(PREF_PASSWORD, null);
-            options.stateTopic = sharedPreferences.getPrefString(PREF_STATE_TOPIC, AlarmUtils.STATE_TOPIC);
-            options.commandTopic = sharedPreferences.getPrefString(PREF_COMMAND_TOPIC, AlarmUtils.COMMAND_TOPIC);
-            options.tlsConnection = sharedPreferences.getPrefBoolean(PREF_TLS_CONNECTION, false);
+            options.broker = preferences.getPrefString(PREF_BROKER, "");
+            options.failoverBrokers = preferences.getPrefString(PREF_FAILOVER_BROKERS, "");
+            options.port = preferences.getPrefInt(PREF_PORT, AlarmUtils.PORT);
+            options.username = preferences.getPrefString(PREF_USERNAME, null);
+            options.password = preferences.getPrefString(PREF_PASSWORD, null);
+            options.stateTopic = preferences.getPrefString(PREF_STATE_TOPIC, AlarmUtils.STATE_TOPIC);
+            options.commandTopic = preferences.getPrefString(PREF_COMMAND_TOPIC, AlarmUtils.COMMAND_TOPIC);
+            options.eventTopic = preferences.getPrefString(PREF_EVENT_TOPIC, "");
+            options.tlsConnection = preferences.getPrefBoolean(PREF_TLS_CONNECTION, false);
+            options.inProcessTransport = preferences.getPrefBoolean(PREF_IN_PROCESS_TRANSPORT, false);
+            options.qosArmHome = preferences.getPrefInt(PREF_QOS_ARM_HOME, DEFAULT_COMMAND_QOS);
+            options.qosArmAway = preferences.getPrefInt(PREF_QOS_ARM_AWAY, DEFAULT_COMMAND_QOS);
+            options.qosDisarm = preferences.getPrefInt(PREF_QOS_DISARM, DEFAULT_COMMAND_QOS);
             return options;
         } catch (Exception e) {
             throw new IllegalArgumentException("While processing configuration options", e);
@@ -160,43 +276,66 @@ public class MQTTOptions {
     }
 
     public void setUsername(String value) {
-        this.sharedPreferences.setPrefString(PREF_USERNAME, value);
-        setOptionsUpdated(true);
+        edit().putString(PREF_USERNAME, value).apply();
     }
     
     public void setClientId(String value) {
-        this.sharedPreferences.setPrefString(PREF_CLIENT_ID, value);
-        setOptionsUpdated(true);
+        edit().putString(PREF_CLIENT_ID, value).apply();
     }
     
     public void setBroker(String value) {
-        this.sharedPreferences.setPrefString(PREF_BROKER, value);
-        setOptionsUpdated(true);
+        edit().putString(PREF_BROKER, value).apply();
+    }
+
+    public void setFailoverBrokers(String value) {
+        edit().putString(PREF_FAILOVER_BROKERS, value).apply();
     }
 
     public void setPort(int value) {
-        this.sharedPreferences.setPrefInt(PREF_PORT, value);
-        setOptionsUpdated(true);
+        edit().putInt(PREF_PORT, value).apply();
     }
 
     public void setPassword(String value) {
-        this.sharedPreferences.setPrefString(PREF_PASSWORD, value);
-        setOptionsUpdated(true);
+        edit().putString(PREF_PASSWORD, value).apply();
     }
 
     public void setStateTopic(String value) {
-        this.sharedPreferences.setPrefString(PREF_STATE_TOPIC, value);
-        setOptionsUpdated(true);
+        edit().putString(PREF_STATE_TOPIC, value).apply();
     }
 
     public void setCommandTopic(String value) {
-        this.sharedPreferences.setPrefString(PREF_COMMAND_TOPIC, value);
-        setOptionsUpdated(true);
+        edit().putString(PREF_COMMAND_TOPIC, value).apply();
+    }
+
+    public void setEventTopic(String value) {
+        edit().putString(PREF_EVENT_TOPIC, value).apply();
     }
 
     public void setTlsConnection(boolean value) {
-        this.sharedPreferences.setPrefBoolean(PREF_TLS_CONNECTION, value);
-        setOptionsUpdated(true);
+        edit().putBoolean(PREF_TLS_CONNECTION, value).apply();
+    }
+
+    public void setInProcessTransport(boolean value) {
+        edit().putBoolean(PREF_IN_PROCESS_TRANSPORT, value).apply();
+    }
+
+    public void setQosArmHome(int value) {
+        edit().putInt(PREF_QOS_ARM_HOME, value).apply();
+    }
+
+    public void setQosArmAway(int value) {
+        edit().putInt(PREF_QOS_ARM_AWAY, value).apply();
+    }
+
+    public void setQosDisarm(int value) {
+        edit().putInt(PREF_QOS_DISARM, value).apply();
+    }
+
+    /**
+     * An editor that also flags the options as updated, every setter changes a connection setting.
+     */
+    private DPreference.Editor edit() {
+        return sharedPreferences.edit().putBoolean(MQTT_OPTIONS_UPDATED, true);
     }
 
     private void setOptionsUpdated(boolean value) {
@@ -211,19 +350,50 @@ public class MQTTOptions {
         return updates;
     }
 
+    /**
+     * Identifies everything the broker connection depends on, options with the same
+     * connection fingerprint can share a client.
+     */
+    public String getConnectionFingerprint() {
+        if (connectionFingerprint == null) {
+            connectionFingerprint = fingerprint(clientId, getBrokerUrls(), username, password,
+                    tlsConnection, inProcessTransport);
+        }
+        return connectionFingerprint;
+    }
+
+    /**
+     * Identifies all the options, equal options have the same fingerprint.
+     */
+    public String getFingerprint() {
+        if (fingerprint == null) {
+            fingerprint = fingerprint(getConnectionFingerprint(), stateTopic, commandTopic, eventTopic,
+                    qosArmHome, qosArmAway, qosDisarm);
+        }
+        return fingerprint;
+    }
+
+    private static String fingerprint(Object... values) {
+        StringBuilder builder = new StringBuilder();
+        for (Object value : values) {
+            // the length prefix keeps "ab","c" apart from "a","bc"
+            String text = String.valueOf(value);
+            builder.append(text.length()).append(':').append(text).append(';');
+        }
+        return builder.toString();
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!(obj instanceof MQTTOptions)) {
             return false;
         }
         MQTTOptions o = (MQTTOptions) obj;
-        return TextUtils.equals(clientId , o.clientId)
-                && TextUtils.equals(broker, o.broker)
-                && TextUtils.equals(stateTopic, o.stateTopic)
-                && TextUtils.equals(commandTopic, o.commandTopic)
-                && TextUtils.equals(username, o.username)
-                && TextUtils.equals(password, o.password)
-                && port == o.port
-                && tlsConnection == o.tlsConnection;
+        return getFingerprint().equals(o.getFingerprint());
+    }
+
+    @Override
+    public int hashCode() {
+        return getFingerprint().hashCode();
     }
 }
\ No newline at end of file
@@ -5,13 +5,12 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 
+import com.thanksmister.iot.mqtt.alarmpanel.data.journal.EventJournal;
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils;
 import com.thanksmister.iot.mqtt.alarmpanel.utils.MqttUtils;
 
-import org.eclipse.paho.android.service.MqttAndroidClient;
-import org.eclipse.paho.client.mqttv3.DisconnectedBufferOptions;
 import org.eclipse.paho.client.mqttv3.IMqttActionListener;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
 import org.eclipse.paho.client.mqttv3.IMqttToken;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
@@ -22,43 +21,72 @@ import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import timber.log.Timber;
 
-import static android.R.id.message;
 
 public class MQTTService {
     
     // Indicate if this message should be a MQTT 'retained' message.
     private static final boolean SHOULD_RETAIN = false;
 
-    // Use mqttQos=1 (at least once delivery), mqttQos=0 (at most once delivery) also supported.
-    private static final int MQTT_QOS = 0;
+    // how long a journaled command may take to be delivered before sending stops
+    private static final long REPLAY_TIMEOUT = 10 * 1000; // 10 seconds
 
     private final Context context;
-    private MqttAndroidClient mqttClient;
+    private MqttTransport mqttClient;
     private MQTTOptions mqttOptions;
     private AtomicBoolean mReady = new AtomicBoolean(false);
     private MqttManagerListener listener;
+    private final CommandJournal commandJournal;
+    private final EventJournal eventJournal;
+    private final DeliveryTracker deliveryTracker = MqttMetrics.getInstance().getDeliveryTracker();
+    private ExecutorService replayExecutor;
+    private MqttConnectionManager connectionManager;
+    private final List<MqttConnectionManager.ConnectionListener> connectionListeners = new CopyOnWriteArrayList<>();
+    private final TopicRouter topicRouter = new TopicRouter();
+    private String stateTopic;
+    private String eventTopic;
 
     public MQTTService(@NonNull Context context, @NonNull MQTTOptions options, MqttManagerListener listener) {
         Timber.d("MQTTPublisher");
         this.listener = listener;
         this.context = context;
+        this.commandJournal = CommandJournal.getInstance(context.getFilesDir());
+        this.eventJournal = EventJournal.getInstance(context.getFilesDir());
         initialize(options);
     }
     
+    /**
+     * Only reconnects when the connection options changed, topic and QoS changes are
+     * applied to the existing client.
+     */
     public void reconfigure(@NonNull MQTTOptions newOptions) {
         Timber.d("reconfigure");
-        if (newOptions.equals(mqttOptions)) {
+        if (mqttOptions != null && newOptions.getFingerprint().equals(mqttOptions.getFingerprint())) {
+            return;
+        }
+        if (mqttOptions != null && connectionManager != null && newOptions.isValid()
+                && newOptions.getConnectionFingerprint().equals(mqttOptions.getConnectionFingerprint())) {
+            Timber.d("reconfigure without reconnecting");
+            mqttOptions = newOptions;
+            setStateTopic(newOptions.getStateTopic());
+            setEventTopic(newOptions.getEventTopic());
             return;
         }
+        // close() drops the listener, we still want the messages from the new client
+        MqttManagerListener listener = this.listener;
         try {
             close();
         } catch (MqttException e) {
             // empty
         }
+        this.listener = listener;
         initialize(newOptions);
     }
     
@@ -73,44 +101,71 @@ public class MQTTService {
         return mReady.get();
     }
     
+    public boolean isConnected() {
+        return mqttClient != null && mqttClient.isConnected();
+    }
+
     public void close() throws MqttException {
         Timber.d("close");
         listener = null;
         mqttOptions = null;
-        if (mqttClient != null) {
+        if (connectionManager != null) {
             // TODO IllegalArgumentException: Invalid ClientHandle and no dialog showing sound stuck
-            if (mqttClient.isConnected()) {
-                mqttClient.disconnect();
-            }
+            connectionManager.close();
+            connectionManager = null;
             mqttClient = null;
         }
+        if (replayExecutor != null) {
+            replayExecutor.shutdownNow();
+            replayExecutor = null;
+        }
         mReady.set(false);
     }
     
+    /**
+     * Commands are journaled and sent from the journal, behind any older command still
+     * waiting there, so a command issued while disconnected is replayed once the connection
+     * is back and commands always reach the broker in the order they were issued.
+     */
     public void publish(String payload) {
         Timber.d("publish: " + payload);
-        try {
-            if (isReady()) {
-                if (mqttClient != null && !mqttClient.isConnected()) {
-                    // if for some reason the mqtt client has disconnected, we should try to connect
-                    // it again.
-                    try {
-                        initializeMqttClient();
-                    } catch (MqttException | IOException | GeneralSecurityException e) {
-                        if(listener != null) {
-                            listener.handleMqttException("Could not initialize MQTT: " + e.getMessage());
-                        }
-                    }
-                }
-                Timber.d("Publishing: " + payload);
-                MqttMessage mqttMessage = new MqttMessage();
-                mqttMessage.setPayload(payload.getBytes());
-                sendMessage(mqttOptions.getCommandTopic(), mqttMessage);
-            }
-        } catch (MqttException e) {
-            if(listener != null) {
-                listener.handleMqttException("Exception while subscribing: " + e.getMessage());
+        if (mqttOptions == null) {
+            return;
+        }
+        commandJournal.append(mqttOptions.getCommandTopic(), payload);
+        if (isReady()) {
+            if (connectionManager != null && !mqttClient.isConnected()) {
+                // the connection manager is already retrying, skip the backoff wait
+                // and the journaled command is sent once connected.
+                connectionManager.connect();
+                return;
             }
+            Timber.d("Publishing: " + payload);
+            sendPendingCommands();
+        }
+    }
+
+    /**
+     * Reconnect the existing client right away instead of waiting for the next retry.
+     */
+    public void reconnect() {
+        Timber.d("reconnect");
+        if (connectionManager != null) {
+            connectionManager.connect();
+        }
+    }
+
+    public void addConnectionListener(MqttConnectionManager.ConnectionListener connectionListener) {
+        connectionListeners.add(connectionListener);
+        if (connectionManager != null) {
+            connectionManager.addConnectionListener(connectionListener);
+        }
+    }
+
+    public void removeConnectionListener(MqttConnectionManager.ConnectionListener connectionListener) {
+        connectionListeners.remove(connectionListener);
+        if (connectionManager != null) {
+            connectionManager.removeConnectionListener(connectionListener);
         }
     }
     
@@ -127,10 +182,14 @@ public class MQTTService {
             Timber.i("Username: " + mqttOptions.getUsername());
             Timber.i("Password: " + mqttOptions.getPassword());
             Timber.i("TslConnect: " + mqttOptions.getTlsConnection());
+            Timber.i("In-process: " + mqttOptions.getInProcessTransport());
             Timber.i("MQTT Configuration:");
             Timber.i("Broker: " + mqttOptions.getBrokerUrl() + ":" + mqttOptions.getPort());
+            Timber.i("Failover brokers: " + mqttOptions.getFailoverBrokers());
             Timber.i("Publishing to topic: "+ mqttOptions.getStateTopic());
             Timber.i("Subscribing to topic: "+ mqttOptions.getCommandTopic());
+            setStateTopic(mqttOptions.getStateTopic());
+            setEventTopic(mqttOptions.getEventTopic());
             if(mqttOptions.isValid()) {
                 initializeMqttClient();
             } else {
@@ -149,22 +208,26 @@ public class MQTTService {
             throws MqttException, IOException, NoSuchAlgorithmException, InvalidKeySpecException {
 
         Timber.d("initializeMqttClient");
-        
-        mqttClient = new MqttAndroidClient(context, mqttOptions.getBrokerUrl(), mqttOptions.getClientId());
+
+        if (connectionManager != null) {
+            connectionManager.close();
+        }
+        if (replayExecutor == null) {
+            replayExecutor = Executors.newSingleThreadExecutor();
+        }
 
         MqttConnectOptions options = new MqttConnectOptions();
         if(!TextUtils.isEmpty(mqttOptions.getUsername()) && !TextUtils.isEmpty(mqttOptions.getPassword())){
             options.setUserName(mqttOptions.getUsername());
             options.setPassword(mqttOptions.getPassword().toCharArray());
         }
-        mqttClient = MqttUtils.getMqttAndroidClient(context, mqttOptions.getBrokerUrl(), mqttOptions.getClientId(), 
-                mqttOptions.getStateTopic(), new MqttCallbackExtended() {
+        mqttClient = MqttUtils.getMqttTransport(context, mqttOptions.getInProcessTransport(), mqttOptions.getBrokerUrl(),
+                mqttOptions.getClientId(), null);
+        connectionManager = new MqttConnectionManager(mqttClient, options, mqttOptions.getBrokerUrls(), new MqttCallbackExtended() {
             @Override
             public void connectComplete(boolean reconnect, String serverURI) {
                 if (reconnect) {
                     Timber.d("Reconnected to : " + serverURI);
-                    // Because Clean Session is true, we need to re-subscribe
-                    subscribeToTopic(mqttOptions.getStateTopic());
                 } else {
                     Timber.d("Connected to: " + serverURI);
                 }
@@ -173,79 +236,203 @@ public class MQTTService {
             @Override
             public void connectionLost(Throwable cause) {
                 Timber.d("The Connection was lost.");
+                deliveryTracker.clear();
             }
 
             @Override
             public void messageArrived(String topic, MqttMessage message) throws Exception {
-                Timber.i("Received Message : " + topic + " : " + new String(message.getPayload()));
+                // every subscription delivers here once per message, the router finds the handlers
+                if (topicRouter.route(topic, message) == 0) {
+                    Timber.d("Received Message : %s", topic);
+                }
             }
 
             @Override
             public void deliveryComplete(IMqttDeliveryToken token) {
+                deliveryTracker.complete(token);
             }
         });
-     
+        connectionManager.addConnectionListener(new MqttConnectionManager.ConnectionListener() {
+            private boolean connectFailed;
+            private MqttConnectionManager.ConnectionState lastState;
+            
+            @Override
+            public void onConnectionStateChanged(MqttConnectionManager.ConnectionState state) {
+                MqttConnectionManager.ConnectionState previousState = lastState;
+                lastState = state;
+                if (state == MqttConnectionManager.ConnectionState.CONNECTED) {
+                    connectFailed = false;
+                    onConnected();
+                } else if (state == MqttConnectionManager.ConnectionState.DISCONNECTED
+                        && previousState == MqttConnectionManager.ConnectionState.CONNECTING && !connectFailed) {
+                    // only report the first failure, the manager keeps retrying with a backoff
+                    connectFailed = true;
+                    MQTTOptions options = mqttOptions;
+                    if(listener != null && options != null) {
+                        Timber.e("Failed to connect to: " + options.getBrokerUrl());
+                        listener.handleMqttException("Error connecting to the broker and port: " + options.getBrokerUrl());
+                    }
+                }
+            }
+        });
+        for (MqttConnectionManager.ConnectionListener connectionListener : connectionListeners) {
+            connectionManager.addConnectionListener(connectionListener);
+        }
+        mReady.set(true);
+        connectionManager.connect();
+    }
+
+    /**
+     * Because Clean Session is true, we need to subscribe again and send anything
+     * journaled every time the connection is made. Commands issued while disconnected wait
+     * in the journal, Paho's disconnected buffer only works with its own automatic reconnect
+     * which the connection manager turns off.
+     */
+    private void onConnected() {
+        if(mqttClient == null || mqttOptions == null) {
+            return;
+        }
+        for (String filter : topicRouter.getFilters()) {
+            subscribeToTopic(filter);
+        }
+        sendPendingCommands();
+    }
+
+    /**
+     * Hands a journaled command to the client, the command is acknowledged in the journal
+     * once the client reports it delivered.
+     * @return the delivery token or null if the command wasn't sent
+     */
+    private IMqttDeliveryToken sendCommand(final CommandJournal.Command command) {
+        Timber.d("sendCommand");
+        if (!isReady() || mqttClient == null || !mqttClient.isConnected() || !commandJournal.beginSend(command)) {
+            return null;
+        }
+        int qos = mqttOptions != null ? mqttOptions.getCommandQos(command.getPayload()) : MQTTOptions.DEFAULT_COMMAND_QOS;
+        final DeliveryTracker.Delivery delivery = deliveryTracker.begin(command.getTopic(), command.getPayload(), qos);
         try {
-            mqttClient.connect(options, null, new IMqttActionListener() {
+            MqttMessage mqttMessage = new MqttMessage();
+            mqttMessage.setPayload(command.getPayload().getBytes());
+            mqttMessage.setQos(qos);
+            mqttMessage.setRetained(SHOULD_RETAIN);
+            IMqttDeliveryToken token = mqttClient.publish(command.getTopic(), mqttMessage, new IMqttActionListener() {
                 @Override
                 public void onSuccess(IMqttToken asyncActionToken) {
-                    DisconnectedBufferOptions disconnectedBufferOptions = new DisconnectedBufferOptions();
-                    disconnectedBufferOptions.setBufferEnabled(true);
-                    disconnectedBufferOptions.setBufferSize(100);
-                    disconnectedBufferOptions.setPersistBuffer(false);
-                    disconnectedBufferOptions.setDeleteOldestMessages(false);
-                    if(mqttClient != null) {
-                        mqttClient.setBufferOpts(disconnectedBufferOptions);
-                    }
-                    subscribeToTopic(mqttOptions.getStateTopic());
+                    deliveryTracker.complete(delivery);
+                    commandJournal.acknowledge(command);
                 }
 
                 @Override
                 public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
-                    Timber.e("Failed to connect to: " + mqttOptions.getBrokerUrl() + " exception: " + exception);
-                    if(listener != null) {
-                        listener.handleMqttException("Error connecting to the broker and port: " + mqttOptions.getBrokerUrl());
-                    }
+                    Timber.e("Command failed, keeping it for replay: " + exception);
+                    deliveryTracker.failed(delivery);
+                    commandJournal.sendFailed(command);
                 }
             });
+            deliveryTracker.sent(delivery, token);
+            Timber.d("Command Topic: " + command.getTopic() + " Payload: " + command.getPayload() + " QoS: " + qos);
+            return token;
         } catch (MqttException e) {
+            Timber.e("Error Sending Command: " + e.getMessage());
             e.printStackTrace();
+            deliveryTracker.failed(delivery);
+            commandJournal.sendFailed(command);
             if(listener != null) {
-                listener.handleMqttException("Error while connecting: " + e.getMessage());
+                listener.handleMqttException("Error Sending Command: " + e.getMessage());
             }
         }
-        mReady.set(true);
+        return null;
+    }
+
+    /**
+     * Sends the journaled commands in the order they were issued, on the single replay thread
+     * so sends never overtake each other. Each command is delivered before the next is sent,
+     * and sending stops at the first command that can't be sent, fails or times out. It stays
+     * in the journal, ahead of the rest, for the next connection or command.
+     */
+    private void sendPendingCommands() {
+        final ExecutorService executor = replayExecutor;
+        if (executor == null || executor.isShutdown()) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<CommandJournal.Command> commands = commandJournal.getPendingCommands();
+                if (commands.isEmpty()) {
+                    return;
+                }
+                Timber.d("Sending journaled commands: " + commands.size());
+                for (CommandJournal.Command command : commands) {
+                    IMqttDeliveryToken token = sendCommand(command);
+                    if (token == null) {
+                        // disconnected, or still in flight from a send that timed out
+                        Timber.d("Sending stopped at: " + command.getPayload());
+                        return;
+                    }
+                    try {
+                        token.waitForCompletion(REPLAY_TIMEOUT);
+                    } catch (MqttException e) {
+                        Timber.e("Sending stopped: " + e.getMessage());
+                        return;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Route messages for the topic filter to the handler, <code>+</code> and <code>#</code>
+     * wildcards are supported. The broker subscription is made once per filter and made
+     * again after every reconnect.
+     */
+    public void addSubscription(@NonNull String filter, @NonNull TopicRouter.Handler handler) {
+        if (topicRouter.subscribe(filter, handler) && mqttClient != null && mqttClient.isConnected()) {
+            subscribeToTopic(filter);
+        }
+    }
+
+    private void setStateTopic(String topic) {
+        if (TextUtils.equals(stateTopic, topic)) {
+            return;
+        }
+        if (stateTopic != null) {
+            removeSubscription(stateTopic, stateHandler);
+        }
+        stateTopic = topic;
+        if (!TextUtils.isEmpty(stateTopic)) {
+            addSubscription(stateTopic, stateHandler);
+        }
+    }
+
+    private void setEventTopic(String topic) {
+        if (TextUtils.equals(eventTopic, topic)) {
+            return;
+        }
+        if (!TextUtils.isEmpty(eventTopic)) {
+            removeSubscription(eventTopic, eventHandler);
+        }
+        eventTopic = topic;
+        if (!TextUtils.isEmpty(eventTopic)) {
+            addSubscription(eventTopic, eventHandler);
+        }
     }
 
-    private void sendMessage(String mqttTopic, MqttMessage mqttMessage) throws MqttException {
-        Timber.d("sendMessage");
-        if (isReady() && mqttClient != null && mqttClient.isConnected()) {
+    public void removeSubscription(@NonNull String filter, @NonNull TopicRouter.Handler handler) {
+        if (topicRouter.unsubscribe(filter, handler) && mqttClient != null && mqttClient.isConnected()) {
             try {
-                mqttClient.publish(mqttTopic, mqttMessage);
-                Timber.d("Command Topic: " + mqttTopic + " Payload: " + message);
+                mqttClient.unsubscribe(filter);
             } catch (MqttException e) {
-                Timber.e("Error Sending Command: " + e.getMessage());
-                e.printStackTrace();
-                if(listener != null) {
-                    listener.handleMqttException("Error Sending Command: " + e.getMessage());
-                }
+                Timber.e("Exception while unsubscribing: " + e.getMessage());
             }
         }
     }
 
     private void subscribeToTopic(final String topic) {
-        Timber.d("subscribeToTopic");
+        Timber.d("subscribeToTopic: " + topic);
         try {
             if (isReady() && mqttClient != null ) {
-                mqttClient.subscribe(topic, 0, new IMqttMessageListener() {
-                    @Override
-                    public void messageArrived(final String topic, final MqttMessage message) throws Exception {
-                        Timber.i("Subscribe Topic: " + topic + "  Payload: " + new String(message.getPayload()));
-                        if(listener != null) {
-                            listener.subscriptionMessage(topic, new String(message.getPayload()), String.valueOf(message.getId()));
-                        }
-                    }
-                });
+                mqttClient.subscribe(topic, 0);
             }
         } catch (MqttException e) {
             if(listener != null) {
@@ -253,4 +440,31 @@ public class MQTTService {
             }
         }
     }
-}
\ No newline at end of file
+
+    private final TopicRouter.Handler stateHandler = new TopicRouter.Handler() {
+        @Override
+        public void onMessage(String topic, MqttMessage message) {
+            // classify the raw payload, only supported states are turned into a String
+            String state = AlarmUtils.getAlarmState(message.getPayload());
+            if (state == null) {
+                return;
+            }
+            Timber.d("Subscribe Topic: %s  State: %s", topic, state);
+            if(listener != null) {
+                listener.subscriptionMessage(topic, state, String.valueOf(message.getId()));
+            }
+        }
+    };
+
+    private final TopicRouter.Handler eventHandler = new TopicRouter.Handler() {
+        @Override
+        public void onMessage(String topic, MqttMessage message) {
+            // every message is kept, the compactor picks the alarm states out later
+            try {
+                eventJournal.append(System.currentTimeMillis(), topic, message.getPayload());
+            } catch (IOException | IllegalArgumentException e) {
+                Timber.e("Event journal append failed: " + e.getMessage());
+            }
+        }
+    };
+}
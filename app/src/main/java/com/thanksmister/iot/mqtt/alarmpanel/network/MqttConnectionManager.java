@@ -0,0 +1,320 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import android.support.annotation.NonNull;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Owns the single MQTT client for a set of options and keeps it connected. Failed connects
+ * and lost connections are retried with a capped exponential backoff. The delay is jittered
+ * so that panels losing the same broker don't all reconnect at the same moment.
+ *
+ * <p>With more than one broker every attempt first probes them all and hands Paho the list
+ * ordered by round trip time, Paho then fails over down the list on its own.</p>
+ */
+public class MqttConnectionManager {
+
+    private static final long BACKOFF_BASE = 1000; // 1 second
+    private static final long BACKOFF_MAX = 60 * 1000; // 1 minute
+
+    public enum ConnectionState {
+        DISCONNECTED, CONNECTING, CONNECTED, CLOSED
+    }
+
+    public interface ConnectionListener {
+        void onConnectionStateChanged(ConnectionState state);
+    }
+
+    private final MqttTransport transport;
+    private final MqttConnectOptions connectOptions;
+    private final MqttCallbackExtended callback;
+    private final List<String> serverUris;
+    private final BrokerProber brokerProber = new BrokerProber();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<ConnectionListener> connectionListeners = new CopyOnWriteArrayList<>();
+    private final MqttMetrics metrics = MqttMetrics.getInstance();
+    private final Random random = new Random();
+    // state changes made under the lock, handed to the listeners once it is released
+    private final Queue<ConnectionState> pendingStates = new ArrayDeque<>();
+    private final Object dispatchLock = new Object();
+    private ScheduledFuture<?> reconnectFuture;
+    private ConnectionState connectionState = ConnectionState.DISCONNECTED;
+    private int attempts;
+    private long connectionLostTime = -1;
+    private boolean hasConnected;
+
+    /**
+     * @param serverUris the brokers to connect to, the first one is preferred when they are equally fast
+     * @param callback receives the client callbacks, connectComplete is only called once
+     * subscriptions should be made again
+     */
+    public MqttConnectionManager(@NonNull MqttTransport transport, @NonNull MqttConnectOptions connectOptions,
+                                 @NonNull List<String> serverUris, @NonNull MqttCallbackExtended callback) {
+        this.transport = transport;
+        this.connectOptions = connectOptions;
+        this.serverUris = new ArrayList<>(serverUris);
+        this.callback = callback;
+        // we reconnect ourselves, Paho's automatic reconnect has no jitter
+        this.connectOptions.setAutomaticReconnect(false);
+        this.transport.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                boolean wasConnected;
+                synchronized (MqttConnectionManager.this) {
+                    wasConnected = hasConnected;
+                    hasConnected = true;
+                }
+                metrics.onBrokerConnected(serverURI);
+                MqttConnectionManager.this.callback.connectComplete(wasConnected, serverURI);
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                Timber.d("The Connection was lost: " + cause);
+                metrics.onConnectionLost();
+                synchronized (MqttConnectionManager.this) {
+                    connectionLostTime = System.currentTimeMillis();
+                    setState(ConnectionState.DISCONNECTED);
+                    scheduleReconnect();
+                }
+                dispatchStates();
+                MqttConnectionManager.this.callback.connectionLost(cause);
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) throws Exception {
+                MqttConnectionManager.this.callback.messageArrived(topic, message);
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+                MqttConnectionManager.this.callback.deliveryComplete(token);
+            }
+        });
+    }
+
+    public MqttTransport getTransport() {
+        return transport;
+    }
+
+    public synchronized ConnectionState getConnectionState() {
+        return connectionState;
+    }
+
+    public void addConnectionListener(ConnectionListener listener) {
+        connectionListeners.add(listener);
+    }
+
+    public void removeConnectionListener(ConnectionListener listener) {
+        connectionListeners.remove(listener);
+    }
+
+    /**
+     * Connect now unless we are already connected or connecting, resets the backoff.
+     */
+    public void connect() {
+        synchronized (this) {
+            if (connectionState == ConnectionState.CLOSED
+                    || connectionState == ConnectionState.CONNECTING
+                    || connectionState == ConnectionState.CONNECTED) {
+                return;
+            }
+            cancelReconnect();
+            attempts = 0;
+            setState(ConnectionState.CONNECTING);
+            // probing blocks, so even the first attempt runs on the scheduler
+            reconnectFuture = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    attemptConnect();
+                }
+            }, 0, TimeUnit.MILLISECONDS);
+        }
+        dispatchStates();
+    }
+
+    /**
+     * Disconnects and releases the client, the manager can't be used afterwards.
+     */
+    public void close() {
+        synchronized (this) {
+            if (connectionState == ConnectionState.CLOSED) {
+                return;
+            }
+            cancelReconnect();
+            setState(ConnectionState.CLOSED);
+        }
+        dispatchStates();
+        scheduler.shutdownNow();
+        try {
+            if (transport.isConnected()) {
+                transport.disconnect();
+            }
+        } catch (MqttException e) {
+            Timber.e("Error disconnecting: " + e.getMessage());
+        }
+        transport.close();
+    }
+
+    private void attemptConnect() {
+        synchronized (this) {
+            if (connectionState == ConnectionState.CLOSED) {
+                return;
+            }
+            // we are the scheduled attempt, a failure from here on schedules the next one
+            reconnectFuture = null;
+            attempts++;
+            setState(ConnectionState.CONNECTING);
+        }
+        dispatchStates();
+        metrics.onConnectAttempt();
+        if (serverUris.size() > 1) {
+            List<BrokerProber.Result> results = brokerProber.probe(serverUris);
+            metrics.onBrokerProbe(results);
+            try {
+                connectOptions.setServerURIs(BrokerProber.toServerUris(results));
+            } catch (IllegalArgumentException e) {
+                Timber.e("Invalid broker list: " + e.getMessage());
+            }
+        }
+        MqttException connectException = null;
+        synchronized (this) {
+            if (connectionState == ConnectionState.CLOSED) {
+                return;
+            }
+            try {
+                transport.connect(connectOptions, new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken asyncActionToken) {
+                        onConnectSuccess();
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                        onConnectFailure(exception);
+                    }
+                });
+            } catch (MqttException e) {
+                connectException = e;
+            }
+        }
+        if (connectException != null) {
+            onConnectFailure(connectException);
+        }
+    }
+
+    private void onConnectSuccess() {
+        synchronized (this) {
+            if (connectionState == ConnectionState.CLOSED) {
+                return;
+            }
+            long reconnectTime = connectionLostTime < 0 ? -1 : System.currentTimeMillis() - connectionLostTime;
+            Timber.d("Connected after attempts: " + attempts);
+            metrics.onConnected(reconnectTime, attempts);
+            connectionLostTime = -1;
+            attempts = 0;
+            setState(ConnectionState.CONNECTED);
+        }
+        dispatchStates();
+    }
+
+    private void onConnectFailure(Throwable exception) {
+        Timber.e("Failed to connect: " + exception);
+        synchronized (this) {
+            if (connectionState == ConnectionState.CLOSED) {
+                return;
+            }
+            if (connectionLostTime < 0) {
+                connectionLostTime = System.currentTimeMillis();
+            }
+            setState(ConnectionState.DISCONNECTED);
+            scheduleReconnect();
+        }
+        dispatchStates();
+    }
+
+    /**
+     * Called with the lock held.
+     */
+    private void scheduleReconnect() {
+        if (connectionState == ConnectionState.CLOSED || (reconnectFuture != null && !reconnectFuture.isDone())) {
+            return;
+        }
+        long delay = getBackoffDelay(attempts);
+        Timber.d("Reconnecting in " + delay + " ms");
+        reconnectFuture = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                attemptConnect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelReconnect() {
+        if (reconnectFuture != null) {
+            reconnectFuture.cancel(false);
+            reconnectFuture = null;
+        }
+    }
+
+    /**
+     * Exponential backoff capped at {@link #BACKOFF_MAX}, the delay is picked at random
+     * from the upper half of the window.
+     */
+    private long getBackoffDelay(int attempts) {
+        long window = Math.min(BACKOFF_MAX, BACKOFF_BASE << Math.min(attempts, 16));
+        return window / 2 + (long) (random.nextDouble() * (window / 2));
+    }
+
+    /**
+     * Called with the lock held, the listeners hear about the change from
+     * {@link #dispatchStates()} once the lock is released.
+     */
+    private void setState(ConnectionState state) {
+        if (connectionState == state) {
+            return;
+        }
+        connectionState = state;
+        pendingStates.add(state);
+    }
+
+    /**
+     * Called without the lock so listeners can call back into the manager, or block, without
+     * holding up the connection. Changes reach the listeners one at a time and in order.
+     */
+    private void dispatchStates() {
+        synchronized (dispatchLock) {
+            while (true) {
+                ConnectionState state;
+                synchronized (this) {
+                    state = pendingStates.poll();
+                }
+                if (state == null) {
+                    return;
+                }
+                for (ConnectionListener listener : connectionListeners) {
+                    listener.onConnectionStateChanged(state);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+
+/**
+ * Debug endpoint for the MQTT metrics, run with <code>dumpapp mqtt</code> on debug builds.
+ * Pass <code>reset</code> to clear the latency histogram.
+ */
+public class MqttDumperPlugin implements DumperPlugin {
+
+    private static final String NAME = "mqtt";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void dump(DumperContext dumpContext) {
+        MqttMetrics metrics = MqttMetrics.getInstance();
+        Iterator<String> args = dumpContext.getArgsAsList().iterator();
+        if (args.hasNext() && "reset".equals(args.next())) {
+            metrics.getPublishLatency().reset();
+        }
+        PrintStream out = dumpContext.getStdout();
+        out.println("Connect attempts: " + metrics.getConnectAttempts());
+        out.println("Connections: " + metrics.getConnections());
+        out.println("Connections lost: " + metrics.getConnectionsLost());
+        out.println("Last reconnect: " + metrics.getLastReconnectTime() + " ms, attempts " + metrics.getLastReconnectAttempts());
+        out.println("Broker: " + metrics.getCurrentBroker());
+        out.println("Failovers: " + metrics.getFailovers() + " last " + metrics.getLastFailoverTime() + " ms");
+        for (BrokerProber.Result result : metrics.getBrokerProbe()) {
+            out.println("  " + result.getServerUri() + " rtt " + (result.isReachable() ? result.getRtt() + " ms" : "unreachable"));
+        }
+
+        DeliveryTracker tracker = metrics.getDeliveryTracker();
+        out.println("Delivered: " + tracker.getDeliveredCount() + " failed: " + tracker.getFailedCount());
+        LatencyHistogram latency = metrics.getPublishLatency();
+        out.println("Publish latency: count " + latency.getCount() + " p50 " + latency.getP50()
+                + " ms p99 " + latency.getP99() + " ms max " + latency.getMax() + " ms");
+        out.println("In flight: " + tracker.getInFlightCount());
+        for (DeliveryTracker.Delivery delivery : tracker.getInFlight()) {
+            out.println("  #" + delivery.getMessageId() + " " + delivery.getTopic() + " " + delivery.getPayload()
+                    + " QoS " + delivery.getQos() + " " + delivery.getAge() + " ms");
+        }
+    }
+}
@@ -105,7 +105,7 @@ public class MqttManager {
 
             @Override
             public void messageArrived(String topic, MqttMessage message) throws Exception {
-                Timber.i("Sent Message : " + topic + " : " + new String(message.getPayload()));
+                Timber.d("Sent Message : %s", topic);
             }
 
             @Override
@@ -150,9 +150,13 @@ public class MqttManager {
                 mqttAndroidClient.subscribe(topic, 0, new IMqttMessageListener() {
                     @Override
                     public void messageArrived(final String topic, final MqttMessage message) throws Exception {
-                        Timber.i("Published Topic : " + topic + "  Payload" + new String(message.getPayload()));
+                        String state = AlarmUtils.getAlarmState(message.getPayload());
+                        if (state == null) {
+                            return;
+                        }
+                        Timber.d("Published Topic : %s  State: %s", topic, state);
                         if(listener != null) {
-                            listener.subscriptionMessage(topic, new String(message.getPayload()), String.valueOf(message.getId()));
+                            listener.subscriptionMessage(topic, state, String.valueOf(message.getId()));
                         }
                     }
                 });
@@ -0,0 +1,136 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import android.os.SystemClock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters for the MQTT connection, readable from the app and the debug tools.
+ */
+public class MqttMetrics {
+
+    private static final MqttMetrics instance = new MqttMetrics();
+
+    private final AtomicLong connectAttempts = new AtomicLong();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong connectionsLost = new AtomicLong();
+    private volatile long lastReconnectTime = -1;
+    private volatile int lastReconnectAttempts;
+    private final AtomicLong failovers = new AtomicLong();
+    private volatile long connectionLostTime = -1;
+    private volatile long lastFailoverTime = -1;
+    private volatile String currentBroker;
+    private volatile List<BrokerProber.Result> brokerProbe = Collections.emptyList();
+    private final LatencyHistogram publishLatency = new LatencyHistogram();
+    private final DeliveryTracker deliveryTracker = new DeliveryTracker(this);
+
+    public static MqttMetrics getInstance() {
+        return instance;
+    }
+
+    MqttMetrics() {
+    }
+
+    void onConnectAttempt() {
+        connectAttempts.incrementAndGet();
+    }
+
+    /**
+     * @param reconnectTime milliseconds from losing the connection until connected again, -1 for a first connect
+     * @param attempts connect attempts it took
+     */
+    void onConnected(long reconnectTime, int attempts) {
+        connections.incrementAndGet();
+        if (reconnectTime >= 0) {
+            lastReconnectTime = reconnectTime;
+            lastReconnectAttempts = attempts;
+        }
+    }
+
+    void onConnectionLost() {
+        connectionsLost.incrementAndGet();
+        connectionLostTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Connected to the broker, switching from one broker to another counts as a failover.
+     */
+    void onBrokerConnected(String serverUri) {
+        String previousBroker = currentBroker;
+        currentBroker = serverUri;
+        if (previousBroker != null && !previousBroker.equals(serverUri)) {
+            failovers.incrementAndGet();
+            long lostTime = connectionLostTime;
+            lastFailoverTime = lostTime < 0 ? -1 : SystemClock.elapsedRealtime() - lostTime;
+        }
+    }
+
+    void onBrokerProbe(List<BrokerProber.Result> results) {
+        brokerProbe = Collections.unmodifiableList(results);
+    }
+
+    void onDelivered(long latency) {
+        publishLatency.record(latency);
+    }
+
+    public long getConnectAttempts() {
+        return connectAttempts.get();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getConnectionsLost() {
+        return connectionsLost.get();
+    }
+
+    /**
+     * Time in milliseconds the last reconnect took or -1 if we never reconnected.
+     */
+    public long getLastReconnectTime() {
+        return lastReconnectTime;
+    }
+
+    public int getLastReconnectAttempts() {
+        return lastReconnectAttempts;
+    }
+
+    /**
+     * The broker we are connected to or were last connected to.
+     */
+    public String getCurrentBroker() {
+        return currentBroker;
+    }
+
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    /**
+     * Milliseconds from losing the connection until connected to another broker, -1 if we never failed over.
+     */
+    public long getLastFailoverTime() {
+        return lastFailoverTime;
+    }
+
+    /**
+     * The brokers ordered by round trip time at the last probe.
+     */
+    public List<BrokerProber.Result> getBrokerProbe() {
+        return brokerProbe;
+    }
+
+    /**
+     * Publish to broker ack times in milliseconds for the commands we sent.
+     */
+    public LatencyHistogram getPublishLatency() {
+        return publishLatency;
+    }
+
+    public DeliveryTracker getDeliveryTracker() {
+        return deliveryTracker;
+    }
+}
@@ -0,0 +1,38 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+/**
+ * The small subset of a Paho client that {@link MQTTService} needs. Implementations either
+ * run Paho inside the Android <code>MqttService</code> or drive the plain mqttv3 client in-process.
+ */
+public interface MqttTransport {
+
+    void setCallback(MqttCallbackExtended callback);
+
+    IMqttToken connect(MqttConnectOptions options, IMqttActionListener listener) throws MqttException;
+
+    /**
+     * Messages for the subscription arrive on the {@link MqttCallbackExtended} set on the transport.
+     */
+    IMqttToken subscribe(String topic, int qos) throws MqttException;
+
+    IMqttToken unsubscribe(String topic) throws MqttException;
+
+    IMqttDeliveryToken publish(String topic, MqttMessage message, IMqttActionListener listener) throws MqttException;
+
+    boolean isConnected();
+
+    void disconnect() throws MqttException;
+
+    /**
+     * Release any resources held by the client, the transport can't be reused afterwards.
+     */
+    void close();
+}
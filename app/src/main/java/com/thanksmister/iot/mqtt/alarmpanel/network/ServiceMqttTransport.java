@@ -0,0 +1,72 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import android.content.Context;
+
+import org.eclipse.paho.android.service.MqttAndroidClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import timber.log.Timber;
+
+/**
+ * Transport backed by the Paho <code>MqttService</code>, every message crosses the
+ * service binder before it reaches our listeners.
+ */
+public class ServiceMqttTransport implements MqttTransport {
+
+    private final MqttAndroidClient mqttClient;
+
+    public ServiceMqttTransport(Context context, String serverUri, String clientId) {
+        this.mqttClient = new MqttAndroidClient(context, serverUri, clientId);
+    }
+
+    @Override
+    public void setCallback(MqttCallbackExtended callback) {
+        mqttClient.setCallback(callback);
+    }
+
+    @Override
+    public IMqttToken connect(MqttConnectOptions options, IMqttActionListener listener) throws MqttException {
+        return mqttClient.connect(options, null, listener);
+    }
+
+    @Override
+    public IMqttToken subscribe(String topic, int qos) throws MqttException {
+        return mqttClient.subscribe(topic, qos);
+    }
+
+    @Override
+    public IMqttToken unsubscribe(String topic) throws MqttException {
+        return mqttClient.unsubscribe(topic);
+    }
+
+    @Override
+    public IMqttDeliveryToken publish(String topic, MqttMessage message, IMqttActionListener listener) throws MqttException {
+        return mqttClient.publish(topic, message, null, listener);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mqttClient.isConnected();
+    }
+
+    @Override
+    public void disconnect() throws MqttException {
+        mqttClient.disconnect();
+    }
+
+    @Override
+    public void close() {
+        try {
+            mqttClient.unregisterResources();
+        } catch (IllegalArgumentException e) {
+            // the service connection may already be gone
+            Timber.e("close: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import android.support.annotation.NonNull;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Routes incoming messages to the handlers of every matching topic filter. Filters are kept
+ * in a trie with one node per topic level, <code>+</code> and <code>#</code> wildcards get
+ * their own branch. A message walks the trie once, topic levels are looked up by their
+ * position in the topic string so nothing is split or allocated per message.
+ */
+public class TopicRouter {
+
+    public static final char SEPARATOR = '/';
+    public static final String SINGLE_LEVEL_WILDCARD = "+";
+    public static final String MULTI_LEVEL_WILDCARD = "#";
+
+    public interface Handler {
+        void onMessage(String topic, MqttMessage message);
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node root = new Node();
+    private int filterCount;
+
+    /**
+     * Register a handler for the topic filter, the same handler is only added once per filter.
+     * @return true if this is the first handler for the filter and it needs a broker subscription
+     */
+    public boolean subscribe(@NonNull String filter, @NonNull Handler handler) {
+        validateFilter(filter);
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            int start = 0;
+            while (true) {
+                int end = levelEnd(filter, start);
+                if (end - start == 1 && filter.charAt(start) == '#') {
+                    if (node.multiLevel == null) {
+                        node.multiLevel = new Node();
+                    }
+                    node = node.multiLevel;
+                    break;
+                }
+                Node child;
+                if (end - start == 1 && filter.charAt(start) == '+') {
+                    if (node.singleLevel == null) {
+                        node.singleLevel = new Node();
+                    }
+                    child = node.singleLevel;
+                } else {
+                    child = node.getOrCreateChild(filter, start, end);
+                }
+                node = child;
+                if (end == filter.length()) {
+                    break;
+                }
+                start = end + 1;
+            }
+            boolean first = node.handlers.length == 0;
+            if (!node.addHandler(handler)) {
+                return false;
+            }
+            if (first) {
+                filterCount++;
+            }
+            return first;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a handler from the topic filter. Emptied nodes are left in place, filters are
+     * usually subscribed again with the same levels.
+     * @return true if the filter has no handlers left and the broker subscription can be dropped
+     */
+    public boolean unsubscribe(@NonNull String filter, @NonNull Handler handler) {
+        lock.writeLock().lock();
+        try {
+            Node node = root;
+            int start = 0;
+            while (node != null) {
+                int end = levelEnd(filter, start);
+                if (end - start == 1 && filter.charAt(start) == '#') {
+                    node = node.multiLevel;
+                    break;
+                } else if (end - start == 1 && filter.charAt(start) == '+') {
+                    node = node.singleLevel;
+                } else {
+                    node = node.getChild(filter, start, end);
+                }
+                if (end == filter.length()) {
+                    break;
+                }
+                start = end + 1;
+            }
+            if (node == null || !node.removeHandler(handler)) {
+                return false;
+            }
+            if (node.handlers.length == 0) {
+                filterCount--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The topic filters that have at least one handler.
+     */
+    public List<String> getFilters() {
+        lock.readLock().lock();
+        try {
+            List<String> filters = new ArrayList<>(filterCount);
+            collectFilters(root, new StringBuilder(), filters);
+            return filters;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hand the message to every handler whose filter matches the topic.
+     * @return the number of handlers called
+     */
+    public int route(@NonNull String topic, MqttMessage message) {
+        lock.readLock().lock();
+        try {
+            // topics starting with $ are reserved for the broker and don't match a leading wildcard
+            boolean matchWildcards = topic.length() == 0 || topic.charAt(0) != '$';
+            return route(root, topic, 0, message, matchWildcards);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int route(Node node, String topic, int start, MqttMessage message, boolean matchWildcards) {
+        int count = 0;
+        if (matchWildcards && node.multiLevel != null) {
+            count += node.multiLevel.dispatch(topic, message);
+        }
+        int end = levelEnd(topic, start);
+        boolean last = end == topic.length();
+        if (matchWildcards && node.singleLevel != null) {
+            count += last ? dispatchLast(node.singleLevel, topic, message)
+                    : route(node.singleLevel, topic, end + 1, message, true);
+        }
+        Node child = node.getChild(topic, start, end);
+        if (child != null) {
+            count += last ? dispatchLast(child, topic, message)
+                    : route(child, topic, end + 1, message, true);
+        }
+        return count;
+    }
+
+    /**
+     * The node matched the last topic level, a '#' below it matches as well since
+     * "home/#" also receives "home".
+     */
+    private static int dispatchLast(Node node, String topic, MqttMessage message) {
+        int count = node.dispatch(topic, message);
+        if (node.multiLevel != null) {
+            count += node.multiLevel.dispatch(topic, message);
+        }
+        return count;
+    }
+
+    private static void collectFilters(Node node, StringBuilder path, List<String> filters) {
+        int length = path.length();
+        if (node.multiLevel != null && node.multiLevel.handlers.length > 0) {
+            filters.add(path.append(MULTI_LEVEL_WILDCARD).toString());
+            path.setLength(length);
+        }
+        if (node.singleLevel != null) {
+            collectChild(node.singleLevel, SINGLE_LEVEL_WILDCARD, path, filters);
+        }
+        for (int i = 0; i < node.keys.length; i++) {
+            if (node.keys[i] != null) {
+                collectChild(node.children[i], node.keys[i], path, filters);
+            }
+        }
+    }
+
+    private static void collectChild(Node child, String level, StringBuilder path, List<String> filters) {
+        int length = path.length();
+        path.append(level);
+        if (child.handlers.length > 0) {
+            filters.add(path.toString());
+        }
+        path.append(SEPARATOR);
+        collectFilters(child, path, filters);
+        path.setLength(length);
+    }
+
+    private static int levelEnd(String topic, int start) {
+        int end = topic.indexOf(SEPARATOR, start);
+        return end < 0 ? topic.length() : end;
+    }
+
+    private static void validateFilter(String filter) {
+        if (filter.length() == 0) {
+            throw new IllegalArgumentException("Empty topic filter");
+        }
+        int start = 0;
+        while (true) {
+            int end = levelEnd(filter, start);
+            for (int i = start; i < end; i++) {
+                char c = filter.charAt(i);
+                if ((c == '+' || c == '#') && end - start != 1) {
+                    throw new IllegalArgumentException("Wildcard must occupy a whole level: " + filter);
+                }
+                if (c == '#' && end != filter.length()) {
+                    throw new IllegalArgumentException("# must be the last level: " + filter);
+                }
+            }
+            if (end == filter.length()) {
+                return;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Trie node. Literal children live in an open addressing table hashed on the level's
+     * characters so a level can be looked up without creating a substring.
+     */
+    private static class Node {
+
+        private static final Handler[] NO_HANDLERS = new Handler[0];
+        private static final int INITIAL_CAPACITY = 4;
+
+        String[] keys = new String[INITIAL_CAPACITY];
+        Node[] children = new Node[INITIAL_CAPACITY];
+        int size;
+        Node singleLevel;
+        Node multiLevel;
+        Handler[] handlers = NO_HANDLERS;
+
+        Node getChild(String topic, int start, int end) {
+            int mask = keys.length - 1;
+            int length = end - start;
+            for (int i = hash(topic, start, end) & mask; ; i = (i + 1) & mask) {
+                String key = keys[i];
+                if (key == null) {
+                    return null;
+                }
+                if (key.length() == length && key.regionMatches(0, topic, start, length)) {
+                    return children[i];
+                }
+            }
+        }
+
+        Node getOrCreateChild(String filter, int start, int end) {
+            Node child = getChild(filter, start, end);
+            if (child != null) {
+                return child;
+            }
+            // keep the table at most half full so probe chains stay short
+            if ((size + 1) * 2 > keys.length) {
+                resize();
+            }
+            child = new Node();
+            insert(filter.substring(start, end), child);
+            return child;
+        }
+
+        int dispatch(String topic, MqttMessage message) {
+            Handler[] current = handlers;
+            for (Handler handler : current) {
+                handler.onMessage(topic, message);
+            }
+            return current.length;
+        }
+
+        boolean addHandler(Handler handler) {
+            for (Handler existing : handlers) {
+                if (existing == handler) {
+                    return false;
+                }
+            }
+            Handler[] updated = Arrays.copyOf(handlers, handlers.length + 1);
+            updated[handlers.length] = handler;
+            handlers = updated;
+            return true;
+        }
+
+        boolean removeHandler(Handler handler) {
+            for (int i = 0; i < handlers.length; i++) {
+                if (handlers[i] == handler) {
+                    Handler[] updated = new Handler[handlers.length - 1];
+                    System.arraycopy(handlers, 0, updated, 0, i);
+                    System.arraycopy(handlers, i + 1, updated, i, handlers.length - i - 1);
+                    handlers = updated.length == 0 ? NO_HANDLERS : updated;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void insert(String key, Node child) {
+            int mask = keys.length - 1;
+            int i = hash(key, 0, key.length()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            children[i] = child;
+            size++;
+        }
+
+        private void resize() {
+            String[] oldKeys = keys;
+            Node[] oldChildren = children;
+            keys = new String[oldKeys.length * 2];
+            children = new Node[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    insert(oldKeys[i], oldChildren[i]);
+                }
+            }
+        }
+
+        /**
+         * Same as {@link String#hashCode()} for the region, spread so the low bits are usable.
+         */
+        private static int hash(String s, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
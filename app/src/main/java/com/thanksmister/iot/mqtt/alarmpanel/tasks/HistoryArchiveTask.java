@@ -0,0 +1,66 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.tasks;
+
+import com.thanksmister.iot.mqtt.alarmpanel.data.stores.SubscriptionArchive;
+
+import java.io.File;
+
+/**
+ * Exports or imports the subscription log off the main thread, publishing the rows done so far.
+ */
+public class HistoryArchiveTask extends NetworkTask<File, Long, SubscriptionArchive.Result> {
+
+    private final SubscriptionArchive archive;
+    private final boolean export;
+    private OnProgressListener onProgressListener;
+
+    public HistoryArchiveTask(SubscriptionArchive archive, boolean export) {
+        this.archive = archive;
+        this.export = export;
+    }
+
+    protected SubscriptionArchive.Result doNetworkAction(File... params) throws Exception {
+        if (params.length != 1) {
+            throw new Exception("Wrong number of params, expected 1, received " + params.length);
+        }
+        SubscriptionArchive.Listener listener = new SubscriptionArchive.Listener() {
+            @Override
+            public void onProgress(long rows, long bytes) {
+                publishProgress(rows);
+            }
+        };
+        return export ? archive.exportTo(params[0], listener) : archive.importFrom(params[0], listener);
+    }
+
+    @Override
+    protected void onProgressUpdate(Long... values) {
+        if (onProgressListener != null && !isCancelled()) {
+            onProgressListener.onProgress(values[0]);
+        }
+    }
+
+    public void setOnProgressListener(OnProgressListener onProgressListener) {
+        this.onProgressListener = onProgressListener;
+    }
+
+    public interface OnProgressListener {
+        void onProgress(long rows);
+    }
+}
@@ -53,9 +53,15 @@ public class Configuration {
     private static final String PREF_ARMED = "pref_armed";
     private static final String PREF_FIRST_TIME = "pref_first_time";
     private static final String PREF_ALARM_MODE = "pref_alarm_mode";
+    private static final String PREF_LOG_MAX_ROWS = "pref_log_max_rows";
+    private static final String PREF_LOG_MAX_AGE = "pref_log_max_age";
+    private static final String PREF_LOG_MAX_SIZE = "pref_log_max_size";
    
     public static final int PREF_DISABLE_DIALOG_TIME = 30; // this isn't configurable
     private static final long INACTIVITY_TIMEOUT =  5 * 60 * 1000; // 5 min
+    private static final int LOG_MAX_ROWS = 10000;
+    private static final int LOG_MAX_AGE = 30; // days
+    private static final long LOG_MAX_SIZE = 8 * 1024 * 1024; // 8 MB
    
     public Configuration(DPreference sharedPreferences) {
         this.sharedPreferences = sharedPreferences;
@@ -149,6 +155,39 @@ public class Configuration {
         sharedPreferences.setPrefString(PREF_ALARM_MODE, mode);
     }
 
+    /**
+     * Most rows kept in the subscription log, older rows are removed first.
+     */
+    public int getLogMaxRows() {
+        return sharedPreferences.getPrefInt(PREF_LOG_MAX_ROWS, LOG_MAX_ROWS);
+    }
+
+    public void setLogMaxRows(int value) {
+        sharedPreferences.setPrefInt(PREF_LOG_MAX_ROWS, value);
+    }
+
+    /**
+     * Days a row stays in the subscription log.
+     */
+    public int getLogMaxAge() {
+        return sharedPreferences.getPrefInt(PREF_LOG_MAX_AGE, LOG_MAX_AGE);
+    }
+
+    public void setLogMaxAge(int value) {
+        sharedPreferences.setPrefInt(PREF_LOG_MAX_AGE, value);
+    }
+
+    /**
+     * Bytes the subscription log may use in the database.
+     */
+    public long getLogMaxSize() {
+        return sharedPreferences.getPrefLong(PREF_LOG_MAX_SIZE, LOG_MAX_SIZE);
+    }
+
+    public void setLogMaxSize(long value) {
+        sharedPreferences.setPrefLong(PREF_LOG_MAX_SIZE, value);
+    }
+
     /**
      * Reset the <code>SharedPreferences</code> and database
      */
@@ -166,5 +205,8 @@ public class Configuration {
         sharedPreferences.removePreference(PREF_HASS_WEB_URL);
         sharedPreferences.removePreference(PREF_FIRST_TIME);
         sharedPreferences.removePreference(PREF_ALARM_MODE);
+        sharedPreferences.removePreference(PREF_LOG_MAX_ROWS);
+        sharedPreferences.removePreference(PREF_LOG_MAX_AGE);
+        sharedPreferences.removePreference(PREF_LOG_MAX_SIZE);
     }
 }
\ No newline at end of file
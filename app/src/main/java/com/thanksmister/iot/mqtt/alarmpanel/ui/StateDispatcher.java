@@ -0,0 +1,179 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed
+ *   ~ under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.ui;
+
+import android.view.Choreographer;
+
+import com.thanksmister.iot.mqtt.alarmpanel.network.model.SubscriptionData;
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sits between the MQTT callbacks and the UI thread. Every message is handed to the
+ * persistence path right away, but state changes are collapsed per topic and delivered
+ * once per frame. Repeats of a state are always collapsed. Pending and triggered states
+ * and the state right after one are never replaced, so the UI sees transitions like
+ * pending to triggered and triggered to disarmed in order.
+ */
+public class StateDispatcher implements Choreographer.FrameCallback {
+
+    public interface Listener {
+        /**
+         * Called on the posting thread for every message, including coalesced ones.
+         */
+        void onPersist(SubscriptionData data);
+
+        /**
+         * Called on the main thread for each state that survived coalescing.
+         */
+        void onStateChange(String topic, String state);
+    }
+
+    private final Choreographer choreographer;
+    private final Map<String, ArrayDeque<String>> pendingStates = new LinkedHashMap<>();
+    // last state delivered per topic, what the first queued state follows
+    private final Map<String, String> deliveredStates = new HashMap<>();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private Listener listener;
+    private boolean frameScheduled;
+
+    /**
+     * @param choreographer the main thread choreographer, see {@link Choreographer#getInstance()}
+     */
+    public StateDispatcher(Choreographer choreographer, Listener listener) {
+        this.choreographer = choreographer;
+        this.listener = listener;
+    }
+
+    /**
+     * Safe to call from any thread.
+     */
+    public void post(String topic, @AlarmUtils.AlarmStates String state, String messageId) {
+        receivedCount.incrementAndGet();
+        Listener listener = this.listener;
+        if (listener == null) {
+            return;
+        }
+        listener.onPersist(new SubscriptionData(topic, state, messageId));
+        boolean schedule;
+        synchronized (pendingStates) {
+            ArrayDeque<String> queue = pendingStates.get(topic);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                pendingStates.put(topic, queue);
+            }
+            String last = queue.peekLast();
+            if (last != null && (last.equals(state) || canReplaceLast(topic, queue))) {
+                queue.pollLast();
+                coalescedCount.incrementAndGet();
+            }
+            queue.addLast(state);
+            schedule = !frameScheduled;
+            frameScheduled = true;
+        }
+        if (schedule) {
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        drain();
+    }
+
+    /**
+     * Delivers all queued states, normally called from the frame callback on the main thread.
+     */
+    public void drain() {
+        List<String> topics = new ArrayList<>();
+        List<ArrayDeque<String>> queues = new ArrayList<>();
+        synchronized (pendingStates) {
+            frameScheduled = false;
+            for (Map.Entry<String, ArrayDeque<String>> entry : pendingStates.entrySet()) {
+                topics.add(entry.getKey());
+                queues.add(entry.getValue());
+                deliveredStates.put(entry.getKey(), entry.getValue().peekLast());
+            }
+            pendingStates.clear();
+        }
+        for (int i = 0; i < topics.size(); i++) {
+            for (String state : queues.get(i)) {
+                Listener listener = this.listener;
+                if (listener == null) {
+                    return;
+                }
+                deliveredCount.incrementAndGet();
+                listener.onStateChange(topics.get(i), state);
+            }
+        }
+    }
+
+    /**
+     * Drops anything queued and stops delivering to the listener.
+     */
+    public void release() {
+        listener = null;
+        choreographer.removeFrameCallback(this);
+        synchronized (pendingStates) {
+            pendingStates.clear();
+            deliveredStates.clear();
+            frameScheduled = false;
+        }
+    }
+
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * The last queued state can be replaced unless it must be delivered itself or follows a
+     * state that must, the state after triggered is what takes the triggered view down.
+     * Holds the pending states lock.
+     */
+    private boolean canReplaceLast(String topic, ArrayDeque<String> queue) {
+        String last = queue.pollLast();
+        String previous = queue.isEmpty() ? deliveredStates.get(topic) : queue.peekLast();
+        queue.addLast(last);
+        return !mustDeliver(last) && !mustDeliver(previous);
+    }
+
+    /**
+     * States that drive the disable and triggered views can't be skipped.
+     */
+    private static boolean mustDeliver(String state) {
+        return AlarmUtils.STATE_PENDING.equals(state) || AlarmUtils.STATE_TRIGGERED.equals(state);
+    }
+}
@@ -26,6 +26,7 @@ import android.content.IntentFilter;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Bundle;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -33,10 +34,13 @@ import android.widget.Toast;
 
 import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity;
 import com.thanksmister.iot.mqtt.alarmpanel.R;
+import com.thanksmister.iot.mqtt.alarmpanel.data.stores.StoreManager;
+import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions;
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTService;
 import com.thanksmister.iot.mqtt.alarmpanel.network.model.SubscriptionData;
 import com.thanksmister.iot.mqtt.alarmpanel.tasks.SubscriptionDataTask;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration;
+import com.thanksmister.iot.mqtt.alarmpanel.ui.StateDispatcher;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.fragments.ControlsFragment;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.views.AlarmDisableView;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.views.AlarmTriggeredView;
@@ -83,6 +87,7 @@ public class MainActivity extends BaseActivity implements ControlsFragment.OnCon
 
     private MQTTService mqttService;
     private SubscriptionDataTask subscriptionDataTask;
+    private StateDispatcher stateDispatcher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -91,6 +96,8 @@ public class MainActivity extends BaseActivity implements ControlsFragment.OnCon
 
         ButterKnife.bind(this);
 
+        stateDispatcher = new StateDispatcher(Choreographer.getInstance(), getStateDispatcherListener(getStoreManager()));
+
         if(getConfiguration().isFirstTime()) {
             showAlertDialog(getString(R.string.dialog_first_time), new DialogInterface.OnClickListener() {
                 @Override
@@ -128,6 +135,7 @@ public class MainActivity extends BaseActivity implements ControlsFragment.OnCon
             subscriptionDataTask.cancel(true);
         }
         clearMqttService();
+        stateDispatcher.release();
     }
 
     @Override
@@ -162,10 +170,14 @@ public class MainActivity extends BaseActivity implements ControlsFragment.OnCon
                 // TODO should we loop back and try again? 
                 Timber.e("Could not create MQTTPublisher" + t.getMessage());
             }
-        } else if (readMqttOptions().hasUpdates()) {
-            Timber.d("readMqttOptions().hasUpdates(): " + readMqttOptions().hasUpdates());
+            return;
+        }
+        // hasUpdates() clears the flag, so read the options once
+        MQTTOptions mqttOptions = readMqttOptions();
+        if (mqttOptions.hasUpdates()) {
+            Timber.d("MQTT options have updates");
             try {
-                mqttService.reconfigure(readMqttOptions());
+                mqttService.reconfigure(mqttOptions);
             } catch (Throwable t) {
                 // TODO should we loop back and try again? 
                 Timber.e("Could not create MQTTPublisher" + t.getMessage());
@@ -348,18 +360,28 @@ public class MainActivity extends BaseActivity implements ControlsFragment.OnCon
         });
     }
 
-    @Override
-    public void subscriptionMessage(final String topic, final String payload, final String id) {
-        MainActivity.this.runOnUiThread(new Runnable() {
+    /**
+     * Every message is queued for the <code>SubscriptionWriter</code>, which stores them in
+     * order in batches, while the state changes are coalesced and handled once per frame.
+     */
+    private StateDispatcher.Listener getStateDispatcherListener(final StoreManager storeManager) {
+        return new StateDispatcher.Listener() {
             @Override
-            public void run() {
-                if(AlarmUtils.hasSupportedStates(payload)) {
-                    subscriptionDataTask = getUpdateMqttDataTask();
-                    subscriptionDataTask.execute(new SubscriptionData(topic, payload, id));
-                    handleStateChange(payload);
-                }
+            public void onPersist(final SubscriptionData data) {
+                storeManager.insertMqttData(data.getTopic(), data.getPayload(), data.getMessageId());
             }
-        });
+            @Override
+            public void onStateChange(String topic, String state) {
+                handleStateChange(state);
+            }
+        };
+    }
+
+    @Override
+    public void subscriptionMessage(final String topic, final String payload, final String id) {
+        if(AlarmUtils.hasSupportedStates(payload)) {
+            stateDispatcher.post(topic, payload, id);
+        }
     }
 
     @Override
@@ -382,8 +404,14 @@ public class MainActivity extends BaseActivity implements ControlsFragment.OnCon
                     public void onClick(DialogInterface dialogInterface, int i) {
                         subscriptionDataTask = getUpdateMqttDataTask();
                         subscriptionDataTask.execute(new SubscriptionData(readMqttOptions().getStateTopic(), AlarmUtils.STATE_ERROR, "0"));
-                        clearMqttService();
-                        initializeMqttService();
+                        if (mqttService == null || !mqttService.isReady()) {
+                            // the service never got a client from invalid options, start over with the current ones
+                            clearMqttService();
+                            initializeMqttService();
+                        } else {
+                            // the connection manager keeps the client and retries, just skip the wait
+                            mqttService.reconnect();
+                        }
                     }
                 });
                 Timber.d("Unable to connect client.");
@@ -391,6 +419,17 @@ public class MainActivity extends BaseActivity implements ControlsFragment.OnCon
         });
     }
 
+    /**
+     * When the network comes back we don't wait for the next scheduled retry.
+     */
+    @Override
+    public void handleNetworkConnect() {
+        super.handleNetworkConnect();
+        if(mqttService != null) {
+            mqttService.reconnect();
+        }
+    }
+
     /**
      * Network connectivity receiver to notify client of the network disconnect issues and
      * to clear any network notifications when reconnected. It is easy for network connectivity
@@ -0,0 +1,172 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package com.thanksmister.iot.mqtt.alarmpanel.ui.adapters;
+
+import android.content.Context;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.thanksmister.iot.mqtt.alarmpanel.R;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+import com.thanksmister.iot.mqtt.alarmpanel.utils.DateUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import butterknife.Bind;
+import butterknife.ButterKnife;
+
+/**
+ * Subscription log rows, newest first. Rows are added a page at a time at the bottom and as
+ * messages arrive at the top, and are formatted before they get here so binding only sets text.
+ */
+public class SubscriptionLogAdapter extends RecyclerView.Adapter<SubscriptionLogAdapter.ViewHolder> {
+
+    // ask for the next page while this many rows are still below the one being shown
+    private static final int PREFETCH_DISTANCE = 20;
+
+    private final Context context;
+    private final List<Row> items = new ArrayList<>();
+    private final OnPrefetchListener listener;
+
+    /**
+     * Called when the list has scrolled close to the last loaded row.
+     */
+    public interface OnPrefetchListener {
+        void onPrefetch();
+    }
+
+    /**
+     * A log row ready to show, built off the main thread.
+     */
+    public static class Row {
+        private final long id;
+        private final long createdAt;
+        private final String topic;
+        private final String payload;
+        private final String date;
+
+        public Row(SubscriptionModel model) {
+            this.id = model.id();
+            this.createdAt = model.createdAt();
+            this.topic = model.topic();
+            this.payload = model.payload();
+            this.date = DateUtils.formatCreatedAtDate(model.createdAt());
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+    }
+
+    public static List<Row> toRows(List<SubscriptionModel> models) {
+        List<Row> rows = new ArrayList<>(models.size());
+        for (SubscriptionModel model : models) {
+            rows.add(new Row(model));
+        }
+        return rows;
+    }
+
+    public SubscriptionLogAdapter(Context context, OnPrefetchListener listener) {
+        this.context = context;
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    public void clear() {
+        items.clear();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * The oldest row loaded, where the next page starts, or null when nothing is loaded.
+     */
+    public Row getLastRow() {
+        return items.isEmpty() ? null : items.get(items.size() - 1);
+    }
+
+    /**
+     * Add an older page below the rows shown, newest first.
+     */
+    public void addPage(List<Row> rows) {
+        int start = items.size();
+        items.addAll(rows);
+        notifyItemRangeInserted(start, rows.size());
+    }
+
+    /**
+     * Add rows that arrived after the ones shown, oldest first.
+     */
+    public void addNewRows(List<Row> rows) {
+        for (Row row : rows) {
+            items.add(0, row);
+        }
+        notifyItemRangeInserted(0, rows.size());
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View itemLayoutView = LayoutInflater.from(context).inflate(R.layout.adapter_data_row, parent, false);
+        return new ViewHolder(itemLayoutView);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder viewHolder, int position) {
+        Row row = items.get(position);
+        viewHolder.topicText.setText(row.topic);
+        viewHolder.messageText.setText(row.payload);
+        viewHolder.dateText.setText(row.date);
+        if (position >= items.size() - PREFETCH_DISTANCE && listener != null) {
+            listener.onPrefetch();
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return items.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return items.get(position).id;
+    }
+
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        @Bind(R.id.topicText)
+        TextView topicText;
+
+        @Bind(R.id.messageText)
+        TextView messageText;
+
+        @Bind(R.id.dateText)
+        TextView dateText;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            ButterKnife.bind(this, itemView);
+        }
+    }
+}
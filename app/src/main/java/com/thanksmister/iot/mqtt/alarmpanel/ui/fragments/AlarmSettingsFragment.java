@@ -21,9 +21,11 @@ package com.thanksmister.iot.mqtt.alarmpanel.ui.fragments;
 import android.app.Dialog;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v7.preference.CheckBoxPreference;
 import android.support.v7.preference.EditTextPreference;
+import android.support.v7.preference.ListPreference;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceFragmentCompat;
 import android.support.v7.preference.PreferenceScreen;
@@ -33,16 +35,28 @@ import android.widget.Toast;
 
 import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity;
 import com.thanksmister.iot.mqtt.alarmpanel.R;
+import com.thanksmister.iot.mqtt.alarmpanel.data.stores.SubscriptionArchive;
 import com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions;
+import com.thanksmister.iot.mqtt.alarmpanel.tasks.HistoryArchiveTask;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.views.AlarmCodeView;
 import com.thanksmister.iot.mqtt.alarmpanel.utils.DialogUtils;
 
+import java.io.File;
+
+import timber.log.Timber;
+
 import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_BROKER;
 import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_CLIENT_ID;
 import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_COMMAND_TOPIC;
+import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_EVENT_TOPIC;
+import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_FAILOVER_BROKERS;
+import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_IN_PROCESS_TRANSPORT;
 import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_PASSWORD;
 import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_PORT;
+import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_QOS_ARM_AWAY;
+import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_QOS_ARM_HOME;
+import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_QOS_DISARM;
 import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_STATE_TOPIC;
 import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_TLS_CONNECTION;
 import static com.thanksmister.iot.mqtt.alarmpanel.network.MQTTOptions.PREF_USERNAME;
@@ -51,18 +65,28 @@ import static com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.PREF_PENDING
 
 public class AlarmSettingsFragment extends PreferenceFragmentCompat implements SharedPreferences.OnSharedPreferenceChangeListener {
 
+    private static final String PREF_EXPORT_HISTORY = "pref_export_history";
+    private static final String PREF_IMPORT_HISTORY = "pref_import_history";
+
     private EditTextPreference brokerPreference;
+    private EditTextPreference failoverBrokersPreference;
     private EditTextPreference clientPreference;
     private EditTextPreference portPreference;
     private EditTextPreference commandTopicPreference;
     private EditTextPreference stateTopicPreference;
+    private EditTextPreference eventTopicPreference;
     private EditTextPreference userNamePreference;
     private EditTextPreference passwordPreference;
     private EditTextPreference pendingPreference;
     private CheckBoxPreference sslPreference;
+    private CheckBoxPreference inProcessPreference;
+    private ListPreference qosArmHomePreference;
+    private ListPreference qosArmAwayPreference;
+    private ListPreference qosDisarmPreference;
     private Configuration configuration;
     private MQTTOptions mqttOptions;
     private Dialog alarmCodeDialog;
+    private HistoryArchiveTask historyTask;
     private int defaultCode;
     private int tempCode;
     private boolean confirmCode = false;
@@ -102,6 +126,9 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat implements S
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (historyTask != null) {
+            historyTask.cancel(false);
+        }
     }
 
     @Override
@@ -118,33 +145,69 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat implements S
             }
         });
 
+        final File historyFile = SubscriptionArchive.getDefaultFile(getActivity());
+        final Preference exportPreference = findPreference(PREF_EXPORT_HISTORY);
+        exportPreference.setSummary(getString(R.string.preference_summary_export_history, historyFile.getPath()));
+        exportPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                runHistoryTask(preference, true, historyFile);
+                return true;
+            }
+        });
+        final Preference importPreference = findPreference(PREF_IMPORT_HISTORY);
+        importPreference.setSummary(getString(R.string.preference_summary_import_history, historyFile.getPath()));
+        importPreference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                runHistoryTask(preference, false, historyFile);
+                return true;
+            }
+        });
+
         brokerPreference = (EditTextPreference) findPreference(PREF_BROKER);
+        failoverBrokersPreference = (EditTextPreference) findPreference(PREF_FAILOVER_BROKERS);
         clientPreference = (EditTextPreference) findPreference(PREF_CLIENT_ID);
         portPreference = (EditTextPreference) findPreference(PREF_PORT);
         commandTopicPreference = (EditTextPreference) findPreference(PREF_COMMAND_TOPIC);
         stateTopicPreference = (EditTextPreference) findPreference(PREF_STATE_TOPIC);
+        eventTopicPreference = (EditTextPreference) findPreference(PREF_EVENT_TOPIC);
         userNamePreference = (EditTextPreference) findPreference(PREF_USERNAME);
         passwordPreference = (EditTextPreference) findPreference(PREF_PASSWORD);
         pendingPreference = (EditTextPreference) findPreference(PREF_PENDING_TIME);
         sslPreference = (CheckBoxPreference) findPreference(PREF_TLS_CONNECTION);
+        inProcessPreference = (CheckBoxPreference) findPreference(PREF_IN_PROCESS_TRANSPORT);
+        qosArmHomePreference = (ListPreference) findPreference(PREF_QOS_ARM_HOME);
+        qosArmAwayPreference = (ListPreference) findPreference(PREF_QOS_ARM_AWAY);
+        qosDisarmPreference = (ListPreference) findPreference(PREF_QOS_DISARM);
        
         if(isAdded()) {
             configuration = ((BaseActivity) getActivity()).getConfiguration();
+            mqttOptions = ((BaseActivity) getActivity()).readMqttOptions();
         }
         
         brokerPreference.setText(mqttOptions.getBroker());
+        failoverBrokersPreference.setText(mqttOptions.getFailoverBrokers());
         clientPreference.setText(String.valueOf(mqttOptions.getClientId()));
         portPreference.setText(String.valueOf(mqttOptions.getPort()));
         commandTopicPreference.setText(mqttOptions.getCommandTopic());
         stateTopicPreference.setText(mqttOptions.getStateTopic());
+        eventTopicPreference.setText(mqttOptions.getEventTopic());
         userNamePreference.setText(mqttOptions.getUsername());
         passwordPreference.setText(mqttOptions.getPassword());
         pendingPreference.setText(String.valueOf(configuration.getPendingTime()));
         sslPreference.setChecked(mqttOptions.getTlsConnection());
+        inProcessPreference.setChecked(mqttOptions.getInProcessTransport());
+        setQosValue(qosArmHomePreference, mqttOptions.getQosArmHome());
+        setQosValue(qosArmAwayPreference, mqttOptions.getQosArmAway());
+        setQosValue(qosDisarmPreference, mqttOptions.getQosDisarm());
        
         if(!TextUtils.isEmpty(mqttOptions.getBroker())) {
             brokerPreference.setSummary(mqttOptions.getBroker());
         }
+        if(!TextUtils.isEmpty(mqttOptions.getFailoverBrokers())) {
+            failoverBrokersPreference.setSummary(mqttOptions.getFailoverBrokers());
+        }
         if(!TextUtils.isEmpty(mqttOptions.getClientId())) {
             clientPreference.setSummary(mqttOptions.getClientId());
         }
@@ -157,6 +220,9 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat implements S
         if(!TextUtils.isEmpty(mqttOptions.getStateTopic())) {
             stateTopicPreference.setSummary(mqttOptions.getStateTopic());
         }
+        if(!TextUtils.isEmpty(mqttOptions.getEventTopic())) {
+            eventTopicPreference.setSummary(mqttOptions.getEventTopic());
+        }
         if(!TextUtils.isEmpty(mqttOptions.getUsername())) {
             userNamePreference.setSummary(mqttOptions.getUsername());
         }
@@ -184,6 +250,15 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat implements S
                     Toast.makeText(getActivity(), R.string.text_error_blank_entry, Toast.LENGTH_LONG).show();
                 }
                 break;
+            case PREF_FAILOVER_BROKERS:
+                value = failoverBrokersPreference.getText();
+                mqttOptions.setFailoverBrokers(value);
+                if (!TextUtils.isEmpty(value)) {
+                    failoverBrokersPreference.setSummary(value);
+                } else {
+                    failoverBrokersPreference.setSummary(R.string.preference_summary_failover_brokers);
+                }
+                break;
             case PREF_CLIENT_ID:
                 value = clientPreference.getText();
                 if (!TextUtils.isEmpty(value)) {
@@ -224,6 +299,15 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat implements S
                     stateTopicPreference.setText(mqttOptions.getStateTopic());
                 }
                 break;
+            case PREF_EVENT_TOPIC:
+                value = eventTopicPreference.getText();
+                mqttOptions.setEventTopic(value);
+                if (!TextUtils.isEmpty(value)) {
+                    eventTopicPreference.setSummary(value);
+                } else {
+                    eventTopicPreference.setSummary(R.string.preference_summary_event_topic);
+                }
+                break;
             case PREF_USERNAME:
                 value = userNamePreference.getText();
                 mqttOptions.setUsername(value);
@@ -255,9 +339,29 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat implements S
                 boolean checked = sslPreference.isChecked();
                 mqttOptions.setTlsConnection(checked);
                 break;
+            case PREF_IN_PROCESS_TRANSPORT:
+                mqttOptions.setInProcessTransport(inProcessPreference.isChecked());
+                break;
+            case PREF_QOS_ARM_HOME:
+                mqttOptions.setQosArmHome(Integer.parseInt(qosArmHomePreference.getValue()));
+                qosArmHomePreference.setSummary(getString(R.string.preference_summary_qos, qosArmHomePreference.getEntry()));
+                break;
+            case PREF_QOS_ARM_AWAY:
+                mqttOptions.setQosArmAway(Integer.parseInt(qosArmAwayPreference.getValue()));
+                qosArmAwayPreference.setSummary(getString(R.string.preference_summary_qos, qosArmAwayPreference.getEntry()));
+                break;
+            case PREF_QOS_DISARM:
+                mqttOptions.setQosDisarm(Integer.parseInt(qosDisarmPreference.getValue()));
+                qosDisarmPreference.setSummary(getString(R.string.preference_summary_qos, qosDisarmPreference.getEntry()));
+                break;
         }
     }
 
+    private void setQosValue(ListPreference preference, int qos) {
+        preference.setValue(String.valueOf(qos));
+        preference.setSummary(getString(R.string.preference_summary_qos, preference.getEntry()));
+    }
+
     private String toStars(String text) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < text.length(); i++) {
@@ -267,6 +371,45 @@ public class AlarmSettingsFragment extends PreferenceFragmentCompat implements S
         return text;
     }
 
+    /**
+     * Export or import the history, one at a time. The preference shows the progress and
+     * gets its summary back when done.
+     */
+    private void runHistoryTask(final Preference preference, boolean export, File file) {
+        if (historyTask != null && historyTask.getStatus() != AsyncTask.Status.FINISHED) {
+            return;
+        }
+        final CharSequence summary = preference.getSummary();
+        historyTask = new HistoryArchiveTask(new SubscriptionArchive(getActivity().getContentResolver()), export);
+        historyTask.setOnProgressListener(new HistoryArchiveTask.OnProgressListener() {
+            @Override
+            public void onProgress(long rows) {
+                preference.setSummary(getString(R.string.preference_summary_history_progress, rows));
+            }
+        });
+        historyTask.setOnExceptionListener(new HistoryArchiveTask.OnExceptionListener() {
+            @Override
+            public void onException(Exception exception) {
+                Timber.e("History Exception: " + exception.getMessage());
+                preference.setSummary(summary);
+                if (isAdded()) {
+                    Toast.makeText(getActivity(), getString(R.string.text_error_history, exception.getMessage()), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+        historyTask.setOnCompleteListener(new HistoryArchiveTask.OnCompleteListener<SubscriptionArchive.Result>() {
+            @Override
+            public void onComplete(SubscriptionArchive.Result result) {
+                preference.setSummary(summary);
+                if (isAdded()) {
+                    Toast.makeText(getActivity(), getString(R.string.text_history_complete, result.getRows(),
+                            result.getTime() / 1000, result.getRowsPerSecond()), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+        historyTask.execute(file);
+    }
+
     public void hideAlarmCodeDialog() {
         if(alarmCodeDialog != null) {
             alarmCodeDialog.dismiss();
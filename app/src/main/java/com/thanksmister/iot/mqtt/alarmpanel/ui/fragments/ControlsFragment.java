@@ -20,13 +20,9 @@ package com.thanksmister.iot.mqtt.alarmpanel.ui.fragments;
 
 import android.content.Context;
 import android.database.ContentObserver;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.annotation.Nullable;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -36,7 +32,6 @@ import android.widget.Toast;
 import com.thanksmister.iot.mqtt.alarmpanel.BaseActivity;
 import com.thanksmister.iot.mqtt.alarmpanel.BaseFragment;
 import com.thanksmister.iot.mqtt.alarmpanel.R;
-import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
 import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.views.AlarmDisableView;
@@ -44,8 +39,6 @@ import com.thanksmister.iot.mqtt.alarmpanel.ui.views.AlarmPendingView;
 import com.thanksmister.iot.mqtt.alarmpanel.ui.views.ArmOptionsView;
 import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils;
 
-import java.util.List;
-
 import butterknife.Bind;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
@@ -61,10 +54,7 @@ import static com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.PREF_DISARM;
 import static com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.PREF_HOME_TRIGGERED_PENDING;
 import static com.thanksmister.iot.mqtt.alarmpanel.ui.Configuration.PREF_TRIGGERED_PENDING;
 
-public class ControlsFragment extends BaseFragment implements LoaderManager.LoaderCallbacks<Cursor> {
-
-    // The loader's unique id. Loader ids are specific to the Activity or
-    private static final int DATA_LOADER_ID = 1;
+public class ControlsFragment extends BaseFragment {
    
     @Bind(R.id.alarmPendingLayout)
     View alarmPendingLayout;
@@ -97,6 +87,9 @@ public class ControlsFragment extends BaseFragment implements LoaderManager.Load
     }
     
     private SubscriptionObserver subscriptionObserver;
+    private String stateTopic;
+    // the state topic payload last handled, other topics notify the same uri
+    private String handledState;
     private OnControlsFragmentListener mListener;
 
     /**
@@ -148,16 +141,17 @@ public class ControlsFragment extends BaseFragment implements LoaderManager.Load
     @Override
     public void onResume() {
         super.onResume();
+        stateTopic = readMqttOptions().getStateTopic();
         subscriptionObserver = new SubscriptionObserver(new Handler());
-        getActivity().getContentResolver().registerContentObserver(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, true, subscriptionObserver);
-        getLoaderManager().restartLoader(DATA_LOADER_ID, null, this);
+        getActivity().getContentResolver().registerContentObserver(ContentProvider.CURRENT_STATE_TABLE_URI, true, subscriptionObserver);
+        handledState = null;
+        updateCurrentState();
     }
 
     @Override
     public void onPause() {
         super.onPause();
         getActivity().getContentResolver().unregisterContentObserver(subscriptionObserver);
-        getLoaderManager().destroyLoader(DATA_LOADER_ID);
     }
     
     @Override
@@ -346,43 +340,27 @@ public class ControlsFragment extends BaseFragment implements LoaderManager.Load
         }, getConfiguration().getAlarmCode(), beep, timeRemaining);
     }
     
-    @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle bundle) {
-        if(id == DATA_LOADER_ID) {
-            return new CursorLoader(getActivity(), ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, SubscriptionModel.COLUMN_NAMES, null, null, null);
-        } 
-        return null;
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        switch (loader.getId()) {
-            case DATA_LOADER_ID:
-                List<SubscriptionModel> subscriptionModels = SubscriptionModel.getModelList(cursor);
-                if(subscriptionModels != null && !subscriptionModels.isEmpty()) {
-                    // get the last message
-                    SubscriptionModel subscriptionModel = subscriptionModels.get(subscriptionModels.size() - 1);
-                    // if we have a payload has one of the states
-                    if(AlarmUtils.hasSupportedStates(subscriptionModel.payload())) {
-                        handleStateChange(subscriptionModel.payload());
-                    }
-                }
-                break;
+    /**
+     * Shows the latest state topic payload, read from the store manager cache
+     * so it doesn't matter how much history has been logged.
+     */
+    private void updateCurrentState() {
+        String payload = getStoreManager().getCurrentState(stateTopic);
+        // if we have a payload has one of the states
+        if(payload != null && AlarmUtils.hasSupportedStates(payload) && !payload.equals(handledState)) {
+            handledState = payload;
+            handleStateChange(payload);
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-    }
-
     private class SubscriptionObserver extends ContentObserver {
         SubscriptionObserver(Handler handler) {
             super(handler);
         }
         @Override
         public void onChange(boolean selfChange) {
-            if(selfChange) {
-                getActivity().getSupportLoaderManager().restartLoader(DATA_LOADER_ID, null, ControlsFragment.this);
+            if(isAdded()) {
+                updateCurrentState();
             }
         }
     }
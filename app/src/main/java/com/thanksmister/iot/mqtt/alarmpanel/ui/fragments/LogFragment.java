@@ -20,34 +20,47 @@ package com.thanksmister.iot.mqtt.alarmpanel.ui.fragments;
 
 
 import android.content.Context;
-import android.database.Cursor;
+import android.database.ContentObserver;
+import android.net.Uri;
 import android.os.Bundle;
-import android.support.v4.app.Fragment;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
+import android.os.Handler;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ListView;
 
+import com.thanksmister.iot.mqtt.alarmpanel.BaseFragment;
 import com.thanksmister.iot.mqtt.alarmpanel.R;
 import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
 import com.thanksmister.iot.mqtt.alarmpanel.data.provider.ContentProvider;
-import com.thanksmister.iot.mqtt.alarmpanel.ui.adapters.SubscriptionCursorAdapter;
+import com.thanksmister.iot.mqtt.alarmpanel.data.stores.StoreManager;
+import com.thanksmister.iot.mqtt.alarmpanel.data.stores.SubscriptionTail;
+import com.thanksmister.iot.mqtt.alarmpanel.ui.adapters.SubscriptionLogAdapter;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
 
-public class LogFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor> {
+public class LogFragment extends BaseFragment implements SubscriptionLogAdapter.OnPrefetchListener {
 
-    // The loader's unique id. Loader ids are specific to the Activity or
-    private static final int DATA_LOADER_ID = 1;
+    private static final int PAGE_SIZE = 50;
     
-    @Bind(R.id.logsListView)
-    ListView listView;
+    @Bind(R.id.logsRecyclerView)
+    RecyclerView recyclerView;
 
-    private SubscriptionCursorAdapter cursorAdapter;
+    private SubscriptionLogAdapter adapter;
+    private SubscriptionTail subscriptionTail;
+    private SubscriptionObserver subscriptionObserver;
+    private ExecutorService executor;
+    private final Handler handler = new Handler();
+    // bumped on every reload so pages from an older load are dropped
+    private int generation;
+    private boolean loading;
+    private boolean endReached;
     
     public LogFragment() {
         // Required empty public constructor
@@ -74,7 +87,11 @@ public class LogFragment extends Fragment implements LoaderManager.LoaderCallbac
     @Override
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
-        getLoaderManager().initLoader(DATA_LOADER_ID, null, this);
+        executor = Executors.newSingleThreadExecutor();
+        adapter = new SubscriptionLogAdapter(getActivity(), this);
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setLayoutManager(new LinearLayoutManager(getActivity()));
+        recyclerView.setAdapter(adapter);
     }
 
     @Override
@@ -84,31 +101,159 @@ public class LogFragment extends Fragment implements LoaderManager.LoaderCallbac
         return fragmentView;
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        reload();
+        subscriptionObserver = new SubscriptionObserver(handler);
+        getActivity().getContentResolver().registerContentObserver(ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, true, subscriptionObserver);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        getActivity().getContentResolver().unregisterContentObserver(subscriptionObserver);
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        executor.shutdownNow();
+        handler.removeCallbacksAndMessages(null);
+    }
+
     @Override
     public void onDetach() {
         super.onDetach();
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle bundle) {
-        if(id == DATA_LOADER_ID) {
-            return new CursorLoader(getActivity(), ContentProvider.SUBSCRIPTION_DATA_TABLE_URI, SubscriptionModel.COLUMN_NAMES, null, null, SubscriptionModel.CREATED_AT + " DESC");
+    public void onPrefetch() {
+        loadPage();
+    }
+
+    private void reload() {
+        generation++;
+        loading = false;
+        endReached = false;
+        subscriptionTail = null;
+        adapter.clear();
+        loadPage();
+    }
+
+    /**
+     * Loads the page after the last row shown on the executor, the rows are formatted there too.
+     */
+    private void loadPage() {
+        if (loading || endReached) {
+            return;
         }
-        return null;
+        loading = true;
+        final int loadGeneration = generation;
+        final StoreManager storeManager = getStoreManager();
+        final SubscriptionLogAdapter.Row lastRow = adapter.getLastRow();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<SubscriptionModel> models = lastRow == null
+                        ? storeManager.getLatestMqttData(PAGE_SIZE)
+                        : storeManager.getMqttDataBefore(lastRow.getCreatedAt(), lastRow.getId(), PAGE_SIZE);
+                final List<SubscriptionLogAdapter.Row> rows = SubscriptionLogAdapter.toRows(models);
+                final long newestId = getNewestId(models);
+                // the first page is newest first, its top row is the newest shown
+                final long newestCreatedAt = models.isEmpty() ? 0 : models.get(0).createdAt();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loadGeneration != generation) {
+                            return;
+                        }
+                        loading = false;
+                        endReached = rows.size() < PAGE_SIZE;
+                        if (subscriptionTail == null) {
+                            subscriptionTail = new SubscriptionTail(storeManager, newestId, newestCreatedAt);
+                        }
+                        adapter.addPage(rows);
+                    }
+                });
+            }
+        });
     }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        switch (loader.getId()) {
-            case DATA_LOADER_ID:
-                cursorAdapter = new SubscriptionCursorAdapter(getActivity(), data, false);
-                listView.setAdapter(cursorAdapter);
-                break;
+    /**
+     * Reads the rows that arrived since the newest one shown and adds them at the top, or
+     * reloads when they belong further down.
+     */
+    private void loadNewRows(final Uri uri) {
+        final SubscriptionTail tail = subscriptionTail;
+        if (tail == null) {
+            // the first page isn't in yet and will include the new rows
+            return;
         }
+        final int loadGeneration = generation;
+        SubscriptionLogAdapter.Row lastRow = adapter.getLastRow();
+        final long oldestCreatedAt = endReached || lastRow == null ? Long.MIN_VALUE : lastRow.getCreatedAt();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<SubscriptionModel> models = tail.onChange(uri, oldestCreatedAt);
+                final List<SubscriptionLogAdapter.Row> rows = models == null ? null : SubscriptionLogAdapter.toRows(models);
+                if (rows != null && rows.isEmpty()) {
+                    return;
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (loadGeneration != generation) {
+                            return;
+                        }
+                        if (rows == null) {
+                            reload();
+                            return;
+                        }
+                        boolean atTop = !recyclerView.canScrollVertically(-1);
+                        adapter.addNewRows(rows);
+                        if (atTop) {
+                            recyclerView.scrollToPosition(0);
+                        }
+                    }
+                });
+            }
+        });
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        cursorAdapter.swapCursor(null);
+    /**
+     * True when the change is a trim of rows older than any loaded, the rows shown
+     * stay as they are and the pages still to load won't have the deleted rows.
+     */
+    private boolean isTrimBelowLoaded(Uri uri) {
+        long createdAt = ContentProvider.getTrimCreatedAt(uri);
+        SubscriptionLogAdapter.Row lastRow = adapter.getLastRow();
+        return createdAt >= 0 && !endReached && lastRow != null && createdAt < lastRow.getCreatedAt();
+    }
+
+    private static long getNewestId(List<SubscriptionModel> models) {
+        long id = 0;
+        for (SubscriptionModel model : models) {
+            id = Math.max(id, model.id());
+        }
+        return id;
+    }
+
+    private class SubscriptionObserver extends ContentObserver {
+        SubscriptionObserver(Handler handler) {
+            super(handler);
+        }
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if(!isAdded()) {
+                return;
+            }
+            if(SubscriptionTail.isAppend(uri)) {
+                loadNewRows(uri);
+            } else if (!isTrimBelowLoaded(uri)) {
+                reload();
+            }
+        }
     }
-}
\ No newline at end of file
+}
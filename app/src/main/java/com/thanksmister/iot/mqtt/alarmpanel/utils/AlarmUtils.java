@@ -18,10 +18,12 @@
 
 package com.thanksmister.iot.mqtt.alarmpanel.utils;
 
+import android.support.annotation.Nullable;
 import android.support.annotation.StringDef;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -51,7 +53,13 @@ public class AlarmUtils {
     public static final int TRIGGER_TIME = 120;
     
     private static final List<String> supportedCommands = new ArrayList<String>();
-    private static final List<String> supportedStates = new ArrayList<String>();
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] STATE_DISARM_BYTES = STATE_DISARM.getBytes(ASCII);
+    private static final byte[] STATE_ARM_AWAY_BYTES = STATE_ARM_AWAY.getBytes(ASCII);
+    private static final byte[] STATE_ARM_HOME_BYTES = STATE_ARM_HOME.getBytes(ASCII);
+    private static final byte[] STATE_PENDING_BYTES = STATE_PENDING.getBytes(ASCII);
+    private static final byte[] STATE_TRIGGERED_BYTES = STATE_TRIGGERED.getBytes(ASCII);
     
     public AlarmUtils(){
     }
@@ -70,14 +78,6 @@ public class AlarmUtils {
         supportedCommands.add(COMMAND_DISARM);
     }
 
-    static {
-        supportedStates.add(STATE_DISARM);
-        supportedStates.add(STATE_ARM_AWAY);
-        supportedStates.add(STATE_ARM_HOME);
-        supportedStates.add(STATE_PENDING);
-        supportedStates.add(STATE_TRIGGERED);
-    }
-
     /**
      * Topic is of type command topic
      * @param command
@@ -95,6 +95,64 @@ public class AlarmUtils {
      */
     @AlarmStates
     public static boolean hasSupportedStates(String state) {
-        return supportedStates.contains(state);
+        if (state == null) {
+            return false;
+        }
+        switch (state) {
+            case STATE_DISARM:
+            case STATE_ARM_AWAY:
+            case STATE_ARM_HOME:
+            case STATE_PENDING:
+            case STATE_TRIGGERED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Classifies a raw state topic payload without decoding it to a String. The five
+     * supported states only collide on length for armed_away and armed_home, so the
+     * length picks the candidate and a single byte comparison confirms it.
+     * @param payload raw MQTT message payload
+     * @return one of the state constants or null if the payload isn't a supported state
+     */
+    @Nullable
+    public static String getAlarmState(byte[] payload) {
+        if (payload == null) {
+            return null;
+        }
+        return getAlarmState(payload, payload.length);
+    }
+
+    /**
+     * Classifies the first <code>length</code> bytes of the payload, for buffers that are reused.
+     */
+    @Nullable
+    public static String getAlarmState(byte[] payload, int length) {
+        switch (length) {
+            case 7:
+                return matches(payload, STATE_PENDING_BYTES) ? STATE_PENDING : null;
+            case 8:
+                return matches(payload, STATE_DISARM_BYTES) ? STATE_DISARM : null;
+            case 9:
+                return matches(payload, STATE_TRIGGERED_BYTES) ? STATE_TRIGGERED : null;
+            case 10:
+                if (payload[6] == 'a') {
+                    return matches(payload, STATE_ARM_AWAY_BYTES) ? STATE_ARM_AWAY : null;
+                }
+                return matches(payload, STATE_ARM_HOME_BYTES) ? STATE_ARM_HOME : null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean matches(byte[] payload, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (payload[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 }
\ No newline at end of file
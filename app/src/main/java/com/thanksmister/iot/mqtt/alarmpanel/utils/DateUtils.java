@@ -21,7 +21,6 @@ package com.thanksmister.iot.mqtt.alarmpanel.utils;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 
-import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -43,9 +42,11 @@ public final class DateUtils {
         return dateTime.toLocalDateTime().toString(fmt);
     }
 
-    public static String generateCreatedAtDate() {
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US);
-        return dateFormat.format(new Date());
+    /**
+     * Short local date and time for a created date in epoch milliseconds.
+     */
+    public static String formatCreatedAtDate(long createdAt) {
+        return DateTimeFormat.forStyle("SS").withLocale(Locale.getDefault()).print(createdAt);
     }
 
     /**
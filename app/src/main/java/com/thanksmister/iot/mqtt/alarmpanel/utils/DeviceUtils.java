@@ -24,12 +24,39 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.UUID;
 
+import dpreference.DPreference;
 import timber.log.Timber;
 
 public class DeviceUtils {
 
+    private static final String PREF_DEVICE_ID = "pref_device_id";
+
+    private static volatile String deviceId;
+
     private DeviceUtils(){
     }
+
+    /**
+     * A device id that stays the same for the life of the installation. It is generated
+     * once, stored in the preferences and kept in memory so we only read it once per process.
+     */
+    public static String getDeviceId(DPreference sharedPreferences) {
+        String id = deviceId;
+        if (id != null) {
+            return id;
+        }
+        synchronized (DeviceUtils.class) {
+            if (deviceId == null) {
+                id = sharedPreferences.getPrefString(PREF_DEVICE_ID, null);
+                if (TextUtils.isEmpty(id)) {
+                    id = getUuIdHash();
+                    sharedPreferences.setPrefString(PREF_DEVICE_ID, id);
+                }
+                deviceId = id;
+            }
+            return deviceId;
+        }
+    }
     
     public static String getUuIdHash() {
         String deviceId = null;
@@ -22,9 +22,14 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 
+import com.thanksmister.iot.mqtt.alarmpanel.network.InProcessMqttTransport;
+import com.thanksmister.iot.mqtt.alarmpanel.network.MqttTransport;
+import com.thanksmister.iot.mqtt.alarmpanel.network.ServiceMqttTransport;
+
 import org.eclipse.paho.android.service.MqttAndroidClient;
 import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
 
 /**
  * TODO: Add a class header comment!
@@ -64,4 +69,20 @@ public class MqttUtils {
         mqttAndroidClient.setCallback(mqttCallbackExtended);
         return mqttAndroidClient;
     }
-}
+
+    /**
+     * Creates the transport for the client, the in-process transport skips the
+     * Paho <code>MqttService</code> and its binder hop for every message.
+     */
+    public static MqttTransport getMqttTransport(Context context, boolean inProcess, String serverUri, String clientId,
+                                                 MqttCallbackExtended mqttCallbackExtended) throws MqttException {
+        MqttTransport mqttTransport;
+        if (inProcess) {
+            mqttTransport = new InProcessMqttTransport(serverUri, clientId);
+        } else {
+            mqttTransport = new ServiceMqttTransport(context, serverUri, clientId);
+        }
+        mqttTransport.setCallback(mqttCallbackExtended);
+        return mqttTransport;
+    }
+}
\ No newline at end of file
@@ -20,6 +20,7 @@ package dpreference;
 
 
 import android.content.Context;
+import android.os.Bundle;
 
 /**
  * Created by wangyida on 15-4-9.
@@ -76,4 +77,65 @@ public class DPreference {
     public void removePreference(final String key) {
         PrefAccessor.remove(mContext, mName, key);
     }
+
+    /**
+     * Every value of the preference file in one provider call, kept until one of them changes.
+     */
+    public PrefSnapshot getSnapshot() {
+        return PrefAccessor.getSnapshot(mContext, mName);
+    }
+
+    /**
+     * Collect several changes to apply together, for example
+     * <code>edit().putString(key, value).putBoolean(other, true).apply()</code>.
+     */
+    public Editor edit() {
+        return new Editor();
+    }
+
+    /**
+     * Changes carried to the provider in one call and applied in one
+     * <code>SharedPreferences.Editor</code>, so readers see all of them or none.
+     */
+    public class Editor {
+
+        private final Bundle mValues = new Bundle();
+
+        private Editor() {
+        }
+
+        public Editor putString(final String key, final String value) {
+            mValues.putString(key, value);
+            return this;
+        }
+
+        public Editor putBoolean(final String key, final boolean value) {
+            mValues.putBoolean(key, value);
+            return this;
+        }
+
+        public Editor putInt(final String key, final int value) {
+            mValues.putInt(key, value);
+            return this;
+        }
+
+        public Editor putLong(final String key, final long value) {
+            mValues.putLong(key, value);
+            return this;
+        }
+
+        public Editor remove(final String key) {
+            mValues.putString(key, null);
+            return this;
+        }
+
+        /**
+         * Apply the changes, the file is written in the background.
+         */
+        public void apply() {
+            if (!mValues.isEmpty()) {
+                PrefAccessor.edit(mContext, mName, mValues);
+            }
+        }
+    }
 }
\ No newline at end of file
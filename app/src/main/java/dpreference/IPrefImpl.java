@@ -18,6 +18,7 @@
 
 package dpreference;
 
+import android.os.Bundle;
 
 /**
  * Created by wangyida on 15/12/18.
@@ -48,4 +49,8 @@ interface IPrefImpl {
 
     boolean hasKey(String key);
 
+    void putAll(Bundle values);
+
+    Bundle getAll();
+
 }
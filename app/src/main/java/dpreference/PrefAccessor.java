@@ -22,6 +22,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 
 /**
  * Created by wangyida on 15/12/18.
@@ -29,52 +30,88 @@ import android.net.Uri;
 class PrefAccessor {
 
     public static String getString(Context context, String name, String key, String defaultValue) {
-        Uri URI = PreferenceProvider.buildUri(name, key, PreferenceProvider.PREF_STRING);
-        String value = defaultValue;
-        Cursor cursor = context.getContentResolver().query(URI, null, null, null, null);
-        if (cursor != null && cursor.moveToFirst()) {
-            value = cursor.getString(cursor.getColumnIndex(PreferenceProvider.PREF_VALUE));
-        }
-        IOUtils.closeQuietly(cursor);
-        return value;
+        PrefCache.Entry entry = read(context, name, key, PreferenceProvider.PREF_STRING);
+        return entry.found ? (String) entry.value : defaultValue;
     }
 
     public static int getInt(Context context, String name, String key, int defaultValue) {
-        Uri URI = PreferenceProvider.buildUri(name, key, PreferenceProvider.PREF_INT);
-        int value = defaultValue;
-        Cursor cursor = context.getContentResolver().query(URI, null, null, null, null);
-        if (cursor != null && cursor.moveToFirst()) {
-            value = cursor.getInt(cursor.getColumnIndex(PreferenceProvider.PREF_VALUE));
-        }
-        IOUtils.closeQuietly(cursor);
-        return value;
+        PrefCache.Entry entry = read(context, name, key, PreferenceProvider.PREF_INT);
+        return entry.found ? (Integer) entry.value : defaultValue;
     }
 
     public static long getLong(Context context, String name, String key, long defaultValue) {
-        Uri URI = PreferenceProvider.buildUri(name, key, PreferenceProvider.PREF_LONG);
-        long value = defaultValue;
-        Cursor cursor = context.getContentResolver().query(URI, null, null, null, null);
-        if (cursor != null && cursor.moveToFirst()) {
-            value = cursor.getLong(cursor.getColumnIndex(PreferenceProvider.PREF_VALUE));
-        }
-        IOUtils.closeQuietly(cursor);
-        return value;
+        PrefCache.Entry entry = read(context, name, key, PreferenceProvider.PREF_LONG);
+        return entry.found ? (Long) entry.value : defaultValue;
     }
 
     public static boolean getBoolean(Context context, String name, String key, boolean defaultValue) {
-        Uri URI = PreferenceProvider.buildUri(name, key, PreferenceProvider.PREF_BOOLEAN);
-        int value = defaultValue ? 1 : 0;
+        PrefCache.Entry entry = read(context, name, key, PreferenceProvider.PREF_BOOLEAN);
+        return entry.found ? (Integer) entry.value == 1 : defaultValue;
+    }
+
+    private static PrefCache.Entry read(Context context, String name, String key, int type) {
+        PrefCache cache = PrefCache.getInstance(context, name);
+        PrefCache.Entry entry = cache.get(key, type);
+        if (entry == null) {
+            int generation = cache.getGeneration();
+            entry = query(context, name, key, type);
+            cache.put(key, entry, generation);
+        }
+        return entry;
+    }
+
+    /**
+     * Read the value from the provider, bypassing the cache.
+     */
+    static PrefCache.Entry query(Context context, String name, String key, int type) {
+        Uri URI = PreferenceProvider.buildUri(name, key, type);
+        boolean found = false;
+        Object value = null;
         Cursor cursor = context.getContentResolver().query(URI, null, null, null, null);
         if (cursor != null && cursor.moveToFirst()) {
-            value = cursor.getInt(cursor.getColumnIndex(PreferenceProvider.PREF_VALUE));
+            int index = cursor.getColumnIndex(PreferenceProvider.PREF_VALUE);
+            found = true;
+            switch (type) {
+                case PreferenceProvider.PREF_STRING:
+                    value = cursor.getString(index);
+                    break;
+                case PreferenceProvider.PREF_LONG:
+                    value = cursor.getLong(index);
+                    break;
+                default:
+                    value = cursor.getInt(index);
+                    break;
+            }
         }
         IOUtils.closeQuietly(cursor);
-        return value == 1;
+        return new PrefCache.Entry(type, found, value);
+    }
+
+    public static PrefSnapshot getSnapshot(Context context, String name) {
+        PrefCache cache = PrefCache.getInstance(context, name);
+        PrefSnapshot snapshot = cache.getSnapshot();
+        if (snapshot == null) {
+            int generation = cache.getGeneration();
+            Bundle values = context.getContentResolver().call(PreferenceProvider.CONTENT_URI,
+                    PreferenceProvider.METHOD_SNAPSHOT, name, null);
+            snapshot = new PrefSnapshot(values != null ? values : Bundle.EMPTY);
+            cache.putSnapshot(snapshot, generation);
+        }
+        return snapshot;
+    }
+
+    public static void edit(Context context, String name, Bundle values) {
+        context.getContentResolver().call(PreferenceProvider.CONTENT_URI, PreferenceProvider.METHOD_EDIT, name, values);
+        PrefCache cache = PrefCache.getInstance(context, name);
+        for (String key : values.keySet()) {
+            cache.invalidate(key);
+        }
     }
 
     public static void remove(Context context, String name, String key) {
         Uri URI = PreferenceProvider.buildUri(name, key, PreferenceProvider.PREF_STRING);
         context.getContentResolver().delete(URI, null, null);
+        PrefCache.getInstance(context, name).invalidate(key);
     }
 
     public static void setString(Context context, String name, String key, String value) {
@@ -83,6 +120,7 @@ class PrefAccessor {
         cv.put(PreferenceProvider.PREF_KEY, key);
         cv.put(PreferenceProvider.PREF_VALUE, value);
         context.getContentResolver().update(URI, cv, null, null);
+        PrefCache.getInstance(context, name).invalidate(key);
     }
 
     public static void setBoolean(Context context, String name, String key, boolean value) {
@@ -91,6 +129,7 @@ class PrefAccessor {
         cv.put(PreferenceProvider.PREF_KEY, key);
         cv.put(PreferenceProvider.PREF_VALUE, value);
         context.getContentResolver().update(URI, cv, null, null);
+        PrefCache.getInstance(context, name).invalidate(key);
     }
 
     public static void setInt(Context context, String name, String key, int value) {
@@ -99,6 +138,7 @@ class PrefAccessor {
         cv.put(PreferenceProvider.PREF_KEY, key);
         cv.put(PreferenceProvider.PREF_VALUE, value);
         context.getContentResolver().update(URI, cv, null, null);
+        PrefCache.getInstance(context, name).invalidate(key);
     }
 
     public static void setLong(Context context, String name, String key, long value) {
@@ -107,6 +147,7 @@ class PrefAccessor {
         cv.put(PreferenceProvider.PREF_KEY, key);
         cv.put(PreferenceProvider.PREF_VALUE, value);
         context.getContentResolver().update(URI, cv, null, null);
+        PrefCache.getInstance(context, name).invalidate(key);
     }
 }
 
@@ -0,0 +1,162 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package dpreference;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process local read-through cache of the provider values of one preference file, so a
+ * repeated read is a map lookup instead of a provider query. Entries are dropped when the
+ * provider reports a change to their key, and right away by our own writes since the
+ * notification arrives later on another thread.
+ */
+class PrefCache {
+
+    private static final Map<String, PrefCache> sCaches = new HashMap<>();
+    private static Context sContext;
+
+    private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Bumped by every invalidation, a read that started before one doesn't cache what it read.
+     */
+    private volatile int mGeneration;
+
+    private volatile PrefSnapshot mSnapshot;
+
+    static class Entry {
+        final int type;
+        final boolean found;
+        final Object value;
+
+        Entry(int type, boolean found, Object value) {
+            this.type = type;
+            this.found = found;
+            this.value = value;
+        }
+    }
+
+    static synchronized PrefCache getInstance(Context context, String name) {
+        Context applicationContext = context.getApplicationContext();
+        if (applicationContext == null) {
+            applicationContext = context;
+        }
+        if (sContext != applicationContext) {
+            // a new application, only happens between tests
+            sCaches.clear();
+            sContext = applicationContext;
+            sContext.getContentResolver().registerContentObserver(
+                    Uri.parse("content://" + PreferenceProvider.AUTHORITY), true, new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            onChange(selfChange, null);
+                        }
+
+                        @Override
+                        public void onChange(boolean selfChange, Uri uri) {
+                            invalidate(uri);
+                        }
+                    });
+        }
+        PrefCache cache = sCaches.get(name);
+        if (cache == null) {
+            cache = new PrefCache();
+            sCaches.put(name, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Drop the key the uri names, the whole file when it only names the file, or
+     * everything when it names neither.
+     */
+    static void invalidate(Uri uri) {
+        List<String> segments = uri != null ? uri.getPathSegments() : null;
+        synchronized (PrefCache.class) {
+            if (segments != null && segments.size() == 3) {
+                PrefCache cache = sCaches.get(segments.get(1));
+                if (cache != null) {
+                    cache.invalidate(segments.get(2));
+                }
+            } else if (segments != null && segments.size() == 2) {
+                PrefCache cache = sCaches.get(segments.get(1));
+                if (cache != null) {
+                    cache.invalidateAll();
+                }
+            } else {
+                for (PrefCache cache : sCaches.values()) {
+                    cache.invalidateAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * The cached value read with the type, or null when it has to be read from the provider.
+     */
+    Entry get(String key, int type) {
+        Entry entry = mEntries.get(key);
+        return entry != null && entry.type == type ? entry : null;
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache what was read unless the key was invalidated since the generation was taken.
+     */
+    synchronized void put(String key, Entry entry, int generation) {
+        if (generation == mGeneration) {
+            mEntries.put(key, entry);
+        }
+    }
+
+    /**
+     * The snapshot of the whole file, or null when it has to be read from the provider.
+     */
+    PrefSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    synchronized void putSnapshot(PrefSnapshot snapshot, int generation) {
+        if (generation == mGeneration) {
+            mSnapshot = snapshot;
+        }
+    }
+
+    synchronized void invalidate(String key) {
+        mGeneration++;
+        mEntries.remove(key);
+        mSnapshot = null;
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+        mSnapshot = null;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * <!--
+ *   ~ Copyright (c) 2017. ThanksMister LLC
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License. 
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~ http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software distributed 
+ *   ~ under the License is distributed on an "AS IS" BASIS, 
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ *   ~ See the License for the specific language governing permissions and 
+ *   ~ limitations under the License.
+ *   -->
+ */
+
+package dpreference;
+
+import android.os.Bundle;
+
+/**
+ * Every value of a preference file as it was when read, so a group of options can be
+ * built from one provider call. Reading a key with another type than it was written
+ * with gives the default.
+ */
+public class PrefSnapshot {
+
+    private final Bundle mValues;
+
+    PrefSnapshot(Bundle values) {
+        mValues = values;
+    }
+
+    public boolean contains(final String key) {
+        return mValues.containsKey(key);
+    }
+
+    public String getPrefString(final String key, final String defaultValue) {
+        Object value = mValues.get(key);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+
+    public boolean getPrefBoolean(final String key, final boolean defaultValue) {
+        Object value = mValues.get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    public int getPrefInt(final String key, final int defaultValue) {
+        Object value = mValues.get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public long getPrefLong(final String key, final long defaultValue) {
+        Object value = mValues.get(key);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+}
@@ -20,6 +20,9 @@ package dpreference;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Bundle;
+
+import java.util.Map;
 
 /**
  * Created by wangyida on 15/12/18.
@@ -126,6 +129,57 @@ class PreferenceImpl implements IPrefImpl {
         prefs.edit().remove(key).apply();
     }
 
+    /**
+     * Apply every value in one edit, a null value removes the key.
+     */
+    public void putAll(final Bundle values) {
+        final SharedPreferences.Editor editor =
+                mContext.getSharedPreferences(mPrefName, Context.MODE_PRIVATE).edit();
+        for (String key : values.keySet()) {
+            Object value = values.get(key);
+            if (value == null) {
+                editor.remove(key);
+            } else if (value instanceof String) {
+                editor.putString(key, (String) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(key, (Integer) value);
+            } else if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            } else if (value instanceof Float) {
+                editor.putFloat(key, (Float) value);
+            } else {
+                throw new IllegalArgumentException("unsupported value for " + key + " : " + value);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * Every value of the file, string sets are left out.
+     */
+    public Bundle getAll() {
+        final Map<String, ?> all =
+                mContext.getSharedPreferences(mPrefName, Context.MODE_PRIVATE).getAll();
+        final Bundle values = new Bundle(all.size());
+        for (Map.Entry<String, ?> entry : all.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                values.putString(entry.getKey(), (String) value);
+            } else if (value instanceof Boolean) {
+                values.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof Integer) {
+                values.putInt(entry.getKey(), (Integer) value);
+            } else if (value instanceof Long) {
+                values.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Float) {
+                values.putFloat(entry.getKey(), (Float) value);
+            }
+        }
+        return values;
+    }
+
     public void clearPreference(final SharedPreferences p) {
         final SharedPreferences.Editor editor = p.edit();
         editor.clear();
@@ -24,6 +24,7 @@ import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.util.ArrayMap;
 import android.text.TextUtils;
@@ -37,12 +38,26 @@ public class PreferenceProvider extends ContentProvider {
 
     private static final String TAG = PreferenceProvider.class.getSimpleName();
 
-    private static final String AUTHORITY = "com.thanksmister.iot.mqtt.alarmpanel.dpreference.PreferenceProvider";
+    static final String AUTHORITY = "com.thanksmister.iot.mqtt.alarmpanel.dpreference.PreferenceProvider";
 
     public static final String CONTENT_PREF_BOOLEAN_URI = "content://" + AUTHORITY + "/boolean/";
     public static final String CONTENT_PREF_STRING_URI = "content://" + AUTHORITY + "/string/";
     public static final String CONTENT_PREF_INT_URI = "content://" + AUTHORITY + "/integer/";
     public static final String CONTENT_PREF_LONG_URI = "content://" + AUTHORITY + "/long/";
+    public static final String CONTENT_PREF_ALL_URI = "content://" + AUTHORITY + "/all/";
+    public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY);
+
+    /**
+     * Method for <code>call()</code> applying the values of the extras to the preference
+     * file named by the argument in one edit, null values remove their key.
+     */
+    public static final String METHOD_EDIT = "edit";
+
+    /**
+     * Method for <code>call()</code> returning every value of the preference file named by
+     * the argument.
+     */
+    public static final String METHOD_SNAPSHOT = "snapshot";
 
 
     public static final String PREF_KEY = "key";
@@ -99,6 +114,22 @@ public class PreferenceProvider extends ContentProvider {
         return cursor;
     }
 
+    @Nullable
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (METHOD_EDIT.equals(method)) {
+            if (extras == null) {
+                throw new IllegalArgumentException(" values is null!!!");
+            }
+            getDPreference(arg).putAll(extras);
+            notifyChange(Uri.parse(CONTENT_PREF_ALL_URI + arg));
+            return null;
+        } else if (METHOD_SNAPSHOT.equals(method)) {
+            return getDPreference(arg).getAll();
+        }
+        return super.call(method, arg, extras);
+    }
+
     @Nullable
     @Override
     public String getType(Uri uri) {
@@ -121,6 +152,7 @@ public class PreferenceProvider extends ContentProvider {
                 PrefModel model = getPrefModelByUri(uri);
                 if (model != null) {
                     getDPreference(model.getName()).removePreference(model.getKey());
+                    notifyChange(uri);
                 }
                 break;
             default:
@@ -151,9 +183,19 @@ public class PreferenceProvider extends ContentProvider {
             default:
                 throw new IllegalStateException("update unsupported uri : " + uri);
         }
+        notifyChange(uri);
         return 0;
     }
 
+    /**
+     * Tells the caches of every process the key changed.
+     */
+    private void notifyChange(Uri uri) {
+        if (getContext() != null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     private static String[] PREFERENCE_COLUMNS = {PREF_VALUE};
 
     private <T> MatrixCursor preferenceToCursor(T value) {
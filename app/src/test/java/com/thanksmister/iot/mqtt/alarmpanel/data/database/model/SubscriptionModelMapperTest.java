@@ -0,0 +1,137 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.database.model;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.Db;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Mapper results and a comparison with looking up every column of every row, rows per
+ * second and bytes allocated per row are printed for each way of reading.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class SubscriptionModelMapperTest {
+
+    private static final int ROWS = 100000;
+    private static final int ROUNDS = 5;
+
+    // the order of a "SELECT *" is not the order the mapper asks for
+    private static final String[] COLUMNS = {
+            SubscriptionModel.CREATED_AT, SubscriptionModel.PAYLOAD, SubscriptionModel._ID,
+            SubscriptionModel.MESSAGE_ID, SubscriptionModel.TOPIC};
+
+    @Test
+    public void readsRowsWhateverTheColumnOrder() {
+        MatrixCursor cursor = createCursor(3);
+        SubscriptionModel.Mapper mapper = new SubscriptionModel.Mapper();
+        SubscriptionModel.Row row = new SubscriptionModel.Row();
+        long created = 0;
+        while (cursor.moveToNext()) {
+            assertSame(row, mapper.read(cursor, row));
+            assertEquals(cursor.getPosition() + 1, row.id());
+            assertEquals("home/door", row.topic());
+            assertEquals("payload " + row.id(), row.payload());
+            assertEquals(String.valueOf(row.id()), row.messageId());
+            assertEquals(1000 * row.id(), row.createdAt());
+            created += row.createdAt();
+        }
+        assertEquals(6000, created);
+
+        cursor.moveToPosition(-1);
+        assertEquals(3, mapper.readList(cursor).size());
+        assertEquals(0, mapper.readList(null).size());
+    }
+
+    @Test
+    public void benchmark() {
+        MatrixCursor cursor = createCursor(ROWS);
+        for (int i = 0; i < ROUNDS; i++) {
+            boolean print = i == ROUNDS - 1;
+            measure("column names", cursor, new Reader() {
+                @Override
+                public long read(Cursor cursor) {
+                    long sum = 0;
+                    while (cursor.moveToNext()) {
+                        // what getModel did before the mapper
+                        SubscriptionModel model = new AutoParcel_SubscriptionModel(
+                                Db.getLong(cursor, SubscriptionModel._ID),
+                                Db.getString(cursor, SubscriptionModel.TOPIC),
+                                Db.getString(cursor, SubscriptionModel.PAYLOAD),
+                                Db.getString(cursor, SubscriptionModel.MESSAGE_ID),
+                                Db.getLong(cursor, SubscriptionModel.CREATED_AT));
+                        sum += model.createdAt();
+                    }
+                    return sum;
+                }
+            }, print);
+            measure("mapper", cursor, new Reader() {
+                @Override
+                public long read(Cursor cursor) {
+                    List<SubscriptionModel> list = new SubscriptionModel.Mapper().readList(cursor);
+                    return list.size();
+                }
+            }, print);
+            measure("reused row", cursor, new Reader() {
+                @Override
+                public long read(Cursor cursor) {
+                    SubscriptionModel.Mapper mapper = new SubscriptionModel.Mapper();
+                    SubscriptionModel.Row row = new SubscriptionModel.Row();
+                    long sum = 0;
+                    while (cursor.moveToNext()) {
+                        sum += mapper.read(cursor, row).createdAt();
+                    }
+                    return sum;
+                }
+            }, print);
+        }
+    }
+
+    private static void measure(String name, Cursor cursor, Reader reader, boolean print) {
+        cursor.moveToPosition(-1);
+        long bytes = getAllocatedBytes();
+        long start = System.nanoTime();
+        reader.read(cursor);
+        long nanos = System.nanoTime() - start;
+        bytes = getAllocatedBytes() - bytes;
+        if (print) {
+            System.out.println(name + ": " + (ROWS * 1000000000L / Math.max(1, nanos)) + " rows/s, "
+                    + (bytes < 0 ? "?" : String.valueOf(bytes / ROWS)) + " bytes/row");
+        }
+    }
+
+    /**
+     * Bytes allocated by this thread so far, -1 when the VM doesn't count them.
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static MatrixCursor createCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, rows);
+        for (long id = 1; id <= rows; id++) {
+            cursor.addRow(new Object[]{1000 * id, "payload " + id, id, String.valueOf(id), "home/door"});
+        }
+        return cursor;
+    }
+
+    private interface Reader {
+        long read(Cursor cursor);
+    }
+}
@@ -0,0 +1,165 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.journal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventJournalTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    private static final int BENCHMARK_EVENTS = 500000;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "event_journal_test_" + System.nanoTime());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsBackAcrossSegmentsAndReopens() throws Exception {
+        EventJournal journal = new EventJournal(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 10000; i++) {
+            journal.append(i, "home/sensor/" + (i % 3), ("value " + i).getBytes(UTF8));
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        long end = journal.getEnd();
+        journal.close();
+
+        journal = new EventJournal(directory, SEGMENT_SIZE);
+        assertEquals(end, journal.getEnd());
+        journal.append(10000, "home/sensor/0", "value 10000".getBytes(UTF8));
+        assertCount(journal, 0, 10001);
+
+        // a reader starts where the last one stopped
+        EventJournal.Reader reader = journal.read(0);
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(reader.next());
+        }
+        assertEquals(4999, reader.getTimestamp());
+        assertEquals("home/sensor/" + (4999 % 3), reader.getTopic());
+        assertArrayEquals("value 4999".getBytes(UTF8), reader.copyPayload());
+        assertCount(journal, reader.getPosition(), 5001);
+        journal.close();
+    }
+
+    @Test
+    public void truncatesDamagedTail() throws Exception {
+        EventJournal journal = new EventJournal(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 10; i++) {
+            journal.append(i, "home/door", "open".getBytes(UTF8));
+        }
+        long end = journal.getEnd();
+        journal.close();
+
+        // a record cut short, its length is written but the crc doesn't match
+        RandomAccessFile file = new RandomAccessFile(new File(directory, "segment-00000000"), "rw");
+        file.seek(EventJournal.offsetOf(end));
+        file.writeInt(EventJournal.HEADER_SIZE + 4);
+        file.writeInt(12345);
+        file.close();
+        // and a topic cut short
+        RandomAccessFile topics = new RandomAccessFile(new File(directory, "topics"), "rw");
+        topics.seek(topics.length());
+        topics.writeShort(100);
+        topics.write("home".getBytes(UTF8));
+        topics.close();
+
+        journal = new EventJournal(directory, SEGMENT_SIZE);
+        assertEquals(end, journal.getEnd());
+        journal.append(10, "home/window", "closed".getBytes(UTF8));
+        assertCount(journal, 0, 11);
+        journal.close();
+
+        journal = new EventJournal(directory, SEGMENT_SIZE);
+        EventJournal.Reader reader = journal.read(end);
+        assertTrue(reader.next());
+        assertEquals("home/window", reader.getTopic());
+        assertFalse(reader.next());
+        journal.close();
+    }
+
+    @Test
+    public void deletesOldSegments() throws Exception {
+        EventJournal journal = new EventJournal(directory, SEGMENT_SIZE);
+        byte[] payload = new byte[1000];
+        for (int i = 0; i < 300; i++) {
+            journal.append(i, "home/camera", payload);
+        }
+        int segments = journal.getSegmentCount();
+        assertEquals(segments - 1, journal.deleteSegmentsBefore(Integer.MAX_VALUE));
+        assertEquals(1, journal.getSegmentCount());
+        // reading from the start skips what was deleted
+        EventJournal.Reader reader = journal.read(0);
+        assertTrue(reader.next());
+        assertTrue(reader.getTimestamp() > 0);
+        journal.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPayloadLargerThanSegment() throws Exception {
+        new EventJournal(directory, SEGMENT_SIZE).append(0, "home/camera", new byte[SEGMENT_SIZE]);
+    }
+
+    @Test
+    public void appendsFiftyThousandEventsPerSecond() throws Exception {
+        EventJournal journal = new EventJournal(directory, EventJournal.DEFAULT_SEGMENT_SIZE);
+        String[] topics = new String[50];
+        for (int i = 0; i < topics.length; i++) {
+            topics[i] = "home/sensor/" + i + "/temperature";
+        }
+        byte[] payload = "{\"temperature\":21.5,\"humidity\":40}".getBytes(UTF8);
+        // warm up
+        for (int i = 0; i < 10000; i++) {
+            journal.append(i, topics[i % topics.length], payload);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_EVENTS; i++) {
+            journal.append(i, topics[i % topics.length], payload);
+        }
+        journal.sync();
+        long nanos = System.nanoTime() - start;
+        long rate = BENCHMARK_EVENTS * 1000000000L / nanos;
+
+        start = System.nanoTime();
+        long read = assertCount(journal, 0, BENCHMARK_EVENTS + 10000);
+        long readRate = read * 1000000000L / (System.nanoTime() - start);
+        System.out.println("event journal: " + rate + " appends/s including sync, " + readRate + " reads/s, "
+                + journal.getSegmentCount() + " segments");
+        journal.close();
+        assertTrue("only " + rate + " events/s", rate >= 50000);
+    }
+
+    private static long assertCount(EventJournal journal, long from, long expected) throws IOException {
+        EventJournal.Reader reader = journal.read(from);
+        long count = 0;
+        while (reader.next()) {
+            count++;
+        }
+        assertEquals(expected, count);
+        assertEquals(journal.getEnd(), reader.getPosition());
+        return count;
+    }
+}
@@ -0,0 +1,72 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class EventCountQueryTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final TimeZone LOS_ANGELES = TimeZone.getTimeZone("America/Los_Angeles");
+
+    @Test
+    public void shortRangeUsesHours() {
+        long from = time(LOS_ANGELES, 2017, Calendar.OCTOBER, 1, 9, 15);
+        long to = time(LOS_ANGELES, 2017, Calendar.OCTOBER, 1, 17, 45);
+        EventCountQuery query = new EventCountQuery("home/alarm", from, to, LOS_ANGELES);
+
+        // widened to whole hours
+        assertEquals(from - 15 * 60 * 1000, query.getFrom());
+        assertEquals(to + 15 * 60 * 1000, query.getTo());
+        assertEquals(9, query.getMaxBuckets());
+        assertEquals("topic = ? AND (resolution = " + HOUR + " AND bucket >= ? AND bucket < ?)", query.getSelection());
+        assertArrayEquals(new String[]{"home/alarm", String.valueOf(query.getFrom()), String.valueOf(query.getTo())},
+                query.getSelectionArgs());
+    }
+
+    @Test
+    public void longRangeUsesDaysAndEdgeHours() {
+        long from = time(LOS_ANGELES, 2017, Calendar.OCTOBER, 1, 20, 0);
+        long to = time(LOS_ANGELES, 2017, Calendar.OCTOBER, 31, 6, 0);
+        EventCountQuery query = new EventCountQuery(null, from, to, LOS_ANGELES);
+
+        assertEquals(time(LOS_ANGELES, 2017, Calendar.OCTOBER, 2, 0, 0), query.getDayStart());
+        assertEquals(time(LOS_ANGELES, 2017, Calendar.OCTOBER, 31, 0, 0), query.getDayEnd());
+        // 29 days, 4 hours before and 6 after
+        assertEquals(29 + 4 + 6, query.getMaxBuckets());
+        assertEquals(6, query.getSelectionArgs().length);
+    }
+
+    @Test
+    public void daylightSavingDayIsOneBucket() {
+        long from = time(LOS_ANGELES, 2017, Calendar.NOVEMBER, 5, 0, 0);
+        long to = time(LOS_ANGELES, 2017, Calendar.NOVEMBER, 6, 0, 0);
+        EventCountQuery query = new EventCountQuery(null, from, to, LOS_ANGELES);
+
+        assertEquals(25 * HOUR, query.getDayEnd() - query.getDayStart());
+        assertEquals(1, query.getMaxBuckets());
+    }
+
+    @Test
+    public void daysOffTheHourFallBackToHours() {
+        TimeZone kolkata = TimeZone.getTimeZone("Asia/Kolkata");
+        long from = time(kolkata, 2017, Calendar.OCTOBER, 1, 0, 0);
+        long to = time(kolkata, 2017, Calendar.OCTOBER, 4, 0, 0);
+        EventCountQuery query = new EventCountQuery(null, from, to, kolkata);
+
+        assertEquals(query.getTo(), query.getDayStart());
+        assertEquals(query.getDayStart(), query.getDayEnd());
+        assertEquals(3 * 24 + 1, query.getMaxBuckets());
+    }
+
+    private static long time(TimeZone timeZone, int year, int month, int day, int hour, int minute) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,142 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig;
+import com.thanksmister.iot.mqtt.alarmpanel.data.database.model.SubscriptionModel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The archive line format, and rows per second through the gzip'd format both ways.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class SubscriptionArchiveTest {
+
+    private static final int ROWS = 200000;
+
+    @Test
+    public void writesOneObjectPerLine() throws Exception {
+        MatrixCursor cursor = new MatrixCursor(SubscriptionModel.COLUMN_NAMES);
+        addRow(cursor, 1, "home/door", "{\"state\": \"open\"}\n", null, 1000);
+        addRow(cursor, 2, "home/\u00e9t\u00e9", "armed_away", "7", 2000);
+
+        StringWriter writer = new StringWriter();
+        write(cursor, writer);
+        String[] lines = writer.toString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("{\"topic\":\"home/door\",\"payload\":\"{\\\"state\\\": \\\"open\\\"}\\n\","
+                + "\"messageId\":null,\"createdAt\":1000}", lines[0]);
+        assertEquals("{\"topic\":\"home/\u00e9t\u00e9\",\"payload\":\"armed_away\",\"messageId\":\"7\","
+                + "\"createdAt\":2000}", lines[1]);
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws Exception {
+        MatrixCursor cursor = new MatrixCursor(SubscriptionModel.COLUMN_NAMES);
+        addRow(cursor, 1, "home/door", "{\"state\": \"open\"}\n", null, 1000);
+        addRow(cursor, 2, "home/\u00e9t\u00e9", "armed_away", "7", 2000);
+        StringWriter writer = new StringWriter();
+        write(cursor, writer);
+
+        JsonReader reader = SubscriptionArchive.newJsonReader(new StringReader(writer.toString()));
+        ContentValues values = new ContentValues();
+        assertTrue(SubscriptionArchive.readRow(reader, values));
+        assertEquals("home/door", values.getAsString(SubscriptionModel.TOPIC));
+        assertEquals("{\"state\": \"open\"}\n", values.getAsString(SubscriptionModel.PAYLOAD));
+        assertNull(values.getAsString(SubscriptionModel.MESSAGE_ID));
+        assertEquals(Long.valueOf(1000), values.getAsLong(SubscriptionModel.CREATED_AT));
+
+        values = new ContentValues();
+        assertTrue(SubscriptionArchive.readRow(reader, values));
+        assertEquals("home/\u00e9t\u00e9", values.getAsString(SubscriptionModel.TOPIC));
+        assertEquals("7", values.getAsString(SubscriptionModel.MESSAGE_ID));
+        assertEquals(Long.valueOf(2000), values.getAsLong(SubscriptionModel.CREATED_AT));
+        assertFalse(SubscriptionArchive.readRow(reader, new ContentValues()));
+    }
+
+    @Test
+    public void skipsUnknownFields() throws Exception {
+        String line = "{\"id\":5,\"topic\":\"home/door\",\"extra\":{\"a\":[1,2]},\"payload\":\"triggered\","
+                + "\"createdAt\":3000}\n";
+        JsonReader reader = SubscriptionArchive.newJsonReader(new StringReader(line));
+        ContentValues values = new ContentValues();
+        assertTrue(SubscriptionArchive.readRow(reader, values));
+        assertEquals(3, values.size());
+        assertEquals("triggered", values.getAsString(SubscriptionModel.PAYLOAD));
+        assertFalse(SubscriptionArchive.readRow(reader, new ContentValues()));
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        MatrixCursor cursor = new MatrixCursor(SubscriptionModel.COLUMN_NAMES, ROWS);
+        for (int i = 1; i <= ROWS; i++) {
+            addRow(cursor, i, "home/sensor/" + (i % 20), i % 100 == 0 ? "triggered" : "{\"value\": " + i + "}",
+                    String.valueOf(i), 1500000000000L + i * 1000L);
+        }
+
+        long start = System.nanoTime();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(new GZIPOutputStream(outputStream, 64 * 1024), "UTF-8");
+        write(cursor, writer);
+        writer.close();
+        long exportTime = System.nanoTime() - start;
+        byte[] bytes = outputStream.toByteArray();
+
+        start = System.nanoTime();
+        JsonReader reader = SubscriptionArchive.newJsonReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(bytes), 64 * 1024), "UTF-8"));
+        int rows = 0;
+        while (SubscriptionArchive.readRow(reader, new ContentValues())) {
+            rows++;
+        }
+        long importTime = System.nanoTime() - start;
+
+        assertEquals(ROWS, rows);
+        System.out.println("archive: " + ROWS * 1000000000L / exportTime + " rows/s written, "
+                + ROWS * 1000000000L / importTime + " rows/s read, "
+                + bytes.length / ROWS + " bytes/row compressed");
+    }
+
+    private static void write(MatrixCursor cursor, Writer writer) throws Exception {
+        JsonWriter jsonWriter = SubscriptionArchive.newJsonWriter(writer);
+        SubscriptionModel.Mapper mapper = new SubscriptionModel.Mapper();
+        SubscriptionModel.Row row = new SubscriptionModel.Row();
+        while (cursor.moveToNext()) {
+            SubscriptionArchive.writeRow(jsonWriter, writer, mapper.read(cursor, row));
+        }
+        writer.flush();
+    }
+
+    private static void addRow(MatrixCursor cursor, long id, String topic, String payload, String messageId,
+                               long createdAt) {
+        cursor.newRow()
+                .add(SubscriptionModel._ID, id)
+                .add(SubscriptionModel.TOPIC, topic)
+                .add(SubscriptionModel.PAYLOAD, payload)
+                .add(SubscriptionModel.MESSAGE_ID, messageId)
+                .add(SubscriptionModel.CREATED_AT, createdAt);
+    }
+}
@@ -0,0 +1,40 @@
+package com.thanksmister.iot.mqtt.alarmpanel.data.stores;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SubscriptionSearchTest {
+
+    @Test
+    public void emptySearchMatchesEverything() {
+        SubscriptionSearch search = new SubscriptionSearch();
+        assertNull(search.getSelection());
+        assertEquals(0, search.getSelectionArgs().length);
+    }
+
+    @Test
+    public void payloadWordsBecomePrefixTerms() {
+        SubscriptionSearch search = new SubscriptionSearch().payload("Armed \"home\" OR *");
+        assertEquals("payload:armed* payload:home* payload:or*", search.getMatchQuery());
+
+        search.payload("  ");
+        assertNull(search.getSelection());
+    }
+
+    @Test
+    public void combinesFiltersInArgumentOrder() {
+        SubscriptionSearch search = new SubscriptionSearch()
+                .payload("triggered")
+                .topicPrefix("home/")
+                .from(1000)
+                .to(2000);
+
+        assertEquals("(_id IN (SELECT docid FROM mqtt_subscription_search WHERE mqtt_subscription_search MATCH ?))"
+                + " AND (topic >= ? AND topic < ?) AND (created_at >= ?) AND (created_at < ?)", search.getSelection());
+        assertArrayEquals(new String[]{"payload:triggered*", "home/", "home/\uffff", "1000", "2000"},
+                search.getSelectionArgs());
+    }
+}
@@ -0,0 +1,33 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BrokerProberTest {
+
+    @Test
+    public void reachableBrokersComeFirst() throws Exception {
+        ServerSocket closed = new ServerSocket(0);
+        int closedPort = closed.getLocalPort();
+        closed.close();
+        ServerSocket broker = new ServerSocket(0);
+        try {
+            String dead = "tcp://127.0.0.1:" + closedPort;
+            String alive = "tcp://127.0.0.1:" + broker.getLocalPort();
+            List<BrokerProber.Result> results = new BrokerProber().probe(Arrays.asList(dead, alive));
+            assertEquals(alive, results.get(0).getServerUri());
+            assertTrue(results.get(0).isReachable());
+            assertEquals(dead, results.get(1).getServerUri());
+            assertFalse(results.get(1).isReachable());
+        } finally {
+            broker.close();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        for (long millis = 0; millis < 70000; millis++) {
+            int bucket = LatencyHistogram.bucketFor(millis);
+            assertTrue(millis <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(millis > LatencyHistogram.upperBound(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(-1, histogram.getP50());
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(100, histogram.getMax());
+        long p50 = histogram.getP50();
+        long p99 = histogram.getP99();
+        assertTrue(p50 >= 50 && p50 <= 63);
+        assertTrue(p99 >= 99 && p99 <= 100);
+    }
+}
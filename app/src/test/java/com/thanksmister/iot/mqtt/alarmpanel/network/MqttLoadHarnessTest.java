@@ -0,0 +1,395 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.view.Choreographer;
+
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig;
+import com.thanksmister.iot.mqtt.alarmpanel.network.model.SubscriptionData;
+import com.thanksmister.iot.mqtt.alarmpanel.ui.StateDispatcher;
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils;
+
+import org.eclipse.paho.android.service.MqttService;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dpreference.DPreference;
+import dpreference.PreferenceProvider;
+import io.moquette.server.Server;
+import io.moquette.server.config.MemoryConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Floods an embedded Moquette broker on localhost and measures how fast {@link MQTTService}
+ * and the {@link StateDispatcher} get states to the UI. Frames are simulated by running the
+ * main looper on the test thread. The flood runs once over the Paho service transport, where
+ * messages reach us as broadcasts on the main thread, and once over
+ * {@link InProcessMqttTransport}, and the latencies of both are reported side by side. A
+ * second test times the {@link CommandJournal}, appending while the broker is down and
+ * replaying once it is back.
+ *
+ * <p>The load is set with system properties, for example
+ * <code>./gradlew testDevDebugUnitTest --tests '*MqttLoadHarnessTest' -Dharness.messages=100000 -Dharness.rate=5000</code>.
+ * The defaults keep the test quick enough for every build.</p>
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25, application = Application.class)
+public class MqttLoadHarnessTest {
+
+    private static final String PREFERENCES_AUTHORITY = "com.thanksmister.iot.mqtt.alarmpanel.dpreference.PreferenceProvider";
+    private static final String STATE_TOPIC = "harness/alarm/state";
+    private static final String COMMAND_TOPIC = "harness/alarm/set";
+    private static final String SENSOR_TOPIC = "harness/sensors/";
+    private static final long FRAME_TIME = 16; // milliseconds
+    private static final long TIMEOUT = 60 * 1000; // 1 minute
+
+    // states cycled by the flood, consecutive states differ so only rate causes coalescing
+    private static final String[] STATES = {AlarmUtils.STATE_DISARM, AlarmUtils.STATE_PENDING,
+            AlarmUtils.STATE_ARM_AWAY, AlarmUtils.STATE_TRIGGERED, AlarmUtils.STATE_ARM_HOME};
+
+    private final int messageCount = Integer.getInteger("harness.messages", 2000);
+    private final int rate = Integer.getInteger("harness.rate", 1000); // messages per second, 0 for no limit
+    private final int payloadSize = Integer.getInteger("harness.payloadSize", 256); // sensor payload bytes
+    private final int sensorRatio = Integer.getInteger("harness.sensorRatio", 4); // sensor messages per state
+    private final int commandCount = Integer.getInteger("harness.commands", 50);
+    // commands typed while the broker is down, more than the journal keeps are dropped
+    private final int replayCount = Math.min(CommandJournal.MAX_PENDING_COMMANDS,
+            Integer.getInteger("harness.replayCommands", CommandJournal.MAX_PENDING_COMMANDS));
+
+    // latencies of each transport, printed together once both ran
+    private static final Map<String, String> results = new LinkedHashMap<>();
+
+    private final String transport;
+    private final boolean inProcess;
+
+    private Server broker;
+    private Properties brokerProperties;
+    private File brokerStore;
+    private MQTTService mqttService;
+    private StateDispatcher stateDispatcher;
+    private MqttAsyncClient publisher;
+    private final ConcurrentHashMap<String, Long> arrivals = new ConcurrentHashMap<>();
+    private final LatencyHistogram stateLatency = new LatencyHistogram();
+    private final AtomicLong sensorMessages = new AtomicLong();
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> transports() {
+        return Arrays.asList(new Object[][]{{"service", false}, {"in-process", true}});
+    }
+
+    public MqttLoadHarnessTest(String transport, boolean inProcess) {
+        this.transport = transport;
+        this.inProcess = inProcess;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        int port = getFreePort();
+        brokerStore = File.createTempFile("moquette", ".mapdb");
+        brokerProperties = new Properties();
+        brokerProperties.setProperty("host", "127.0.0.1");
+        brokerProperties.setProperty("port", String.valueOf(port));
+        brokerProperties.setProperty("websocket_port", "disabled");
+        brokerProperties.setProperty("persistent_store", brokerStore.getAbsolutePath());
+        brokerProperties.setProperty("allow_anonymous", "true");
+        broker = new Server();
+        broker.startServer(new MemoryConfig(brokerProperties));
+
+        Robolectric.setupContentProvider(PreferenceProvider.class, PREFERENCES_AUTHORITY);
+        DPreference preferences = new DPreference(RuntimeEnvironment.application, "harness_preferences");
+        preferences.setPrefString(MQTTOptions.PREF_BROKER, "127.0.0.1");
+        preferences.setPrefInt(MQTTOptions.PREF_PORT, port);
+        preferences.setPrefString(MQTTOptions.PREF_CLIENT_ID, "harness-panel");
+        preferences.setPrefString(MQTTOptions.PREF_STATE_TOPIC, STATE_TOPIC);
+        preferences.setPrefString(MQTTOptions.PREF_COMMAND_TOPIC, COMMAND_TOPIC);
+        preferences.setPrefBoolean(MQTTOptions.PREF_IN_PROCESS_TRANSPORT, inProcess);
+        if (!inProcess) {
+            // the Paho client binds to its service, hand it a real one
+            MqttService service = Robolectric.setupService(MqttService.class);
+            ShadowApplication.getInstance().setComponentNameAndServiceForBindService(
+                    new ComponentName(RuntimeEnvironment.application, MqttService.class),
+                    service.onBind(new Intent()));
+        }
+        MqttMetrics.getInstance().getPublishLatency().reset();
+
+        // the main looper only runs when the test thread simulates a frame
+        ShadowLooper.pauseMainLooper();
+        stateDispatcher = new StateDispatcher(Choreographer.getInstance(), new StateDispatcher.Listener() {
+            @Override
+            public void onPersist(SubscriptionData data) {
+            }
+
+            @Override
+            public void onStateChange(String topic, String state) {
+                Long arrival = arrivals.remove(state);
+                if (arrival != null) {
+                    stateLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - arrival));
+                }
+            }
+        });
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        mqttService = new MQTTService(RuntimeEnvironment.application, MQTTOptions.from(preferences), new MQTTService.MqttManagerListener() {
+            @Override
+            public void subscriptionMessage(String topic, String payload, String id) {
+                // the oldest arrival folded into a delivered state gives the worst case latency
+                arrivals.putIfAbsent(payload, System.nanoTime());
+                stateDispatcher.post(topic, payload, id);
+            }
+
+            @Override
+            public void handleMqttException(String errorMessage) {
+            }
+
+            @Override
+            public void handleMqttDisconnected() {
+            }
+        });
+        mqttService.addConnectionListener(new MqttConnectionManager.ConnectionListener() {
+            @Override
+            public void onConnectionStateChanged(MqttConnectionManager.ConnectionState state) {
+                if (state == MqttConnectionManager.ConnectionState.CONNECTED) {
+                    connected.countDown();
+                }
+            }
+        });
+        mqttService.addSubscription(SENSOR_TOPIC + "#", new TopicRouter.Handler() {
+            @Override
+            public void onMessage(String topic, MqttMessage message) {
+                sensorMessages.incrementAndGet();
+            }
+        });
+        // the service transport binds and reports back on the main looper
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (!mqttService.isConnected() && !connected.await(FRAME_TIME, TimeUnit.MILLISECONDS)
+                && System.currentTimeMillis() < deadline) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+        assertTrue("Panel didn't connect", mqttService.isConnected() || connected.getCount() == 0);
+
+        publisher = new MqttAsyncClient("tcp://127.0.0.1:" + port, "harness-publisher", new MemoryPersistence());
+        publisher.connect().waitForCompletion(10 * 1000);
+        warmUp();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (publisher != null) {
+            if (publisher.isConnected()) {
+                publisher.disconnectForcibly();
+            }
+            publisher.close();
+        }
+        if (mqttService != null) {
+            mqttService.close();
+        }
+        if (stateDispatcher != null) {
+            stateDispatcher.release();
+        }
+        if (broker != null) {
+            broker.stopServer();
+        }
+        if (brokerStore != null) {
+            brokerStore.delete();
+        }
+    }
+
+    @Test
+    public void floodStateAndSensorTopics() throws Exception {
+        byte[] sensorPayload = new byte[payloadSize];
+        Arrays.fill(sensorPayload, (byte) 'x');
+        long received = stateDispatcher.getReceivedCount();
+        long sensors = sensorMessages.get();
+
+        long start = System.nanoTime();
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+        long nextFrame = System.currentTimeMillis() + FRAME_TIME;
+        int sensorCount = 0;
+        for (int i = 0; i < messageCount; i++) {
+            if (sensorRatio > 0 && i % (sensorRatio + 1) != 0) {
+                publisher.publish(SENSOR_TOPIC + (i % 100) + "/value", sensorPayload, 0, false);
+                sensorCount++;
+            } else {
+                publisher.publish(STATE_TOPIC, STATES[i % STATES.length].getBytes(), 0, false);
+            }
+            if (interval > 0) {
+                long due = start + interval * (i + 1);
+                while (System.nanoTime() < due) {
+                    // spin, sleeping is too coarse for the rates we want
+                }
+            }
+            if (System.currentTimeMillis() >= nextFrame) {
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+                nextFrame += FRAME_TIME;
+            }
+        }
+        int stateCount = messageCount - sensorCount;
+
+        // keep drawing frames until everything arrived or we give up
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while ((stateDispatcher.getReceivedCount() - received < stateCount || sensorMessages.get() - sensors < sensorCount)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(FRAME_TIME);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // commands are sent one at a time like a user would, each waits for its ack
+        DeliveryTracker tracker = MqttMetrics.getInstance().getDeliveryTracker();
+        long delivered = tracker.getDeliveredCount();
+        long commandStart = System.nanoTime();
+        deadline = System.currentTimeMillis() + TIMEOUT;
+        for (int i = 0; i < commandCount && System.currentTimeMillis() < deadline; i++) {
+            mqttService.publish(i % 2 == 0 ? AlarmUtils.COMMAND_ARM_AWAY : AlarmUtils.COMMAND_DISARM);
+            while (tracker.getDeliveredCount() - delivered <= i && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+                ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            }
+        }
+        long commandElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - commandStart);
+
+        LatencyHistogram ackLatency = MqttMetrics.getInstance().getPublishLatency();
+        System.out.println("MQTT load harness, " + transport + " transport");
+        System.out.println("  messages: " + messageCount + " (" + stateCount + " states, " + sensorCount
+                + " sensor payloads of " + payloadSize + " bytes) rate: " + (rate > 0 ? rate + "/s" : "unlimited"));
+        System.out.println("  elapsed: " + elapsed + " ms, throughput: " + (messageCount * 1000L / Math.max(1, elapsed)) + " msg/s");
+        System.out.println("  states received: " + (stateDispatcher.getReceivedCount() - received)
+                + " coalesced: " + stateDispatcher.getCoalescedCount()
+                + " delivered: " + stateDispatcher.getDeliveredCount());
+        System.out.println("  arrival to handleStateChange: p50 " + stateLatency.getP50() + " ms p99 "
+                + stateLatency.getP99() + " ms max " + stateLatency.getMax() + " ms");
+        System.out.println("  commands: " + commandCount + " in " + commandElapsed + " ms, ack p50 "
+                + ackLatency.getP50() + " ms p99 " + ackLatency.getP99() + " ms");
+
+        results.put(transport, "state p50 " + stateLatency.getP50() + " ms p99 " + stateLatency.getP99()
+                + " ms, ack p50 " + ackLatency.getP50() + " ms p99 " + ackLatency.getP99() + " ms, "
+                + (messageCount * 1000L / Math.max(1, elapsed)) + " msg/s");
+
+        assertEquals(stateCount, stateDispatcher.getReceivedCount() - received);
+        assertEquals(sensorCount, sensorMessages.get() - sensors);
+        assertEquals(commandCount, tracker.getDeliveredCount() - delivered);
+    }
+
+    /**
+     * Commands typed while the broker is down only go to the journal, the time publish takes
+     * is what the keypad waits for. Once the broker is back they are replayed, timed from the
+     * reconnect to the last delivery.
+     */
+    @Test
+    public void replayJournaledCommands() throws Exception {
+        final CountDownLatch lost = new CountDownLatch(1);
+        final AtomicLong connectedAt = new AtomicLong();
+        mqttService.addConnectionListener(new MqttConnectionManager.ConnectionListener() {
+            @Override
+            public void onConnectionStateChanged(MqttConnectionManager.ConnectionState state) {
+                if (state == MqttConnectionManager.ConnectionState.DISCONNECTED) {
+                    lost.countDown();
+                } else if (state == MqttConnectionManager.ConnectionState.CONNECTED) {
+                    connectedAt.set(System.nanoTime());
+                }
+            }
+        });
+        broker.stopServer();
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (!lost.await(FRAME_TIME, TimeUnit.MILLISECONDS) && System.currentTimeMillis() < deadline) {
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+        assertEquals("Panel didn't notice the broker going away", 0, lost.getCount());
+
+        long[] appendTimes = new long[replayCount];
+        for (int i = 0; i < replayCount; i++) {
+            long start = System.nanoTime();
+            mqttService.publish(i % 2 == 0 ? AlarmUtils.COMMAND_ARM_AWAY : AlarmUtils.COMMAND_DISARM);
+            appendTimes[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(appendTimes);
+
+        DeliveryTracker tracker = MqttMetrics.getInstance().getDeliveryTracker();
+        long delivered = tracker.getDeliveredCount();
+        connectedAt.set(0);
+        broker = new Server();
+        broker.startServer(new MemoryConfig(brokerProperties));
+        deadline = System.currentTimeMillis() + TIMEOUT;
+        while (tracker.getDeliveredCount() - delivered < replayCount && System.currentTimeMillis() < deadline) {
+            if (connectedAt.get() == 0) {
+                // skip the backoff, a retry may already be under way
+                mqttService.reconnect();
+            }
+            Thread.sleep(1);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+        long replayElapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - connectedAt.get());
+
+        System.out.println("Command journal replay, " + transport + " transport");
+        System.out.println("  append while disconnected: p50 " + TimeUnit.NANOSECONDS.toMicros(appendTimes[replayCount / 2])
+                + " us p99 " + TimeUnit.NANOSECONDS.toMicros(appendTimes[(replayCount * 99 - 1) / 100])
+                + " us max " + TimeUnit.NANOSECONDS.toMicros(appendTimes[replayCount - 1]) + " us");
+        System.out.println("  replayed: " + (tracker.getDeliveredCount() - delivered) + " of " + replayCount
+                + " in " + replayElapsed / 1000 + " ms after reconnecting ("
+                + (replayCount * 1000000L / Math.max(1, replayElapsed)) + " commands/s)");
+
+        // at-least-once, a command left in flight when the broker went away is sent again
+        assertTrue(tracker.getDeliveredCount() - delivered >= replayCount);
+    }
+
+    @AfterClass
+    public static void printResults() {
+        System.out.println("MQTT load harness by transport");
+        for (Map.Entry<String, String> result : results.entrySet()) {
+            System.out.println("  " + result.getKey() + ": " + result.getValue());
+        }
+    }
+
+    /**
+     * Subscriptions are made once connected, publish until the first state makes it through.
+     */
+    private void warmUp() throws Exception {
+        long deadline = System.currentTimeMillis() + 10 * 1000;
+        while (stateDispatcher.getReceivedCount() == 0 && System.currentTimeMillis() < deadline) {
+            publisher.publish(STATE_TOPIC, AlarmUtils.STATE_DISARM.getBytes(), 0, false);
+            Thread.sleep(100);
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+        assertTrue("No state received", stateDispatcher.getReceivedCount() > 0);
+        ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        arrivals.clear();
+        stateLatency.reset();
+    }
+
+    private static int getFreePort() throws Exception {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
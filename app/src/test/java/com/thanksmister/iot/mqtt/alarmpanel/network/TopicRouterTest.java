@@ -0,0 +1,157 @@
+package com.thanksmister.iot.mqtt.alarmpanel.network;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Routing rules, and routes per second over 10k subscriptions against checking every filter
+ * in turn, printed by the benchmark.
+ */
+public class TopicRouterTest {
+
+    private static final int SUBSCRIPTIONS = 10000;
+    private static final int ROUTES = 200000;
+    private static final int SCAN_ROUTES = 200;
+    private static final int ROUNDS = 5;
+
+    private TopicRouter router;
+
+    @Before
+    public void setUp() {
+        router = new TopicRouter();
+    }
+
+    @Test
+    public void routesWildcards() {
+        RecordingHandler exact = subscribe("home/alarm/state");
+        RecordingHandler single = subscribe("home/+/contact");
+        RecordingHandler multi = subscribe("zigbee2mqtt/#");
+        RecordingHandler all = subscribe("#");
+
+        assertEquals(2, router.route("home/alarm/state", null));
+        assertEquals(2, router.route("home/door/contact", null));
+        assertEquals(1, router.route("home/door/contact/battery", null));
+        assertEquals(2, router.route("zigbee2mqtt/bridge/state", null));
+        assertEquals(2, router.route("zigbee2mqtt", null));
+
+        assertEquals(1, exact.topics.size());
+        assertEquals(1, single.topics.size());
+        assertEquals(2, multi.topics.size());
+        assertEquals(5, all.topics.size());
+    }
+
+    @Test
+    public void wildcardsSkipReservedTopics() {
+        RecordingHandler all = subscribe("#");
+        RecordingHandler single = subscribe("+/broker/uptime");
+        RecordingHandler sys = subscribe("$SYS/#");
+
+        assertEquals(1, router.route("$SYS/broker/uptime", null));
+        assertTrue(all.topics.isEmpty());
+        assertTrue(single.topics.isEmpty());
+        assertEquals(1, sys.topics.size());
+    }
+
+    @Test
+    public void unsubscribeReportsLastHandler() {
+        RecordingHandler first = new RecordingHandler();
+        RecordingHandler second = new RecordingHandler();
+        assertTrue(router.subscribe("home/+/contact", first));
+        assertFalse(router.subscribe("home/+/contact", second));
+        assertFalse(router.subscribe("home/+/contact", second));
+        assertEquals(1, router.getFilters().size());
+
+        assertFalse(router.unsubscribe("home/+/contact", first));
+        assertTrue(router.unsubscribe("home/+/contact", second));
+        assertEquals(0, router.route("home/door/contact", null));
+        assertTrue(router.getFilters().isEmpty());
+    }
+
+    @Test
+    public void manySubscriptions() {
+        RecordingHandler handler = new RecordingHandler();
+        for (int i = 0; i < 10000; i++) {
+            router.subscribe("home/sensor" + i + "/+", handler);
+        }
+        assertEquals(10000, router.getFilters().size());
+        assertEquals(1, router.route("home/sensor9999/temperature", null));
+        assertEquals(0, router.route("home/sensor10000/temperature", null));
+    }
+
+    @Test
+    public void benchmark() {
+        final List<String> filters = new ArrayList<>(SUBSCRIPTIONS);
+        RecordingHandler handler = new RecordingHandler();
+        for (int i = 0; i < SUBSCRIPTIONS; i++) {
+            // mostly one filter per device, with some whole subtrees
+            String filter = i % 100 == 0 ? "zigbee2mqtt/room" + i + "/#" : "home/sensor" + i + "/+";
+            filters.add(filter);
+            router.subscribe(filter, handler);
+        }
+        String[] topics = new String[SUBSCRIPTIONS];
+        for (int i = 0; i < SUBSCRIPTIONS; i++) {
+            topics[i] = i % 100 == 0 ? "zigbee2mqtt/room" + i + "/motion/state" : "home/sensor" + i + "/temperature";
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long routed = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < ROUTES; i++) {
+                routed += router.route(topics[(i * 7919) % SUBSCRIPTIONS], null);
+            }
+            long routeNanos = System.nanoTime() - start;
+            assertEquals(ROUTES, routed);
+            handler.topics.clear();
+
+            long matched = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < SCAN_ROUTES; i++) {
+                String topic = topics[(i * 7919) % SUBSCRIPTIONS];
+                // what routing costs when every filter is checked against every message
+                for (String filter : filters) {
+                    if (MqttTopic.isMatched(filter, topic)) {
+                        matched++;
+                    }
+                }
+            }
+            long scanNanos = System.nanoTime() - start;
+            assertEquals(SCAN_ROUTES, matched);
+
+            if (round == ROUNDS - 1) {
+                System.out.println("topic router, " + SUBSCRIPTIONS + " subscriptions: "
+                        + ROUTES * 1000000000L / routeNanos + " routes/s (" + routeNanos / ROUTES + " ns/route), "
+                        + "checking every filter: " + SCAN_ROUTES * 1000000000L / scanNanos + " routes/s ("
+                        + scanNanos / SCAN_ROUTES + " ns/route)");
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPartialWildcard() {
+        router.subscribe("home/door#", new RecordingHandler());
+    }
+
+    private RecordingHandler subscribe(String filter) {
+        RecordingHandler handler = new RecordingHandler();
+        router.subscribe(filter, handler);
+        return handler;
+    }
+
+    private static class RecordingHandler implements TopicRouter.Handler {
+        final List<String> topics = new ArrayList<>();
+
+        @Override
+        public void onMessage(String topic, MqttMessage message) {
+            topics.add(topic);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.thanksmister.iot.mqtt.alarmpanel.ui;
+
+import android.view.Choreographer;
+
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig;
+import com.thanksmister.iot.mqtt.alarmpanel.network.model.SubscriptionData;
+import com.thanksmister.iot.mqtt.alarmpanel.utils.AlarmUtils;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Which states of a burst survive coalescing.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class StateDispatcherTest {
+
+    private static final String TOPIC = "home/alarm";
+
+    private final List<String> delivered = new ArrayList<>();
+    private StateDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new StateDispatcher(Choreographer.getInstance(), new StateDispatcher.Listener() {
+            @Override
+            public void onPersist(SubscriptionData data) {
+            }
+
+            @Override
+            public void onStateChange(String topic, String state) {
+                delivered.add(state);
+            }
+        });
+    }
+
+    @Test
+    public void collapsesRepeatsAndPlainStates() {
+        post(AlarmUtils.STATE_DISARM, AlarmUtils.STATE_DISARM, AlarmUtils.STATE_ARM_HOME, AlarmUtils.STATE_ARM_AWAY);
+        dispatcher.drain();
+        assertEquals(Arrays.asList(AlarmUtils.STATE_ARM_AWAY), delivered);
+    }
+
+    @Test
+    public void keepsTheStateAfterTriggered() {
+        post(AlarmUtils.STATE_TRIGGERED, AlarmUtils.STATE_DISARM, AlarmUtils.STATE_ARM_AWAY);
+        dispatcher.drain();
+        assertEquals(Arrays.asList(AlarmUtils.STATE_TRIGGERED, AlarmUtils.STATE_DISARM, AlarmUtils.STATE_ARM_AWAY),
+                delivered);
+    }
+
+    @Test
+    public void keepsTheStateAfterDeliveredTriggered() {
+        post(AlarmUtils.STATE_TRIGGERED);
+        dispatcher.drain();
+        post(AlarmUtils.STATE_DISARM, AlarmUtils.STATE_ARM_HOME);
+        dispatcher.drain();
+        assertEquals(Arrays.asList(AlarmUtils.STATE_TRIGGERED, AlarmUtils.STATE_DISARM, AlarmUtils.STATE_ARM_HOME),
+                delivered);
+    }
+
+    @Test
+    public void neverDropsPendingOrTriggered() {
+        for (int i = 0; i < 50; i++) {
+            post(AlarmUtils.STATE_PENDING, AlarmUtils.STATE_TRIGGERED);
+        }
+        dispatcher.drain();
+        assertEquals(100, delivered.size());
+    }
+
+    private void post(String... states) {
+        for (String state : states) {
+            dispatcher.post(TOPIC, state, null);
+        }
+    }
+}
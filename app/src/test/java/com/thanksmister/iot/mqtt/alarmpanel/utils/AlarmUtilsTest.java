@@ -0,0 +1,119 @@
+package com.thanksmister.iot.mqtt.alarmpanel.utils;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for the Alarm utils, and a comparison of classifying payloads from their bytes
+ * with decoding them first, messages per second and bytes allocated per message are printed
+ * for each.
+ */
+public class AlarmUtilsTest {
+
+    private static final int MESSAGES = 1000000;
+    private static final int ROUNDS = 5;
+
+    // what MQTTService checked every payload against before the byte classifier
+    private static final List<String> SUPPORTED_STATES = Arrays.asList(AlarmUtils.STATE_DISARM,
+            AlarmUtils.STATE_ARM_AWAY, AlarmUtils.STATE_ARM_HOME, AlarmUtils.STATE_PENDING,
+            AlarmUtils.STATE_TRIGGERED);
+
+    // a state topic that also carries sensor updates, one state in four messages
+    private static final byte[][] PAYLOADS = {
+            "armed_away".getBytes(), "{\"contact\":true,\"battery\":97}".getBytes(),
+            "{\"temperature\":21.5}".getBytes(), "{\"motion\":false}".getBytes(),
+            "pending".getBytes(), "{\"contact\":false,\"battery\":97}".getBytes(),
+            "{\"temperature\":21.6}".getBytes(), "{\"motion\":true}".getBytes()};
+
+    @Test
+    public void getAlarmState() throws Exception {
+        assertSame(AlarmUtils.STATE_DISARM, AlarmUtils.getAlarmState("disarmed".getBytes()));
+        assertSame(AlarmUtils.STATE_ARM_AWAY, AlarmUtils.getAlarmState("armed_away".getBytes()));
+        assertSame(AlarmUtils.STATE_ARM_HOME, AlarmUtils.getAlarmState("armed_home".getBytes()));
+        assertSame(AlarmUtils.STATE_PENDING, AlarmUtils.getAlarmState("pending".getBytes()));
+        assertSame(AlarmUtils.STATE_TRIGGERED, AlarmUtils.getAlarmState("triggered".getBytes()));
+        // only the start of a reused buffer
+        assertSame(AlarmUtils.STATE_PENDING, AlarmUtils.getAlarmState("pending_and_more".getBytes(), 7));
+    }
+
+    @Test
+    public void getAlarmStateUnsupported() throws Exception {
+        assertNull(AlarmUtils.getAlarmState(null));
+        assertNull(AlarmUtils.getAlarmState(new byte[0]));
+        assertNull(AlarmUtils.getAlarmState("armed_night".getBytes()));
+        assertNull(AlarmUtils.getAlarmState("armed_hone".getBytes()));
+        assertNull(AlarmUtils.getAlarmState("Pending".getBytes()));
+        assertNull(AlarmUtils.getAlarmState("{\"contact\":true}".getBytes()));
+    }
+
+    @Test
+    public void hasSupportedStates() throws Exception {
+        assertTrue(AlarmUtils.hasSupportedStates("triggered"));
+        assertFalse(AlarmUtils.hasSupportedStates(AlarmUtils.STATE_ERROR));
+        assertFalse(AlarmUtils.hasSupportedStates(null));
+        assertEquals(AlarmUtils.hasSupportedStates("pending"), AlarmUtils.getAlarmState("pending".getBytes()) != null);
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        for (int i = 0; i < ROUNDS; i++) {
+            boolean print = i == ROUNDS - 1;
+            measure("new String + List.contains", new Classifier() {
+                @Override
+                public boolean isState(byte[] payload) {
+                    String state = new String(payload);
+                    return SUPPORTED_STATES.contains(state);
+                }
+            }, print);
+            measure("getAlarmState(byte[])", new Classifier() {
+                @Override
+                public boolean isState(byte[] payload) {
+                    return AlarmUtils.getAlarmState(payload) != null;
+                }
+            }, print);
+        }
+    }
+
+    private static void measure(String name, Classifier classifier, boolean print) {
+        int states = 0;
+        long bytes = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            if (classifier.isState(PAYLOADS[i % PAYLOADS.length])) {
+                states++;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = getAllocatedBytes() - bytes;
+        assertEquals(MESSAGES / 4, states);
+        if (print) {
+            System.out.println(name + ": " + (MESSAGES * 1000000000L / Math.max(1, nanos)) + " messages/s, "
+                    + (bytes < 0 ? "?" : String.format(Locale.US, "%.1f", (double) bytes / MESSAGES)) + " bytes/message");
+        }
+    }
+
+    /**
+     * Bytes allocated by this thread so far, -1 when the VM doesn't count them.
+     */
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private interface Classifier {
+        boolean isState(byte[] payload);
+    }
+}
@@ -0,0 +1,62 @@
+package dpreference;
+
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Batched edits land together, replace cached values and remove keys.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class DPreferenceEditorTest {
+
+    private static final String NAME = "editor_preferences";
+
+    private DPreference preferences;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PreferenceProvider.class, PreferenceProvider.AUTHORITY);
+        preferences = new DPreference(RuntimeEnvironment.application, NAME);
+    }
+
+    @Test
+    public void appliesEveryValue() {
+        preferences.setPrefString("broker", "192.168.1.2");
+        preferences.setPrefString("username", "panel");
+        // cache the old values
+        assertEquals("192.168.1.2", preferences.getPrefString("broker", null));
+        assertEquals("panel", preferences.getPrefString("username", null));
+
+        preferences.edit()
+                .putString("broker", "192.168.1.3")
+                .putInt("port", 8883)
+                .putLong("time", 42L)
+                .putBoolean("tls", true)
+                .remove("username")
+                .apply();
+
+        assertEquals("192.168.1.3", preferences.getPrefString("broker", null));
+        assertEquals(8883, preferences.getPrefInt("port", -1));
+        assertEquals(42L, preferences.getPrefLong("time", -1));
+        assertTrue(preferences.getPrefBoolean("tls", false));
+        assertEquals("none", preferences.getPrefString("username", "none"));
+    }
+
+    @Test
+    public void emptyEditDoesNothing() {
+        preferences.setPrefInt("port", 1883);
+        preferences.edit().apply();
+        assertEquals(1883, preferences.getPrefInt("port", -1));
+    }
+}
@@ -0,0 +1,94 @@
+package dpreference;
+
+import android.content.ContentValues;
+
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cached reads see every write, and what a read costs with and without the cache is printed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class PrefCacheTest {
+
+    private static final String NAME = "cache_preferences";
+    private static final int READS = 20000;
+    private static final int ROUNDS = 5;
+
+    private DPreference preferences;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PreferenceProvider.class, PreferenceProvider.AUTHORITY);
+        preferences = new DPreference(RuntimeEnvironment.application, NAME);
+    }
+
+    @Test
+    public void readsSeeOwnWrites() {
+        assertNull(preferences.getPrefString("broker", null));
+        preferences.setPrefString("broker", "192.168.1.2");
+        assertEquals("192.168.1.2", preferences.getPrefString("broker", null));
+        preferences.setPrefString("broker", "192.168.1.3");
+        assertEquals("192.168.1.3", preferences.getPrefString("broker", null));
+
+        preferences.setPrefInt("port", 1883);
+        assertEquals(1883, preferences.getPrefInt("port", -1));
+        preferences.setPrefLong("time", 42L);
+        assertEquals(42L, preferences.getPrefLong("time", -1));
+        assertFalse(preferences.getPrefBoolean("tls", false));
+        preferences.setPrefBoolean("tls", true);
+        assertTrue(preferences.getPrefBoolean("tls", false));
+
+        preferences.removePreference("broker");
+        assertEquals("none", preferences.getPrefString("broker", "none"));
+    }
+
+    @Test
+    public void providerChangesInvalidate() {
+        preferences.setPrefString("topic", "home/alarm");
+        assertEquals("home/alarm", preferences.getPrefString("topic", null));
+
+        // a write that doesn't go through this process' accessor
+        ContentValues values = new ContentValues();
+        values.put(PreferenceProvider.PREF_KEY, "topic");
+        values.put(PreferenceProvider.PREF_VALUE, "home/alarm/state");
+        RuntimeEnvironment.application.getContentResolver().update(
+                PreferenceProvider.buildUri(NAME, "topic", PreferenceProvider.PREF_STRING), values, null, null);
+        assertEquals("home/alarm/state", preferences.getPrefString("topic", null));
+    }
+
+    @Test
+    public void benchmark() {
+        preferences.setPrefString("topic", "home/alarm");
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            for (int j = 0; j < READS; j++) {
+                PrefAccessor.query(RuntimeEnvironment.application, NAME, "topic", PreferenceProvider.PREF_STRING);
+            }
+            long uncached = (System.nanoTime() - start) / READS;
+
+            start = System.nanoTime();
+            for (int j = 0; j < READS; j++) {
+                preferences.getPrefString("topic", null);
+            }
+            long cached = (System.nanoTime() - start) / READS;
+            if (i == ROUNDS - 1) {
+                System.out.println("preference read: " + uncached + " ns through the provider, "
+                        + cached + " ns cached");
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package dpreference;
+
+import com.thanksmister.iot.mqtt.alarmpanel.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A snapshot holds every value of the file and is replaced after any change.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class PrefSnapshotTest {
+
+    private static final String NAME = "snapshot_preferences";
+
+    private DPreference preferences;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(PreferenceProvider.class, PreferenceProvider.AUTHORITY);
+        preferences = new DPreference(RuntimeEnvironment.application, NAME);
+    }
+
+    @Test
+    public void holdsEveryValue() {
+        preferences.edit()
+                .putString("broker", "192.168.1.2")
+                .putInt("port", 1883)
+                .putLong("time", 42L)
+                .putBoolean("tls", true)
+                .apply();
+
+        PrefSnapshot snapshot = preferences.getSnapshot();
+        assertEquals("192.168.1.2", snapshot.getPrefString("broker", null));
+        assertEquals(1883, snapshot.getPrefInt("port", -1));
+        assertEquals(42L, snapshot.getPrefLong("time", -1));
+        assertTrue(snapshot.getPrefBoolean("tls", false));
+        assertFalse(snapshot.contains("username"));
+        assertEquals("none", snapshot.getPrefString("username", "none"));
+        // read with another type than written
+        assertEquals(-1, snapshot.getPrefInt("broker", -1));
+    }
+
+    @Test
+    public void replacedAfterChange() {
+        preferences.setPrefInt("port", 1883);
+        PrefSnapshot snapshot = preferences.getSnapshot();
+        assertSame(snapshot, preferences.getSnapshot());
+
+        preferences.setPrefInt("port", 8883);
+        PrefSnapshot changed = preferences.getSnapshot();
+        assertNotSame(snapshot, changed);
+        assertEquals(1883, snapshot.getPrefInt("port", -1));
+        assertEquals(8883, changed.getPrefInt("port", -1));
+    }
+}